@@ -30,6 +30,8 @@ import com.google.common.util.concurrent.ListenableFuture;
 import au.com.mineauz.minigames.Metrics.Graph;
 import au.com.mineauz.minigames.backend.BackendManager;
 import au.com.mineauz.minigames.blockRecorder.BasicRecorder;
+import au.com.mineauz.minigames.blockRecorder.RecorderDispatcher;
+import au.com.mineauz.minigames.blockRecorder.RollbackJournal;
 import au.com.mineauz.minigames.commands.CommandDispatcher;
 import au.com.mineauz.minigames.display.DisplayManager;
 import au.com.mineauz.minigames.gametypes.MinigameType;
@@ -40,7 +42,6 @@ import au.com.mineauz.minigames.minigame.Minigame;
 import au.com.mineauz.minigames.minigame.reward.RewardsModule;
 import au.com.mineauz.minigames.signs.SignBase;
 import au.com.mineauz.minigames.stats.MinigameStats;
-import au.com.mineauz.minigames.stats.StatValueField;
 import au.com.mineauz.minigames.stats.StoredGameStats;
 
 public class Minigames extends JavaPlugin{
@@ -59,6 +60,7 @@ public class Minigames extends JavaPlugin{
 	private long lastUpdateCheck = 0;
 	
 	private BackendManager backend;
+	private RecorderDispatcher recorderDispatcher;
 	
 	public void onEnable(){
 		try {
@@ -96,6 +98,8 @@ public class Minigames extends JavaPlugin{
 			
 			getServer().getPluginManager().registerEvents(new Events(), this);
 			getServer().getPluginManager().registerEvents(new BasicRecorder(), this);
+			recorderDispatcher = new RecorderDispatcher();
+			getServer().getPluginManager().registerEvents(recorderDispatcher, this);
 			
 			try{
 				this.getConfig().load(this.getDataFolder() + "/config.yml");
@@ -116,6 +120,7 @@ public class Minigames extends JavaPlugin{
 								try{
 									game.loadMinigame();
 									mdata.addMinigame(game);
+									game.getBlockRecorder().replayJournal();
 								}
 								catch(Exception e){
 									getLogger().severe(ChatColor.RED.toString() + "Failed to load \"" + minigame +"\"! The configuration file may be corrupt or missing!");
@@ -242,6 +247,7 @@ public class Minigames extends JavaPlugin{
 		}
 		
 		backend.shutdown();
+		RollbackJournal.shutdown();
 		
 //		pdata.saveDCPlayers();
 		pdata.saveDeniedCommands();
@@ -322,6 +328,10 @@ public class Minigames extends JavaPlugin{
 		return backend;
 	}
 	
+	public RecorderDispatcher getRecorderDispatcher() {
+		return recorderDispatcher;
+	}
+	
 	public long getLastUpdateCheck(){
 		return lastUpdateCheck;
 	}
@@ -420,8 +430,8 @@ public class Minigames extends JavaPlugin{
 	public void queueStatSave(final StoredGameStats saveData, final boolean winner) {
 		MinigameUtils.debugMessage("Scheduling SQL data save for " + saveData);
 		
-		ListenableFuture<Long> winCountFuture = backend.loadSingleStat(saveData.getMinigame(), MinigameStats.Wins, StatValueField.Total, saveData.getPlayer().getUUID());
-		backend.saveStats(saveData);
+		// The win count from before this game, excluding any games queued after it
+		ListenableFuture<Long> winCountFuture = backend.saveStats(saveData, MinigameStats.Wins);
 		
 		backend.addServerThreadCallback(winCountFuture, new FutureCallback<Long>() {
 			@Override
@@ -24,7 +24,6 @@ import org.bukkit.entity.EntityType;
 import org.bukkit.entity.Firework;
 import org.bukkit.entity.Player;
 import org.bukkit.entity.Vehicle;
-import org.bukkit.event.HandlerList;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.inventory.meta.FireworkMeta;
 import org.bukkit.potion.PotionEffect;
@@ -163,6 +162,11 @@ public class PlayerData {
 					player.sendMessage(ChatColor.GREEN + "----------------------------------------------------");
 				}
 				
+				if(minigame.getPlayers().isEmpty()){
+					//Chests randomized while recording the regen area must use this round's layouts
+					minigame.getBlockRecorder().prepareRound();
+				}
+				
 				//Prepare regeneration region for rollback.
 				if(minigame.getBlockRecorder().hasRegenArea() && !minigame.getBlockRecorder().hasCreatedRegenBlocks()){
 					RecorderData d = minigame.getBlockRecorder();
@@ -217,7 +221,7 @@ public class PlayerData {
 				if(minigame.getPlayers().size() == 1){
 					//Register regen recorder events
 					if(minigame.getBlockRecorder().hasRegenArea())
-						Bukkit.getServer().getPluginManager().registerEvents(minigame.getBlockRecorder(), plugin);
+						plugin.getRecorderDispatcher().register(minigame.getBlockRecorder());
 					WeatherTimeModule.getMinigameModule(minigame).startTimeLoop();
 				}
 				
@@ -559,7 +563,7 @@ public class PlayerData {
 				}
 				
 				if(minigame.getPlayers().size() == 0 && !minigame.isRegenerating()){
-					HandlerList.unregisterAll(minigame.getBlockRecorder());
+					plugin.getRecorderDispatcher().unregister(minigame.getBlockRecorder());
 				}
 				
 				//Send out messages
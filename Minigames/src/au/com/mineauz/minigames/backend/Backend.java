@@ -1,5 +1,6 @@
 package au.com.mineauz.minigames.backend;
 
+import java.sql.SQLException;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
@@ -16,6 +17,15 @@ import au.com.mineauz.minigames.stats.StoredGameStats;
 import au.com.mineauz.minigames.stats.StoredStat;
 
 public abstract class Backend {
+	private final BackendCache cache = new BackendCache();
+	
+	/**
+	 * @return The cache of minigame ids and player details for this backend
+	 */
+	public BackendCache getCache() {
+		return cache;
+	}
+	
 	/**
 	 * Initializes the backend. This may include creating / converting tables as needed
 	 * @param config The configuration to load settings from
@@ -28,6 +38,11 @@ public abstract class Backend {
 	 */
 	public abstract void shutdown();
 	
+	/**
+	 * @return The pool of connections used by this backend
+	 */
+	public abstract ConnectionPool getPool();
+	
 	/**
 	 * Cleans unused connections
 	 */
@@ -39,6 +54,13 @@ public abstract class Backend {
 	 */
 	public abstract void saveGameStatus(StoredGameStats stats);
 	
+	/**
+	 * Saves the merged stats of many games to the backend in one go. This method is blocking.
+	 * @param batch The stats to store
+	 * @throws SQLException Thrown if the stats could not be saved. None of the batch will have been stored
+	 */
+	public abstract void saveGameStatus(StatBatch batch) throws SQLException;
+	
 	/**
 	 * Loads all player stats from the backend. This method is blocking.
 	 * @param minigame The minigame to load stats for
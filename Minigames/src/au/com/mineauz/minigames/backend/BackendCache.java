@@ -0,0 +1,125 @@
+package au.com.mineauz.minigames.backend;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Objects;
+
+import au.com.mineauz.minigames.MinigamePlayer;
+
+/**
+ * Caches minigame ids and player details of a backend so they do not
+ * need to be looked up or rewritten on every save.
+ * This is safe to use from multiple threads.
+ */
+public class BackendCache {
+	private final Map<String, Integer> minigameIds = new ConcurrentHashMap<String, Integer>();
+	private final Map<UUID, PlayerEntry> players = new ConcurrentHashMap<UUID, PlayerEntry>();
+	
+	private final AtomicLong minigameHits = new AtomicLong();
+	private final AtomicLong minigameMisses = new AtomicLong();
+	private final AtomicLong playerHits = new AtomicLong();
+	private final AtomicLong playerMisses = new AtomicLong();
+	
+	/**
+	 * Gets the id of a minigame
+	 * @param name The name of the minigame
+	 * @return The id or null if it is not cached
+	 */
+	public Integer getMinigameId(String name) {
+		Integer id = minigameIds.get(name);
+		if (id != null) {
+			minigameHits.incrementAndGet();
+		} else {
+			minigameMisses.incrementAndGet();
+		}
+		return id;
+	}
+	
+	public void putMinigameId(String name, int id) {
+		minigameIds.put(name, id);
+	}
+	
+	/**
+	 * Removes the cached id of a minigame. Should be called when the minigame is deleted or renamed
+	 */
+	public void invalidateMinigame(String name) {
+		minigameIds.remove(name);
+	}
+	
+	/**
+	 * Checks whether the stored name and display name of the player match their current ones
+	 * @return True if the player does not need to be written
+	 */
+	public boolean isPlayerCurrent(MinigamePlayer player) {
+		PlayerEntry entry = players.get(player.getUUID());
+		if (entry != null && entry.matches(player.getName(), player.getDisplayName())) {
+			playerHits.incrementAndGet();
+			return true;
+		} else {
+			playerMisses.incrementAndGet();
+			return false;
+		}
+	}
+	
+	public void putPlayer(UUID playerId, String name, String displayName) {
+		players.put(playerId, new PlayerEntry(name, displayName));
+	}
+	
+	public void invalidatePlayer(UUID playerId) {
+		players.remove(playerId);
+	}
+	
+	/**
+	 * Removes everything that is cached. Should be called when the tables are replaced
+	 */
+	public void clear() {
+		minigameIds.clear();
+		players.clear();
+	}
+	
+	public int getMinigameCount() {
+		return minigameIds.size();
+	}
+	
+	public int getPlayerCount() {
+		return players.size();
+	}
+	
+	/**
+	 * @return The fraction of minigame id lookups that were cached, between 0 and 1
+	 */
+	public double getMinigameHitRatio() {
+		return ratio(minigameHits.get(), minigameMisses.get());
+	}
+	
+	/**
+	 * @return The fraction of player updates that were skipped as the player was unchanged, between 0 and 1
+	 */
+	public double getPlayerHitRatio() {
+		return ratio(playerHits.get(), playerMisses.get());
+	}
+	
+	private static double ratio(long hits, long misses) {
+		if (hits + misses == 0) {
+			return 0;
+		}
+		return (double)hits / (hits + misses);
+	}
+	
+	private static final class PlayerEntry {
+		private final String name;
+		private final String displayName;
+		
+		public PlayerEntry(String name, String displayName) {
+			this.name = name;
+			this.displayName = displayName;
+		}
+		
+		public boolean matches(String name, String displayName) {
+			return Objects.equal(this.name, name) && Objects.equal(this.displayName, displayName);
+		}
+	}
+}
@@ -6,18 +6,26 @@ import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.bukkit.Bukkit;
 import org.bukkit.configuration.ConfigurationSection;
 
+import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import au.com.mineauz.minigames.Minigames;
 import au.com.mineauz.minigames.backend.mysql.MySQLBackend;
@@ -33,9 +41,47 @@ import au.com.mineauz.minigames.stats.StoredStat;
 public class BackendManager {
 	private final Logger logger;
 	
-	private Backend backend;
+	private volatile Backend backend;
+	// All writes run on this single thread
 	private ListeningExecutorService executorService;
+	private ScheduledThreadPoolExecutor scheduler;
+	// Reads run on these threads so they do not wait behind writes
+	private ListeningExecutorService readExecutorService;
+	private ThreadPoolExecutor readThreads;
+	// Reads hold the read lock. Switching backends holds the write lock
+	private final ReadWriteLock backendLock = new ReentrantReadWriteLock();
 	private Executor bukkitThreadExecutor;
+	private final Leaderboards leaderboards = new Leaderboards();
+	
+	// Stats waiting to be written. Guarded by pendingLock
+	private final Object pendingLock = new Object();
+	private StatBatch pendingStats = new StatBatch();
+	private List<PendingSave> pendingSaves = Lists.newArrayList();
+	private boolean flushScheduled;
+	// The batch being written, and how many batches have started being written.
+	// Readers of values in the batch being written wait for it, as they cannot tell
+	// whether the backend includes it yet. pendingLock is notified when it is done.
+	private StatBatch inFlightStats;
+	private long flushStarts;
+	private long writeDelay = 1000;
+	private int batchSize = 50;
+	
+	private volatile boolean shuttingDown;
+	
+	private volatile long flushCount;
+	private volatile long failedFlushCount;
+	private volatile long flushedGames;
+	private volatile long flushedRows;
+	private volatile long totalFlushNanos;
+	private volatile long lastFlushNanos;
+	private volatile int maxPendingGames;
+	
+	private final Runnable flushTask = new Runnable() {
+		@Override
+		public void run() {
+			flushPending();
+		}
+	};
 	
 	public BackendManager(Logger logger) {
 		this.logger = logger;
@@ -47,7 +93,16 @@ public class BackendManager {
 			}
 		};
 		
-		executorService = MoreExecutors.listeningDecorator(Executors.newSingleThreadExecutor());
+		// Delayed stat flushes run on the same thread as everything else so they stay in order
+		scheduler = new ScheduledThreadPoolExecutor(1);
+		scheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+		executorService = MoreExecutors.listeningDecorator(scheduler);
+		
+		readThreads = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactoryBuilder()
+				.setNameFormat("Minigames Backend Reader #%d")
+				.setDaemon(true)
+				.build());
+		readExecutorService = MoreExecutors.listeningDecorator(readThreads);
 	}
 	
 	private Backend makeBackend(String type) {
@@ -89,6 +144,9 @@ public class BackendManager {
 			config.set("sql-password", null);
 		}
 		
+		writeDelay = Math.max(0, backendSection.getLong("stat-write-delay", writeDelay));
+		batchSize = Math.max(1, backendSection.getInt("stat-batch-size", batchSize));
+		
 		// Create the backend
 		String type = backendSection.getString("type", "sqlite").toLowerCase();
 		backend = makeBackend(type);
@@ -104,6 +162,12 @@ public class BackendManager {
 			return false;
 		}
 		
+		// Leave a connection free for the writer
+		int readers = backendSection.getInt("read-threads", 3);
+		readers = Math.max(1, Math.min(readers, backend.getPool().getMaxSize() - 1));
+		readThreads.setMaximumPoolSize(readers);
+		readThreads.setCorePoolSize(readers);
+		
 		// Handle conversion
 		if (backendSection.getBoolean("convert", false)) {
 			ExportNotifier notifier = new ExportNotifier() {
@@ -141,14 +205,29 @@ public class BackendManager {
 	}
 	
 	/**
-	 * Asks the backend to shut down
+	 * Writes any stats that are waiting, then asks the backend to shut down
 	 */
 	public void shutdown() {
+		shuttingDown = true;
+		executorService.execute(flushTask);
+		executorService.shutdown();
+		readExecutorService.shutdown();
+		try {
+			if (!executorService.awaitTermination(30, TimeUnit.SECONDS)) {
+				logger.warning("Timed out waiting for stats to be saved");
+			}
+			readExecutorService.awaitTermination(5, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		
 		backend.shutdown();
 	}
 	
 	/**
-	 * Retrieves some stats from the backend. These stats are loaded asynchronously
+	 * Retrieves some stats from the backend. These stats are loaded asynchronously.
+	 * The first load of a minigame, stat and field reads all of its values from the backend.
+	 * After that they are kept up to date in memory and the returned future is already complete.
 	 * @param minigame The minigame the stats are for
 	 * @param stat The stat to load
 	 * @param field The field of the stat to load
@@ -158,10 +237,40 @@ public class BackendManager {
 	 * @return A ListenableFuture that returns the list of StoredStats loaded
 	 */
 	public ListenableFuture<List<StoredStat>> loadStats(final Minigame minigame, final MinigameStat stat, final StatValueField field, final ScoreboardOrder order, final int offset, final int length) {
-		return executorService.submit(new Callable<List<StoredStat>>() {
+		List<StoredStat> cached = leaderboards.get(minigame, stat, field, order, offset, length);
+		if (cached != null) {
+			return Futures.immediateFuture(cached);
+		}
+		
+		return readExecutorService.submit(new Callable<List<StoredStat>>() {
 			@Override
 			public List<StoredStat> call() throws Exception {
-				return backend.loadStats(minigame, stat, field, order, offset, length);
+				backendLock.readLock().lock();
+				try {
+					while (true) {
+						long generation;
+						synchronized (pendingLock) {
+							while (inFlightStats != null && inFlightStats.hasValues(minigame, stat, field)) {
+								pendingLock.wait();
+							}
+							generation = flushStarts;
+						}
+						
+						List<StoredStat> stats = backend.loadStats(minigame, stat, field, order);
+						Leaderboards.Board board = leaderboards.build(field, stats);
+						synchronized (pendingLock) {
+							// If a batch started writing since, it may or may not have been read
+							if (flushStarts == generation) {
+								// Queued stats are not in the backend yet
+								leaderboards.install(minigame, stat, board, pendingStats);
+								break;
+							}
+						}
+					}
+				} finally {
+					backendLock.readLock().unlock();
+				}
+				return leaderboards.get(minigame, stat, field, order, offset, length);
 			}
 		});
 	}
@@ -172,30 +281,271 @@ public class BackendManager {
 	 * @param stat The stat to load
 	 * @param field The field of the stat to load
 	 * @param playerId The player that owns the stat
+	 * The value includes any stats that have been queued with {@link #saveStats(StoredGameStats)} but not yet written
 	 * @return The value of the stat. If it is not set, 0 will be returned
 	 */
 	public ListenableFuture<Long> loadSingleStat(final Minigame minigame, final MinigameStat stat, final StatValueField field, final UUID playerId) {
-		return executorService.submit(new Callable<Long>() {
+		if (field == StatValueField.Min || field == StatValueField.Max) {
+			// A missing row reads as 0 which cannot be merged with a queued min or max, so these are read after a flush
+			return executorService.submit(new Callable<Long>() {
+				@Override
+				public Long call() throws Exception {
+					flushPending();
+					return backend.getStat(minigame, playerId, stat, field);
+				}
+			});
+		}
+		
+		return readExecutorService.submit(new Callable<Long>() {
 			@Override
 			public Long call() throws Exception {
-				return backend.getStat(minigame, playerId, stat, field);
+				backendLock.readLock().lock();
+				try {
+					while (true) {
+						Long pending;
+						long generation;
+						synchronized (pendingLock) {
+							while (inFlightStats != null && inFlightStats.getValue(playerId, minigame, stat, field) != null) {
+								pendingLock.wait();
+							}
+							pending = pendingStats.getValue(playerId, minigame, stat, field);
+							generation = flushStarts;
+						}
+						
+						if (pending == null) {
+							return backend.getStat(minigame, playerId, stat, field);
+						} else if (field == StatValueField.Last) {
+							return pending;
+						}
+						
+						long stored = backend.getStat(minigame, playerId, stat, field);
+						synchronized (pendingLock) {
+							// Otherwise the pending value may have been written and read as well
+							if (flushStarts == generation) {
+								return stored + pending;
+							}
+						}
+					}
+				} finally {
+					backendLock.readLock().unlock();
+				}
 			}
 		});
 	}
 	
 	/**
-	 * Queues a task to save the stats to the backend. The stats will be saved asynchronously
+	 * Queues the stats to be saved to the backend. Stats are merged with those of other games
+	 * and written together once {@code stat-batch-size} games are waiting, or {@code stat-write-delay}
+	 * milliseconds after the first of them was queued.
 	 * @param stats The stats to be saved
-	 * @return A ListenableFuture that returns the inputed stats for chaining.
+	 * @return A ListenableFuture that returns the inputed stats for chaining once they have been written.
+	 *         If writing fails the stats are retried with the next flush, and the future completes once that succeeds.
 	 */
 	public ListenableFuture<StoredGameStats> saveStats(final StoredGameStats stats) {
-		return executorService.submit(new Callable<StoredGameStats>() {
-			@Override
-			public StoredGameStats call() throws Exception {
-				backend.saveGameStatus(stats);
-				return stats;
+		SettableFuture<StoredGameStats> future = SettableFuture.create();
+		queueSave(new PendingSave(stats, future));
+		return future;
+	}
+	
+	/**
+	 * Queues the stats to be saved like {@link #saveStats(StoredGameStats)}, and loads the
+	 * Total of one of the player's stats as it was before this game. Games queued after
+	 * this one are not included.
+	 * @param stats The stats to be saved
+	 * @param stat The stat to load the previous Total of
+	 * @return A ListenableFuture that returns the previous Total. It completes just before the stats are written
+	 */
+	public ListenableFuture<Long> saveStats(final StoredGameStats stats, final MinigameStat stat) {
+		PendingSave save = new PendingSave(stats, SettableFuture.<StoredGameStats>create());
+		save.previousStat = stat;
+		save.previousFuture = SettableFuture.create();
+		queueSave(save);
+		return save.previousFuture;
+	}
+	
+	private void queueSave(PendingSave save) {
+		StoredGameStats stats = save.stats;
+		synchronized (pendingLock) {
+			if (save.previousStat != null) {
+				// Games queued before this one in the same batch are not in the backend when it is read
+				Long queued = pendingStats.getValue(stats.getPlayer().getUUID(), stats.getMinigame(), save.previousStat, StatValueField.Total);
+				save.previousQueued = (queued == null ? 0 : queued);
 			}
-		});
+			
+			pendingStats.add(stats);
+			leaderboards.apply(new StatBatch(stats));
+			pendingSaves.add(save);
+			maxPendingGames = Math.max(maxPendingGames, pendingStats.getGameCount());
+			
+			if (pendingStats.getGameCount() >= batchSize) {
+				executorService.execute(flushTask);
+			} else if (!flushScheduled) {
+				flushScheduled = true;
+				scheduler.schedule(flushTask, writeDelay, TimeUnit.MILLISECONDS);
+			}
+		}
+	}
+	
+	/**
+	 * Writes all queued stats now. This is performed asynchronously
+	 * @return A ListenableFuture to get the status of the flush
+	 */
+	public ListenableFuture<Void> flushStats() {
+		return executorService.submit(flushTask, null);
+	}
+	
+	// Must only be called from the executor thread
+	private void flushPending() {
+		StatBatch batch;
+		List<PendingSave> saves;
+		synchronized (pendingLock) {
+			flushScheduled = false;
+			if (pendingStats.isEmpty()) {
+				return;
+			}
+			
+			batch = pendingStats;
+			saves = pendingSaves;
+			pendingStats = new StatBatch();
+			pendingSaves = Lists.newArrayList();
+			inFlightStats = batch;
+			++flushStarts;
+		}
+		
+		long start = System.nanoTime();
+		try {
+			// The backend holds everything before this batch, so previous values are read now
+			for (PendingSave save : saves) {
+				if (save.previousFuture != null && !save.previousFuture.isDone()) {
+					StoredGameStats stats = save.stats;
+					long stored = backend.getStat(stats.getMinigame(), stats.getPlayer().getUUID(), save.previousStat, StatValueField.Total);
+					save.previousFuture.set(stored + save.previousQueued);
+				}
+			}
+			
+			backend.saveGameStatus(batch);
+		} catch (Throwable e) {
+			++failedFlushCount;
+			if (shuttingDown) {
+				logger.log(Level.SEVERE, "Failed to save stats for " + batch + ". They have been lost", e);
+				for (PendingSave save : saves) {
+					save.future.setException(e);
+					if (save.previousFuture != null) {
+						save.previousFuture.setException(e);
+					}
+				}
+				finishFlush();
+				return;
+			}
+			
+			logger.log(Level.SEVERE, "Failed to save stats for " + batch + ". They will be retried", e);
+			// Put the batch back in front of anything queued since, so it is written with the next flush
+			synchronized (pendingLock) {
+				for (PendingSave save : pendingSaves) {
+					if (save.previousFuture != null) {
+						// These were queued after this batch, which is no longer in the backend
+						StoredGameStats stats = save.stats;
+						Long failed = batch.getValue(stats.getPlayer().getUUID(), stats.getMinigame(), save.previousStat, StatValueField.Total);
+						save.previousQueued += (failed == null ? 0 : failed);
+					}
+				}
+				
+				batch.addAll(pendingStats);
+				saves.addAll(pendingSaves);
+				pendingStats = batch;
+				pendingSaves = saves;
+				inFlightStats = null;
+				pendingLock.notifyAll();
+				
+				if (!flushScheduled) {
+					flushScheduled = true;
+					scheduler.schedule(flushTask, writeDelay, TimeUnit.MILLISECONDS);
+				}
+			}
+			return;
+		}
+		
+		lastFlushNanos = System.nanoTime() - start;
+		totalFlushNanos += lastFlushNanos;
+		flushedGames += batch.getGameCount();
+		flushedRows += batch.getValues().size();
+		++flushCount;
+		finishFlush();
+		
+		for (PendingSave save : saves) {
+			save.future.set(save.stats);
+		}
+	}
+	
+	private void finishFlush() {
+		synchronized (pendingLock) {
+			inFlightStats = null;
+			pendingLock.notifyAll();
+		}
+	}
+	
+	/**
+	 * @return The number of games whose stats are waiting to be written
+	 */
+	public int getPendingGames() {
+		synchronized (pendingLock) {
+			return pendingStats.getGameCount();
+		}
+	}
+	
+	/**
+	 * @return The most games that have been waiting to be written at once
+	 */
+	public int getMaxPendingGames() {
+		return maxPendingGames;
+	}
+	
+	/**
+	 * @return The number of times queued stats have been written
+	 */
+	public long getFlushCount() {
+		return flushCount;
+	}
+	
+	/**
+	 * @return The number of times writing queued stats failed. Failed stats are kept and retried
+	 */
+	public long getFailedFlushCount() {
+		return failedFlushCount;
+	}
+	
+	/**
+	 * @return The number of games written
+	 */
+	public long getFlushedGames() {
+		return flushedGames;
+	}
+	
+	/**
+	 * @return The average number of stat rows written per flush
+	 */
+	public double getAverageRowsPerFlush() {
+		if (flushCount == 0) {
+			return 0;
+		}
+		return (double)flushedRows / flushCount;
+	}
+	
+	/**
+	 * @return The average time taken to write queued stats in nanoseconds
+	 */
+	public double getAverageFlushNanos() {
+		if (flushCount == 0) {
+			return 0;
+		}
+		return (double)totalFlushNanos / flushCount;
+	}
+	
+	/**
+	 * @return The time taken by the last write of queued stats in nanoseconds
+	 */
+	public long getLastFlushNanos() {
+		return lastFlushNanos;
 	}
 	
 	/**
@@ -204,10 +554,15 @@ public class BackendManager {
 	 * @return A ListenerableFuture that returns a map of minigame stats and their settings
 	 */
 	public ListenableFuture<Map<MinigameStat, StatSettings>> loadStatSettings(final Minigame minigame) {
-		return executorService.submit(new Callable<Map<MinigameStat, StatSettings>>() {
+		return readExecutorService.submit(new Callable<Map<MinigameStat, StatSettings>>() {
 			@Override
 			public Map<MinigameStat, StatSettings> call() throws Exception {
-				return backend.loadStatSettings(minigame);
+				backendLock.readLock().lock();
+				try {
+					return backend.loadStatSettings(minigame);
+				} finally {
+					backendLock.readLock().unlock();
+				}
 			}
 		});
 	}
@@ -228,13 +583,49 @@ public class BackendManager {
 		});
 	}
 	
+	/**
+	 * Drops anything the backend and scoreboards have cached for the minigame.
+	 * This should be called when a minigame is deleted or renamed
+	 * @param name The name of the minigame
+	 */
+	public void invalidateMinigame(String name) {
+		backend.getCache().invalidateMinigame(name);
+		leaderboards.invalidate(name);
+	}
+	
+	/**
+	 * @return The in memory scoreboards
+	 */
+	public Leaderboards getLeaderboards() {
+		return leaderboards;
+	}
+	
+	/**
+	 * @return The connection pool of the backend currently in use
+	 */
+	public ConnectionPool getPool() {
+		return backend.getPool();
+	}
+	
+	/**
+	 * @return The cache of the backend currently in use
+	 */
+	public BackendCache getCache() {
+		return backend.getCache();
+	}
+	
 	/**
 	 * Adds a callback to the ListenableFuture that will be executed on the Minecraft server thread
 	 * @param future The future to add the callback to
 	 * @param callback The callback to be added
 	 */
 	public <T> void addServerThreadCallback(ListenableFuture<T> future, FutureCallback<T> callback) {
-		Futures.addCallback(future, callback, bukkitThreadExecutor);
+		if (future.isDone() && Bukkit.isPrimaryThread()) {
+			// Results from memory can be used straight away
+			Futures.addCallback(future, callback);
+		} else {
+			Futures.addCallback(future, callback, bukkitThreadExecutor);
+		}
 	}
 	
 	/**
@@ -263,6 +654,7 @@ public class BackendManager {
 		return executorService.submit(new Runnable() {
 			@Override
 			public void run() {
+				flushPending();
 				backend.exportTo(destination, notifier);
 			}
 		}, null);
@@ -293,10 +685,34 @@ public class BackendManager {
 		return executorService.submit(new Runnable() {
 			@Override
 			public void run() {
-				backend.shutdown();
-				backend = newBackend;
+				// Waits for reads from the old backend to finish
+				backendLock.writeLock().lock();
+				try {
+					flushPending();
+					backend.shutdown();
+					backend = newBackend;
+					leaderboards.clear();
+				} finally {
+					backendLock.writeLock().unlock();
+				}
 				logger.warning("Backend has been switched to " + type);
 			}
 		}, null);
 	}
+	
+	private static class PendingSave {
+		private final StoredGameStats stats;
+		private final SettableFuture<StoredGameStats> future;
+		
+		// Set when the previous Total of a stat was requested
+		private MinigameStat previousStat;
+		private SettableFuture<Long> previousFuture;
+		// The Total queued before this game that is not in the backend
+		private long previousQueued;
+		
+		public PendingSave(StoredGameStats stats, SettableFuture<StoredGameStats> future) {
+			this.stats = stats;
+			this.future = future;
+		}
+	}
 }
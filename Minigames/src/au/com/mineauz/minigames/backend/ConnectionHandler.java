@@ -4,32 +4,54 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.google.common.base.Preconditions;
-import com.google.common.collect.Maps;
 
 public class ConnectionHandler {
+    private final ConnectionPool pool;
     private Connection connection;
-    private boolean inUse;
-    private long openTime;
-    private long closeTime;
-    private Map<StatementKey, PreparedStatement> preparedStatements;
+    private final AtomicBoolean inUse = new AtomicBoolean();
+    private final long createTime;
+    private volatile long openTime;
+    private volatile long closeTime;
+    private volatile Throwable leaseTrace;
+    private volatile boolean leakReported;
+    private final Map<StatementKey, PreparedStatement> preparedStatements;
 
-    public ConnectionHandler(Connection connection) {
+    ConnectionHandler(ConnectionPool pool, Connection connection, final int statementCacheSize) {
+        this.pool = pool;
         this.connection = connection;
         
-        preparedStatements = Maps.newIdentityHashMap();
+        createTime = System.currentTimeMillis();
+        closeTime = createTime;
+        
+        // Least recently used statements are closed once the cache is full
+        preparedStatements = new LinkedHashMap<StatementKey, PreparedStatement>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+            
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<StatementKey, PreparedStatement> eldest) {
+                if (size() > statementCacheSize) {
+                    closeStatement(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
     }
     
-    public boolean lease() {
-        if (inUse) {
+    boolean lease(boolean trace) {
+        if (!inUse.compareAndSet(false, true)) {
             return false;
-        } else {
-            inUse = true;
-            openTime = System.currentTimeMillis();
-            return true;
         }
+        
+        openTime = System.currentTimeMillis();
+        leakReported = false;
+        leaseTrace = (trace ? new Throwable("Connection taken") : null);
+        return true;
     }
     
     public Connection getConnection() {
@@ -39,6 +61,7 @@ public class ConnectionHandler {
     private PreparedStatement getStatement(StatementKey key) throws SQLException {
         // Check if its already registered
         PreparedStatement statement = preparedStatements.get(key);
+        pool.recordStatementLookup(statement != null);
         if (statement == null) {
             // Register it
             statement = key.createPreparedStatement(connection);
@@ -52,7 +75,6 @@ public class ConnectionHandler {
         PreparedStatement statement = getStatement(key);
         Preconditions.checkNotNull(statement, "Statement was never registered (or failed)");
         
-        inUse = true;
         applyArguments(statement, arguments);
         statement.setFetchSize(100); // MySQL fetches all rows at once by default, not good for memory usage
         return statement.executeQuery();
@@ -62,7 +84,6 @@ public class ConnectionHandler {
         PreparedStatement statement = getStatement(key);
         Preconditions.checkNotNull(statement, "Statement was never registered (or failed)");
         
-        inUse = true;
         applyArguments(statement, arguments);
         return statement.executeUpdate();
     }
@@ -71,7 +92,6 @@ public class ConnectionHandler {
     	PreparedStatement statement = getStatement(key);
         Preconditions.checkNotNull(statement, "Statement was never registered (or failed)");
         
-        inUse = true;
         applyArguments(statement, arguments);
         statement.addBatch();
     }
@@ -80,7 +100,6 @@ public class ConnectionHandler {
     	PreparedStatement statement = getStatement(key);
         Preconditions.checkNotNull(statement, "Statement was never registered (or failed)");
         
-        inUse = true;
         return statement.executeBatch();
     }
     
@@ -90,7 +109,6 @@ public class ConnectionHandler {
         PreparedStatement statement = getStatement(key);
         Preconditions.checkNotNull(statement, "Statement was never registered (or failed)");
         
-        inUse = true;
         applyArguments(statement, arguments);
         statement.executeUpdate();
         return statement.getGeneratedKeys();
@@ -102,12 +120,23 @@ public class ConnectionHandler {
         }
     }
     
+    /**
+     * Returns this connection to the pool. Does nothing if it has already been released
+     */
     public void release() {
-        inUse = false;
+        if (inUse.compareAndSet(true, false)) {
+            closeTime = System.currentTimeMillis();
+            leaseTrace = null;
+            pool.release(this);
+        }
     }
     
     public boolean isInUse() {
-        return inUse;
+        return inUse.get();
+    }
+    
+    public long getCreateTime() {
+        return createTime;
     }
     
     public long getOpenTime() {
@@ -118,8 +147,52 @@ public class ConnectionHandler {
         return closeTime;
     }
 
+    Throwable getLeaseTrace() {
+        return leaseTrace;
+    }
+    
+    /**
+     * @return True if the leak has not been reported yet
+     */
+    boolean markLeakReported() {
+        if (leakReported) {
+            return false;
+        }
+        leakReported = true;
+        return true;
+    }
+    
+    /**
+     * Ends any transaction that was left open so the connection can be used again
+     * @return False if the connection is no longer usable
+     */
+    boolean resetState() {
+        try {
+            if (!connection.getAutoCommit()) {
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+            return true;
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+    
+    private void closeStatement(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            // Ignore
+        }
+    }
+    
     void closeConnection() {
-        inUse = false;
+        inUse.set(false);
+        for (PreparedStatement statement : preparedStatements.values()) {
+            closeStatement(statement);
+        }
+        preparedStatements.clear();
+        
         if (connection != null) {
             try {
                 connection.close();
@@ -130,21 +203,21 @@ public class ConnectionHandler {
         }
     }
     
-    public void beginTransaction() {
-        try {
-            connection.setAutoCommit(false);
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
+    /**
+     * Starts a transaction
+     * @throws SQLException Thrown if the transaction could not be started. Statements would otherwise be committed one by one
+     */
+    public void beginTransaction() throws SQLException {
+        connection.setAutoCommit(false);
     }
     
-    public void endTransaction() {
-        try {
-            connection.commit();
-            connection.setAutoCommit(true);
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
+    /**
+     * Commits the current transaction
+     * @throws SQLException Thrown if the commit failed. {@link #endTransactionFail()} must then be called to roll it back
+     */
+    public void endTransaction() throws SQLException {
+        connection.commit();
+        connection.setAutoCommit(true);
     }
     
     public void endTransactionFail() {
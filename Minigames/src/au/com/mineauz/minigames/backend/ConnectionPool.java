@@ -3,28 +3,79 @@ package au.com.mineauz.minigames.backend;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
-import java.util.Collections;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 
+/**
+ * A bounded pool of database connections. When every connection is in use,
+ * threads wait their turn for one to be released, up to the wait timeout.
+ * Idle connections are checked with the validation query before being handed
+ * out, and connections are closed once they reach their max lifetime.
+ */
 public class ConnectionPool {
-    private String connectionString;
-    private String username;
-    private String password;
+    // Connections used within this time are assumed to still be working
+    private static final long VALIDATION_BYPASS = TimeUnit.SECONDS.toMillis(5);
+    
+    private final String connectionString;
+    private final String username;
+    private final String password;
+    private final Logger logger;
     
     private long maxIdleTime;
+    private int maxSize;
+    private long waitTimeout;
+    private long maxLifetime;
+    private long leakThreshold;
+    private int statementCacheSize;
+    private String validationQuery;
+    private final List<String> initStatements = Lists.newArrayList();
     
-    private List<ConnectionHandler> connections;
-
-    public ConnectionPool(String connectionString, String username, String password) {
+    // The fair lock makes waiting threads get connections in the order they asked
+    private final ReentrantLock lock = new ReentrantLock(true);
+    private final Condition available = lock.newCondition();
+    // All guarded by lock
+    private final Deque<ConnectionHandler> idle = new ArrayDeque<ConnectionHandler>();
+    private final Set<ConnectionHandler> connections = Sets.newHashSet();
+    private int pendingCreates;
+    private int waiting;
+    private volatile boolean closed;
+    
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+    private final AtomicLong createdCount = new AtomicLong();
+    private final AtomicLong closedCount = new AtomicLong();
+    private final AtomicLong leakCount = new AtomicLong();
+    private final AtomicLong statementHits = new AtomicLong();
+    private final AtomicLong statementMisses = new AtomicLong();
+    
+    public ConnectionPool(String connectionString, String username, String password, Logger logger) {
         this.connectionString = connectionString;
         this.username = username;
         this.password = password;
+        this.logger = logger;
         
-        connections = Collections.synchronizedList(Lists.<ConnectionHandler>newArrayList());
         maxIdleTime = TimeUnit.SECONDS.toMillis(30);
+        maxSize = 10;
+        waitTimeout = TimeUnit.SECONDS.toMillis(30);
+        maxLifetime = TimeUnit.MINUTES.toMillis(30);
+        leakThreshold = TimeUnit.SECONDS.toMillis(60);
+        statementCacheSize = 32;
+        validationQuery = "SELECT 1;";
     }
     
     public void setMaxIdleTime(long maxTime) {
@@ -35,80 +86,408 @@ public class ConnectionPool {
         return maxIdleTime;
     }
     
+    /**
+     * Sets the most connections that can be open at once
+     */
+    public void setMaxSize(int maxSize) {
+        this.maxSize = Math.max(1, maxSize);
+    }
+    
+    public int getMaxSize() {
+        return maxSize;
+    }
+    
+    /**
+     * Sets how long to wait for a free connection before failing, in milliseconds
+     */
+    public void setWaitTimeout(long waitTimeout) {
+        this.waitTimeout = waitTimeout;
+    }
+    
+    /**
+     * Sets how long a connection can be kept open before it is replaced, in milliseconds. 0 to keep them forever
+     */
+    public void setMaxLifetime(long maxLifetime) {
+        this.maxLifetime = maxLifetime;
+    }
+    
+    /**
+     * Sets how long a connection can be in use before it is reported as leaked, in milliseconds. 0 to disable
+     */
+    public void setLeakThreshold(long leakThreshold) {
+        this.leakThreshold = leakThreshold;
+    }
+    
+    /**
+     * Sets how many prepared statements each connection keeps open
+     */
+    public void setStatementCacheSize(int statementCacheSize) {
+        this.statementCacheSize = Math.max(1, statementCacheSize);
+    }
+    
+    /**
+     * Sets the query used to check idle connections still work. null to only check they are open
+     */
+    public void setValidationQuery(String validationQuery) {
+        this.validationQuery = validationQuery;
+    }
+    
+    /**
+     * Adds a statement to run on every new connection before it is used, such as setting pragmas
+     */
+    public void addInitStatement(String sql) {
+        initStatements.add(sql);
+    }
+    
+    /**
+     * Closes connections that have been idle for too long or reached their max lifetime,
+     * and reports connections that have been in use for longer than the leak threshold.
+     * Connections in use are never closed by this.
+     */
     public void removeExpired() {
-        synchronized(connections) {
-            Iterator<ConnectionHandler> it = connections.iterator();
-            while(it.hasNext()) {
+        long now = System.currentTimeMillis();
+        List<ConnectionHandler> expired = Lists.newArrayList();
+        List<ConnectionHandler> leaked = Lists.newArrayList();
+        
+        lock.lock();
+        try {
+            Iterator<ConnectionHandler> it = idle.iterator();
+            while (it.hasNext()) {
                 ConnectionHandler handler = it.next();
-                
-                if (!handler.isInUse()) {
-                    if (System.currentTimeMillis() - handler.getCloseTime() > maxIdleTime) {
-                        // Timeout
-                        handler.closeConnection();
-                        it.remove();
+                if (now - handler.getCloseTime() > maxIdleTime || isPastLifetime(handler, now)) {
+                    it.remove();
+                    connections.remove(handler);
+                    expired.add(handler);
+                }
+            }
+            
+            if (leakThreshold > 0) {
+                for (ConnectionHandler handler : connections) {
+                    if (handler.isInUse() && now - handler.getOpenTime() > leakThreshold && handler.markLeakReported()) {
+                        leaked.add(handler);
                     }
-                } else {
-                	if (System.currentTimeMillis() - handler.getOpenTime() > maxIdleTime) {
-                		// So we dont just accumulate connections forever
-                		handler.release();
-                	}
                 }
             }
+        } finally {
+            lock.unlock();
+        }
+        
+        for (ConnectionHandler handler : expired) {
+            handler.closeConnection();
+            closedCount.incrementAndGet();
+        }
+        
+        for (ConnectionHandler handler : leaked) {
+            leakCount.incrementAndGet();
+            logger.log(Level.WARNING, "A database connection has been in use for " + (now - handler.getOpenTime()) + "ms. It may have not been released. It was taken here:", handler.getLeaseTrace());
         }
     }
     
     /**
-     * @return Returns a free connection from the pool of connections. Creates a new connection if there are none available
+     * Gets a free connection, opening a new one if the pool is not full.
+     * If the pool is full this waits for a connection to be released
+     * @return Returns a connection. It must be released once it is finished with
+     * @throws SQLException Thrown if no connection became free within the wait timeout, or a new connection could not be opened
      */
     public ConnectionHandler getConnection() throws SQLException {
-        synchronized(connections) {
-            for (int i = 0; i < connections.size(); ++i) {
-                ConnectionHandler con = connections.get(i);
-                
-                if (con.lease()) {
-                    // Check connection
-                    boolean healthy = true;
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(waitTimeout);
+        
+        while (true) {
+            ConnectionHandler handler = null;
+            
+            lock.lock();
+            try {
+                while (true) {
+                    if (closed) {
+                        throw new SQLException("The connection pool has been closed");
+                    }
                     
-                    try {
-                        if (con.getConnection().isClosed()) {
-                            healthy = false;
-                        }
-                    } catch (SQLException e) {
-                        healthy = false;
+                    handler = idle.pollFirst();
+                    if (handler != null) {
+                        break;
+                    }
+                    
+                    if (connections.size() + pendingCreates < maxSize) {
+                        ++pendingCreates;
+                        break;
                     }
                     
-                    // Get rid of the connection
-                    if (!healthy) {
-                        con.closeConnection();
-                        connections.remove(i--);
-                    // Its ok
-                    } else {
-                        return con;
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        timeoutCount.incrementAndGet();
+                        throw new SQLException("Timed out after " + waitTimeout + "ms waiting for a database connection. All " + maxSize + " are in use");
+                    }
+                    
+                    ++waiting;
+                    try {
+                        available.awaitNanos(remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new SQLException("Interrupted while waiting for a database connection");
+                    } finally {
+                        --waiting;
                     }
                 }
+            } finally {
+                lock.unlock();
+            }
+            
+            // Opening and checking connections is done outside the lock so others are not held up
+            if (handler == null) {
+                handler = createConnection();
+            } else if (!isUsable(handler)) {
+                discard(handler);
+                continue;
             }
+            
+            handler.lease(leakThreshold > 0);
+            
+            long waited = System.nanoTime() - start;
+            borrowCount.incrementAndGet();
+            totalWaitNanos.addAndGet(waited);
+            long max;
+            do {
+                max = maxWaitNanos.get();
+            } while (waited > max && !maxWaitNanos.compareAndSet(max, waited));
+            
+            return handler;
         }
-        
-        // Create a new connection
-        return createConnection();
     }
     
     private ConnectionHandler createConnection() throws SQLException {
-        Connection connection = DriverManager.getConnection(connectionString, username, password);
-
-        ConnectionHandler handler = new ConnectionHandler(connection);
-                
-        connections.add(handler);
+        Connection connection = null;
+        try {
+            connection = DriverManager.getConnection(connectionString, username, password);
+            if (!initStatements.isEmpty()) {
+                Statement statement = connection.createStatement();
+                try {
+                    for (String sql : initStatements) {
+                        statement.execute(sql);
+                    }
+                } finally {
+                    statement.close();
+                }
+            }
+        } catch (SQLException e) {
+            if (connection != null) {
+                try {
+                    connection.close();
+                } catch (SQLException ex) {
+                    // Ignore
+                }
+            }
+            
+            lock.lock();
+            try {
+                --pendingCreates;
+                // Let a waiting thread try instead
+                available.signal();
+            } finally {
+                lock.unlock();
+            }
+            throw e;
+        }
+        
+        ConnectionHandler handler = new ConnectionHandler(this, connection, statementCacheSize);
+        lock.lock();
+        try {
+            --pendingCreates;
+            connections.add(handler);
+        } finally {
+            lock.unlock();
+        }
+        
+        createdCount.incrementAndGet();
         return handler;
     }
-
-    public void closeConnections() {
-        synchronized(connections) {
-            for (ConnectionHandler c : connections) {
-                c.closeConnection();
+    
+    private boolean isPastLifetime(ConnectionHandler handler, long now) {
+        return maxLifetime > 0 && now - handler.getCreateTime() > maxLifetime;
+    }
+    
+    private boolean isUsable(ConnectionHandler handler) {
+        long now = System.currentTimeMillis();
+        if (isPastLifetime(handler, now)) {
+            return false;
+        }
+        
+        if (now - handler.getCloseTime() < VALIDATION_BYPASS) {
+            return true;
+        }
+        
+        try {
+            Connection connection = handler.getConnection();
+            if (validationQuery == null) {
+                return !connection.isClosed();
             }
             
-            connections.clear();
+            Statement statement = connection.createStatement();
+            try {
+                statement.execute(validationQuery);
+                return true;
+            } finally {
+                statement.close();
+            }
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+    
+    private void discard(ConnectionHandler handler) {
+        lock.lock();
+        try {
+            connections.remove(handler);
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+        
+        handler.closeConnection();
+        closedCount.incrementAndGet();
+    }
+    
+    /**
+     * Returns a connection to the pool. Called by {@link ConnectionHandler#release()}
+     */
+    void release(ConnectionHandler handler) {
+        if (closed || isPastLifetime(handler, System.currentTimeMillis()) || !handler.resetState()) {
+            discard(handler);
+            return;
+        }
+        
+        lock.lock();
+        try {
+            // Most recently used first so the rest can expire
+            idle.addFirst(handler);
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    void recordStatementLookup(boolean hit) {
+        if (hit) {
+            statementHits.incrementAndGet();
+        } else {
+            statementMisses.incrementAndGet();
+        }
+    }
+    
+    /**
+     * Closes all idle connections. Connections in use are closed when they are released
+     */
+    public void closeConnections() {
+        List<ConnectionHandler> toClose;
+        lock.lock();
+        try {
+            closed = true;
+            toClose = Lists.newArrayList(idle);
+            connections.removeAll(idle);
+            idle.clear();
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        
+        for (ConnectionHandler c : toClose) {
+            c.closeConnection();
+            closedCount.incrementAndGet();
+        }
+    }
+    
+    /**
+     * @return The number of connections currently in use
+     */
+    public int getActiveCount() {
+        lock.lock();
+        try {
+            return connections.size() - idle.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * @return The number of open connections that are not in use
+     */
+    public int getIdleCount() {
+        lock.lock();
+        try {
+            return idle.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * @return The number of threads waiting for a connection
+     */
+    public int getWaitingCount() {
+        lock.lock();
+        try {
+            return waiting;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * @return The number of times a connection has been taken from the pool
+     */
+    public long getBorrowCount() {
+        return borrowCount.get();
+    }
+    
+    /**
+     * @return The average time taken to get a connection in nanoseconds, including opening new ones
+     */
+    public double getAverageWaitNanos() {
+        long borrows = borrowCount.get();
+        if (borrows == 0) {
+            return 0;
+        }
+        return (double)totalWaitNanos.get() / borrows;
+    }
+    
+    /**
+     * @return The longest time taken to get a connection in nanoseconds
+     */
+    public long getMaxWaitNanos() {
+        return maxWaitNanos.get();
+    }
+    
+    /**
+     * @return The number of times no connection became free within the wait timeout
+     */
+    public long getTimeoutCount() {
+        return timeoutCount.get();
+    }
+    
+    public long getCreatedCount() {
+        return createdCount.get();
+    }
+    
+    public long getClosedCount() {
+        return closedCount.get();
+    }
+    
+    /**
+     * @return The number of connections that were reported as leaked
+     */
+    public long getLeakCount() {
+        return leakCount.get();
+    }
+    
+    /**
+     * @return The fraction of statements that were already prepared on their connection, between 0 and 1
+     */
+    public double getStatementCacheHitRatio() {
+        long hits = statementHits.get();
+        long total = hits + statementMisses.get();
+        if (total == 0) {
+            return 0;
         }
+        return (double)hits / total;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,256 @@
+package au.com.mineauz.minigames.backend;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.UUID;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import au.com.mineauz.minigames.MinigamePlayer;
+import au.com.mineauz.minigames.backend.StatBatch.StatValue;
+import au.com.mineauz.minigames.minigame.Minigame;
+import au.com.mineauz.minigames.minigame.ScoreboardOrder;
+import au.com.mineauz.minigames.stats.MinigameStat;
+import au.com.mineauz.minigames.stats.StatValueField;
+import au.com.mineauz.minigames.stats.StoredStat;
+
+/**
+ * Keeps sorted copies of the stats shown on scoreboards so they can be read
+ * without querying the backend. A board is loaded from the backend the first
+ * time it is requested, then kept up to date from the stats being saved.
+ * <p>
+ * Each board holds every stored value for its minigame, stat and field rather
+ * than just the top of the board, as a Total value can rise from anywhere in the
+ * board into the top. Memory use therefore grows with the number of players that
+ * have played each shown minigame. Boards are dropped when their minigame is
+ * deleted or the backend changes.
+ * All methods are thread safe.
+ */
+public class Leaderboards {
+	private static final Comparator<Entry> ORDER = new Comparator<Entry>() {
+		@Override
+		public int compare(Entry o1, Entry o2) {
+			if (o1.value != o2.value) {
+				return (o1.value < o2.value ? -1 : 1);
+			}
+			return o1.playerId.compareTo(o2.playerId);
+		}
+	};
+	
+	private final Map<BoardKey, Board> boards = Maps.newHashMap();
+	
+	private long hits;
+	private long misses;
+	
+	/**
+	 * Gets part of a board if it is loaded
+	 * @return A list of the stats in order, or null if the board is not loaded
+	 */
+	public synchronized List<StoredStat> get(Minigame minigame, MinigameStat stat, StatValueField field, ScoreboardOrder order, int offset, int length) {
+		Board board = boards.get(new BoardKey(minigame, stat, field));
+		if (board == null) {
+			++misses;
+			return null;
+		}
+		
+		++hits;
+		return board.get(order, offset, length);
+	}
+	
+	/**
+	 * Creates a board from the values loaded from the backend. This does not lock
+	 * so large boards can be built without holding up other boards.
+	 * @param stats Every stored value for the minigame, stat and field
+	 * @return The board to pass to {@link #install(Minigame, MinigameStat, Board, StatBatch)}
+	 */
+	public Board build(StatValueField field, Collection<StoredStat> stats) {
+		Board board = new Board(field);
+		for (StoredStat value : stats) {
+			board.put(value.getPlayerId(), value.getPlayerName(), value.getPlayerDisplayName(), value.getValue());
+		}
+		return board;
+	}
+	
+	/**
+	 * Stores a board created with {@link #build(StatValueField, Collection)}.
+	 * @param pending Stats that have not been written yet, and so are not included in the board
+	 */
+	public synchronized void install(Minigame minigame, MinigameStat stat, Board board, StatBatch pending) {
+		BoardKey key = new BoardKey(minigame, stat, board.field);
+		boards.put(key, board);
+		
+		apply(pending, key);
+	}
+	
+	/**
+	 * Updates the loaded boards with stats that are being saved
+	 */
+	public synchronized void apply(StatBatch batch) {
+		apply(batch, null);
+	}
+	
+	private void apply(StatBatch batch, BoardKey only) {
+		if (boards.isEmpty() || batch.isEmpty()) {
+			return;
+		}
+		
+		Map<UUID, MinigamePlayer> players = Maps.newHashMap();
+		for (MinigamePlayer player : batch.getPlayers()) {
+			players.put(player.getUUID(), player);
+		}
+		
+		for (StatValue value : batch.getValues()) {
+			BoardKey key = new BoardKey(value.getMinigame(), value.getStat(), value.getField());
+			if (only != null && !only.equals(key)) {
+				continue;
+			}
+			
+			Board board = boards.get(key);
+			if (board != null) {
+				MinigamePlayer player = players.get(value.getPlayerId());
+				board.merge(value.getPlayerId(), player.getName(), player.getDisplayName(), value.getValue());
+			}
+		}
+	}
+	
+	/**
+	 * Drops all loaded boards for a minigame
+	 */
+	public synchronized void invalidate(String minigame) {
+		Iterator<BoardKey> it = boards.keySet().iterator();
+		while (it.hasNext()) {
+			if (it.next().minigame.equals(minigame)) {
+				it.remove();
+			}
+		}
+	}
+	
+	/**
+	 * Drops all loaded boards
+	 */
+	public synchronized void clear() {
+		boards.clear();
+	}
+	
+	public synchronized int getBoardCount() {
+		return boards.size();
+	}
+	
+	/**
+	 * @return The fraction of reads that were served from memory, between 0 and 1
+	 */
+	public synchronized double getHitRatio() {
+		if (hits + misses == 0) {
+			return 0;
+		}
+		return (double)hits / (hits + misses);
+	}
+	
+	/**
+	 * The sorted values of one minigame, stat and field
+	 */
+	public static class Board {
+		private final StatValueField field;
+		private final NavigableSet<Entry> sorted = new TreeSet<Entry>(ORDER);
+		private final Map<UUID, Entry> entries = Maps.newHashMap();
+		
+		private Board(StatValueField field) {
+			this.field = field;
+		}
+		
+		public void put(UUID playerId, String name, String displayName, long value) {
+			Entry entry = entries.get(playerId);
+			if (entry != null) {
+				sorted.remove(entry);
+			} else {
+				entry = new Entry(playerId);
+				entries.put(playerId, entry);
+			}
+			
+			entry.name = name;
+			entry.displayName = displayName;
+			entry.value = value;
+			sorted.add(entry);
+		}
+		
+		/**
+		 * Combines the value the same way the backend does when it is saved
+		 */
+		public void merge(UUID playerId, String name, String displayName, long value) {
+			Entry entry = entries.get(playerId);
+			if (entry != null) {
+				value = field.apply(entry.value, value);
+			}
+			put(playerId, name, displayName, value);
+		}
+		
+		public List<StoredStat> get(ScoreboardOrder order, int offset, int length) {
+			if (offset >= sorted.size()) {
+				return Collections.emptyList();
+			}
+			
+			NavigableSet<Entry> view = (order == ScoreboardOrder.DESCENDING ? sorted.descendingSet() : sorted);
+			List<StoredStat> result = Lists.newArrayListWithCapacity(Math.min(length, sorted.size() - offset));
+			int index = 0;
+			for (Entry entry : view) {
+				if (index++ < offset) {
+					continue;
+				}
+				
+				result.add(new StoredStat(entry.playerId, entry.name, entry.displayName, entry.value));
+				if (result.size() >= length) {
+					break;
+				}
+			}
+			return result;
+		}
+	}
+	
+	private static class Entry {
+		private final UUID playerId;
+		private String name;
+		private String displayName;
+		private long value;
+		
+		public Entry(UUID playerId) {
+			this.playerId = playerId;
+		}
+	}
+	
+	private static class BoardKey {
+		private final String minigame;
+		private final String stat;
+		private final StatValueField field;
+		
+		public BoardKey(Minigame minigame, MinigameStat stat, StatValueField field) {
+			this.minigame = minigame.getName(false);
+			this.stat = stat.getName();
+			this.field = field;
+		}
+		
+		@Override
+		public int hashCode() {
+			int hash = minigame.hashCode();
+			hash = hash * 31 + stat.hashCode();
+			hash = hash * 31 + field.hashCode();
+			return hash;
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof BoardKey)) {
+				return false;
+			}
+			
+			BoardKey other = (BoardKey)obj;
+			return minigame.equals(other.minigame) && stat.equals(other.stat) && field == other.field;
+		}
+	}
+}
@@ -0,0 +1,206 @@
+package au.com.mineauz.minigames.backend;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.UUID;
+
+import com.google.common.collect.Maps;
+
+import au.com.mineauz.minigames.MinigamePlayer;
+import au.com.mineauz.minigames.minigame.Minigame;
+import au.com.mineauz.minigames.stats.MinigameStat;
+import au.com.mineauz.minigames.stats.StatFormat;
+import au.com.mineauz.minigames.stats.StatValueField;
+import au.com.mineauz.minigames.stats.StoredGameStats;
+
+/**
+ * Stats from any number of games, merged so they can be saved in a single transaction.
+ * Values for the same player, minigame, stat and field are combined the same way
+ * the database combines them, using {@link StatValueField#apply(long, long)}.
+ */
+public class StatBatch {
+	private final Map<StatValue, StatValue> values = Maps.newLinkedHashMap();
+	private final Map<UUID, MinigamePlayer> players = Maps.newLinkedHashMap();
+	private final Map<String, Minigame> minigames = Maps.newLinkedHashMap();
+	private int games;
+	
+	public StatBatch() {
+	}
+	
+	public StatBatch(StoredGameStats stats) {
+		add(stats);
+	}
+	
+	/**
+	 * Merges the stats of a game into this batch
+	 */
+	public void add(StoredGameStats stats) {
+		UUID playerId = stats.getPlayer().getUUID();
+		// The latest player object is kept so names are updated to their current values
+		players.put(playerId, stats.getPlayer());
+		minigames.put(stats.getMinigame().getName(false), stats.getMinigame());
+		++games;
+		
+		for (Entry<MinigameStat, Long> entry : stats.getStats().entrySet()) {
+			StatFormat format = stats.getFormat(entry.getKey());
+			// Only store this stat if it's required
+			if (!entry.getKey().shouldStoreStat(entry.getValue(), format)) {
+				continue;
+			}
+			
+			for (StatValueField field : format.getFields()) {
+				StatValue key = new StatValue(playerId, stats.getMinigame(), entry.getKey(), field);
+				StatValue existing = values.get(key);
+				if (existing == null) {
+					key.value = entry.getValue();
+					values.put(key, key);
+				} else {
+					existing.value = field.apply(existing.value, entry.getValue());
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Merges the stats of another batch into this one. The other batch is treated as
+	 * being newer than this one, so its values win for {@link StatValueField#Last}
+	 */
+	public void addAll(StatBatch other) {
+		players.putAll(other.players);
+		minigames.putAll(other.minigames);
+		games += other.games;
+		
+		for (StatValue value : other.values.values()) {
+			StatValue existing = values.get(value);
+			if (existing == null) {
+				StatValue copy = new StatValue(value.playerId, value.minigame, value.stat, value.field);
+				copy.value = value.value;
+				values.put(copy, copy);
+			} else {
+				existing.value = value.field.apply(existing.value, value.value);
+			}
+		}
+	}
+	
+	/**
+	 * Gets the merged value of a stat waiting in this batch
+	 * @return The value, or null if this batch has no value for it
+	 */
+	public Long getValue(UUID playerId, Minigame minigame, MinigameStat stat, StatValueField field) {
+		StatValue existing = values.get(new StatValue(playerId, minigame, stat, field));
+		if (existing == null) {
+			return null;
+		}
+		return existing.value;
+	}
+	
+	/**
+	 * @return True if this batch has a value for the stat and field of any player in the minigame
+	 */
+	public boolean hasValues(Minigame minigame, MinigameStat stat, StatValueField field) {
+		String minigameName = minigame.getName(false);
+		for (StatValue value : values.values()) {
+			if (value.field == field && value.stat.getName().equals(stat.getName()) && value.minigame.getName(false).equals(minigameName)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * @return The merged stat values. One row will be written for each
+	 */
+	public Collection<StatValue> getValues() {
+		return Collections.unmodifiableCollection(values.values());
+	}
+	
+	/**
+	 * @return The players with stats in this batch
+	 */
+	public Collection<MinigamePlayer> getPlayers() {
+		return Collections.unmodifiableCollection(players.values());
+	}
+	
+	/**
+	 * @return The minigames with stats in this batch
+	 */
+	public Collection<Minigame> getMinigames() {
+		return Collections.unmodifiableCollection(minigames.values());
+	}
+	
+	/**
+	 * @return The number of games that were merged into this batch
+	 */
+	public int getGameCount() {
+		return games;
+	}
+	
+	public boolean isEmpty() {
+		return games == 0;
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("%d games, %d stat values", games, values.size());
+	}
+	
+	/**
+	 * A single stat value in a batch
+	 */
+	public static final class StatValue {
+		private final UUID playerId;
+		private final Minigame minigame;
+		private final MinigameStat stat;
+		private final StatValueField field;
+		private long value;
+		
+		private StatValue(UUID playerId, Minigame minigame, MinigameStat stat, StatValueField field) {
+			this.playerId = playerId;
+			this.minigame = minigame;
+			this.stat = stat;
+			this.field = field;
+		}
+		
+		public UUID getPlayerId() {
+			return playerId;
+		}
+		
+		public Minigame getMinigame() {
+			return minigame;
+		}
+		
+		public MinigameStat getStat() {
+			return stat;
+		}
+		
+		public StatValueField getField() {
+			return field;
+		}
+		
+		public long getValue() {
+			return value;
+		}
+		
+		@Override
+		public int hashCode() {
+			int hash = playerId.hashCode();
+			hash = hash * 31 + minigame.getName(false).hashCode();
+			hash = hash * 31 + stat.getName().hashCode();
+			hash = hash * 31 + field.hashCode();
+			return hash;
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof StatValue)) {
+				return false;
+			}
+			
+			StatValue other = (StatValue)obj;
+			return playerId.equals(other.playerId) && minigame.getName(false).equals(other.minigame.getName(false))
+					&& stat.getName().equals(other.stat.getName()) && field == other.field;
+		}
+	}
+}
@@ -8,6 +8,7 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.bukkit.configuration.ConfigurationSection;
@@ -16,10 +17,12 @@ import com.google.common.collect.Maps;
 
 import au.com.mineauz.minigames.MinigamePlayer;
 import au.com.mineauz.minigames.backend.Backend;
+import au.com.mineauz.minigames.backend.BackendCache;
 import au.com.mineauz.minigames.backend.BackendImportCallback;
 import au.com.mineauz.minigames.backend.ConnectionHandler;
 import au.com.mineauz.minigames.backend.ConnectionPool;
 import au.com.mineauz.minigames.backend.ExportNotifier;
+import au.com.mineauz.minigames.backend.StatBatch;
 import au.com.mineauz.minigames.backend.StatementKey;
 import au.com.mineauz.minigames.backend.both.SQLExport;
 import au.com.mineauz.minigames.backend.both.SQLImport;
@@ -69,7 +72,10 @@ public class MySQLBackend extends Backend {
 			String username = config.getString("username", "username");
 			String password = config.getString("password", "password");
 			
-			pool = new ConnectionPool(url, username, password);
+			pool = new ConnectionPool(url, username, password, logger);
+			pool.setMaxSize(config.getInt("max-connections", 10));
+			pool.setWaitTimeout(config.getLong("connection-timeout", 30000));
+			pool.setMaxLifetime(config.getLong("connection-lifetime", 1800000));
 			
 			createStatements();
 			
@@ -77,6 +83,7 @@ public class MySQLBackend extends Backend {
 			try {
 				ConnectionHandler handler = pool.getConnection();
 				ensureTables(handler);
+				loadCache(handler);
 				handler.release();
 				return true;
 			} catch (SQLException e) {
@@ -129,6 +136,40 @@ public class MySQLBackend extends Backend {
 		}
 	}
 	
+	private void loadCache(ConnectionHandler connection) throws SQLException {
+		BackendCache cache = getCache();
+		cache.clear();
+		
+		Statement statement = connection.getConnection().createStatement();
+		try {
+			ResultSet rs = statement.executeQuery("SELECT `minigame_id`, `name` FROM `Minigames`;");
+			try {
+				while (rs.next()) {
+					cache.putMinigameId(rs.getString("name"), rs.getInt("minigame_id"));
+				}
+			} finally {
+				rs.close();
+			}
+			
+			rs = statement.executeQuery("SELECT `player_id`, `name`, `displayname` FROM `Players`;");
+			try {
+				while (rs.next()) {
+					try {
+						cache.putPlayer(UUID.fromString(rs.getString("player_id")), rs.getString("name"), rs.getString("displayname"));
+					} catch (IllegalArgumentException e) {
+						// Not a valid id, it will be written again when seen
+					}
+				}
+			} finally {
+				rs.close();
+			}
+		} finally {
+			statement.close();
+		}
+		
+		logger.info("Cached " + cache.getMinigameCount() + " minigames and " + cache.getPlayerCount() + " players");
+	}
+	
 	private void createStatements() {
 		insertMinigame = new StatementKey("INSERT INTO `Minigames` (`name`) VALUES (?) ON DUPLICATE KEY UPDATE `minigame_id`=LAST_INSERT_ID(`minigame_id`);", true);
 		insertPlayer = new StatementKey("INSERT INTO `Players` VALUES (?, ?, ?) ON DUPLICATE KEY UPDATE `name` = VALUES(`name`), `displayname` = VALUES(`displayname`);");
@@ -136,7 +177,8 @@ public class MySQLBackend extends Backend {
 		saveStatSettings = new StatementKey("REPLACE INTO `StatMetadata` VALUES (?, ?, ?, ?);");
 	}
 	
-	ConnectionPool getPool() {
+	@Override
+	public ConnectionPool getPool() {
 		return pool;
 	}
 	
@@ -147,7 +189,16 @@ public class MySQLBackend extends Backend {
 	
 	@Override
 	public void saveGameStatus(StoredGameStats stats) {
-		saver.saveData(stats);
+		try {
+			saver.saveData(new StatBatch(stats));
+		} catch (SQLException e) {
+			logger.log(Level.SEVERE, "Failed to save stats for " + stats.getPlayer().getName(), e);
+		}
+	}
+	
+	@Override
+	public void saveGameStatus(StatBatch batch) throws SQLException {
+		saver.saveData(batch);
 	}
 
 	@Override
@@ -166,11 +217,19 @@ public class MySQLBackend extends Backend {
 	}
 	
 	public int getMinigameId(ConnectionHandler handler, Minigame minigame) throws SQLException {
-		ResultSet rs = handler.executeUpdateWithResults(insertMinigame, minigame.getName(false));
+		String name = minigame.getName(false);
+		Integer cached = getCache().getMinigameId(name);
+		if (cached != null) {
+			return cached;
+		}
+		
+		ResultSet rs = handler.executeUpdateWithResults(insertMinigame, name);
 		
 		try {
 			if (rs.next()) {
-				return rs.getInt(1);
+				int id = rs.getInt(1);
+				getCache().putMinigameId(name, id);
+				return id;
 			} else {
 				// Insert should always return the value
 				throw new AssertionError();
@@ -181,7 +240,12 @@ public class MySQLBackend extends Backend {
 	}
 	
 	public void updatePlayer(ConnectionHandler handler, MinigamePlayer player) throws SQLException {
+		if (getCache().isPlayerCurrent(player)) {
+			return;
+		}
+		
 		handler.executeUpdate(insertPlayer, player.getUUID().toString(), player.getName(), player.getDisplayName());
+		getCache().putPlayer(player.getUUID(), player.getName(), player.getDisplayName());
 	}
 	
 	@Override
@@ -255,6 +319,7 @@ public class MySQLBackend extends Backend {
 		} catch (SQLException e) {
 			e.printStackTrace();
 			handler.endTransactionFail();
+			getCache().invalidateMinigame(minigame.getName(false));
 		} finally {
 			if (handler != null) {
 				handler.release();
@@ -264,6 +329,8 @@ public class MySQLBackend extends Backend {
 	
 	@Override
 	protected BackendImportCallback getImportCallback() {
+		// Importing replaces the tables so the cached ids can't be trusted
+		getCache().clear();
 		return new SQLImport(pool);
 	}
 	
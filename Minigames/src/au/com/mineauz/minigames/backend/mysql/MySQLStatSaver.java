@@ -1,18 +1,19 @@
 package au.com.mineauz.minigames.backend.mysql;
 
 import java.sql.SQLException;
-import java.util.UUID;
-import java.util.Map.Entry;
-import java.util.logging.Level;
+import java.util.Map;
 import java.util.logging.Logger;
 
+import com.google.common.collect.Maps;
+
+import au.com.mineauz.minigames.MinigamePlayer;
 import au.com.mineauz.minigames.MinigameUtils;
 import au.com.mineauz.minigames.backend.ConnectionHandler;
+import au.com.mineauz.minigames.backend.StatBatch;
+import au.com.mineauz.minigames.backend.StatBatch.StatValue;
 import au.com.mineauz.minigames.backend.StatementKey;
-import au.com.mineauz.minigames.stats.MinigameStat;
-import au.com.mineauz.minigames.stats.StatFormat;
+import au.com.mineauz.minigames.minigame.Minigame;
 import au.com.mineauz.minigames.stats.StatValueField;
-import au.com.mineauz.minigames.stats.StoredGameStats;
 
 class MySQLStatSaver {
 	private final MySQLBackend backend;
@@ -42,7 +43,11 @@ class MySQLStatSaver {
 		insertStatements[StatValueField.Total.ordinal()] = insertStatTotal;
 	}
 	
-	public void saveData(StoredGameStats data) {
+	/**
+	 * Saves the batch in a single transaction
+	 * @throws SQLException Thrown if the batch could not be saved. Nothing from it will have been written
+	 */
+	public void saveData(StatBatch data) throws SQLException {
 		MinigameUtils.debugMessage("SQL Begining save of " + data);
 		
 		ConnectionHandler handler = null;
@@ -51,23 +56,33 @@ class MySQLStatSaver {
 			try {
 				handler.beginTransaction();
 				
-				// Get the minigame id and update both the player and game
-				int minigameId = backend.getMinigameId(handler, data.getMinigame());
-				backend.updatePlayer(handler, data.getPlayer());
+				// Get the minigame ids and update all the players
+				Map<String, Integer> minigameIds = Maps.newHashMap();
+				for (Minigame minigame : data.getMinigames()) {
+					minigameIds.put(minigame.getName(false), backend.getMinigameId(handler, minigame));
+				}
+				for (MinigamePlayer player : data.getPlayers()) {
+					backend.updatePlayer(handler, player);
+				}
 				
-				saveStats(handler, data, data.getPlayer().getUUID(), minigameId);
+				saveStats(handler, data, minigameIds);
 				
 				// Commit the changes
 				handler.endTransaction();
 			} catch (SQLException e) {
-				logger.log(Level.SEVERE, "Failed to save stats for " + data.getPlayer().getName(), e);
-				
 				handler.endTransactionFail();
+				
+				// The rolled back rows may have been cached
+				for (MinigamePlayer player : data.getPlayers()) {
+					backend.getCache().invalidatePlayer(player.getUUID());
+				}
+				for (Minigame minigame : data.getMinigames()) {
+					backend.getCache().invalidateMinigame(minigame.getName(false));
+				}
+				throw e;
 			} finally {
 				MinigameUtils.debugMessage("SQL Completed save of " + data);
 			}
-		} catch (SQLException e) { 
-			e.printStackTrace();
 		} finally {
 			if (handler != null) {
 				handler.release();
@@ -75,14 +90,14 @@ class MySQLStatSaver {
 		}
 	}
 	
-	private void saveStats(ConnectionHandler handler, StoredGameStats data, UUID player, int minigameId) throws SQLException {
+	private void saveStats(ConnectionHandler handler, StatBatch data, Map<String, Integer> minigameIds) throws SQLException {
 		// Prepare all updates
-		for (Entry<MinigameStat, Long> entry : data.getStats().entrySet()) {
-			StatFormat format = data.getFormat(entry.getKey());
-			// Only store this stat if it's required
-			if (entry.getKey().shouldStoreStat(entry.getValue(), format)) {
-				queueStat(handler, entry.getKey(), entry.getValue(), format, player, minigameId);
-			}
+		for (StatValue value : data.getValues()) {
+			String playerId = value.getPlayerId().toString();
+			int minigameId = minigameIds.get(value.getMinigame().getName(false));
+			String statName = value.getStat().getName() + value.getField().getSuffix();
+			
+			handler.batchUpdate(insertStatements[value.getField().ordinal()], playerId, minigameId, statName, value.getValue());
 		}
 		
 		// Push all to database
@@ -91,10 +106,4 @@ class MySQLStatSaver {
 		handler.executeBatch(insertStatMin);
 		handler.executeBatch(insertStatMax);
 	}
-	
-	private void queueStat(ConnectionHandler handler, MinigameStat stat, long value, StatFormat format, UUID player, int minigameId) throws SQLException {
-		for (StatValueField field : format.getFields()) {
-			handler.batchUpdate(insertStatements[field.ordinal()], player.toString(), minigameId, stat.getName() + field.getSuffix(), value);
-		}
-	}
 }
@@ -9,6 +9,7 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.bukkit.configuration.ConfigurationSection;
@@ -18,10 +19,12 @@ import com.google.common.collect.Maps;
 import au.com.mineauz.minigames.MinigamePlayer;
 import au.com.mineauz.minigames.Minigames;
 import au.com.mineauz.minigames.backend.Backend;
+import au.com.mineauz.minigames.backend.BackendCache;
 import au.com.mineauz.minigames.backend.BackendImportCallback;
 import au.com.mineauz.minigames.backend.ConnectionHandler;
 import au.com.mineauz.minigames.backend.ConnectionPool;
 import au.com.mineauz.minigames.backend.ExportNotifier;
+import au.com.mineauz.minigames.backend.StatBatch;
 import au.com.mineauz.minigames.backend.StatementKey;
 import au.com.mineauz.minigames.backend.both.SQLExport;
 import au.com.mineauz.minigames.backend.both.SQLImport;
@@ -65,7 +68,14 @@ public class SQLiteBackend extends Backend {
 			
 			String url = String.format("jdbc:sqlite:" + path.getAbsolutePath());
 			
-			pool = new ConnectionPool(url, null, null);
+			pool = new ConnectionPool(url, null, null, logger);
+			pool.setMaxSize(config.getInt("max-connections", 4));
+			pool.setWaitTimeout(config.getLong("connection-timeout", 30000));
+			pool.setMaxLifetime(config.getLong("connection-lifetime", 1800000));
+			// WAL lets the readers work while stats are being written. NORMAL sync is still safe in WAL mode
+			pool.addInitStatement("PRAGMA journal_mode=WAL;");
+			pool.addInitStatement("PRAGMA synchronous=NORMAL;");
+			pool.addInitStatement("PRAGMA cache_size=" + config.getInt("sqlite-cache-pages", 4000) + ";");
 			
 			createStatements();
 			
@@ -73,6 +83,7 @@ public class SQLiteBackend extends Backend {
 			try {
 				ConnectionHandler handler = pool.getConnection();
 				ensureTables(handler);
+				loadCache(handler);
 				handler.release();
 				return true;
 			} catch (SQLException e) {
@@ -132,6 +143,40 @@ public class SQLiteBackend extends Backend {
 		}
 	}
 	
+	private void loadCache(ConnectionHandler connection) throws SQLException {
+		BackendCache cache = getCache();
+		cache.clear();
+		
+		Statement statement = connection.getConnection().createStatement();
+		try {
+			ResultSet rs = statement.executeQuery("SELECT `minigame_id`, `name` FROM `Minigames`;");
+			try {
+				while (rs.next()) {
+					cache.putMinigameId(rs.getString("name"), rs.getInt("minigame_id"));
+				}
+			} finally {
+				rs.close();
+			}
+			
+			rs = statement.executeQuery("SELECT `player_id`, `name`, `displayname` FROM `Players`;");
+			try {
+				while (rs.next()) {
+					try {
+						cache.putPlayer(UUID.fromString(rs.getString("player_id")), rs.getString("name"), rs.getString("displayname"));
+					} catch (IllegalArgumentException e) {
+						// Not a valid id, it will be written again when seen
+					}
+				}
+			} finally {
+				rs.close();
+			}
+		} finally {
+			statement.close();
+		}
+		
+		logger.info("Cached " + cache.getMinigameCount() + " minigames and " + cache.getPlayerCount() + " players");
+	}
+	
 	private void createStatements() {
 		insertMinigame = new StatementKey("INSERT OR IGNORE INTO `Minigames` (`name`) VALUES (?);", true);
 		getMinigameId = new StatementKey("SELECT `minigame_id` FROM `Minigames` WHERE `name` = ?;");
@@ -140,13 +185,23 @@ public class SQLiteBackend extends Backend {
 		saveStatSettings = new StatementKey("INSERT OR REPLACE INTO `StatMetadata` VALUES (?, ?, ?, ?);");
 	}
 	
-	ConnectionPool getPool() {
+	@Override
+	public ConnectionPool getPool() {
 		return pool;
 	}
 	
 	@Override
 	public void saveGameStatus(StoredGameStats stats) {
-		saver.saveData(stats);
+		try {
+			saver.saveData(new StatBatch(stats));
+		} catch (SQLException e) {
+			logger.log(Level.SEVERE, "Failed to save stats for " + stats.getPlayer().getName(), e);
+		}
+	}
+	
+	@Override
+	public void saveGameStatus(StatBatch batch) throws SQLException {
+		saver.saveData(batch);
 	}
 
 	@Override
@@ -165,19 +220,29 @@ public class SQLiteBackend extends Backend {
 	}
 	
 	public int getMinigameId(ConnectionHandler handler, Minigame minigame) throws SQLException {
-		ResultSet rs = handler.executeQuery(getMinigameId, minigame.getName(false));
+		String name = minigame.getName(false);
+		Integer cached = getCache().getMinigameId(name);
+		if (cached != null) {
+			return cached;
+		}
+		
+		ResultSet rs = handler.executeQuery(getMinigameId, name);
 		try {
 			if (rs.next()) {
-				return rs.getInt("minigame_id");
+				int id = rs.getInt("minigame_id");
+				getCache().putMinigameId(name, id);
+				return id;
 			}
 		} finally {
 			rs.close();
 		}
 		
-		rs = handler.executeUpdateWithResults(insertMinigame, minigame.getName(false));
+		rs = handler.executeUpdateWithResults(insertMinigame, name);
 		try {
 			if (rs.next()) {
-				return rs.getInt(1);
+				int id = rs.getInt(1);
+				getCache().putMinigameId(name, id);
+				return id;
 			} else {
 				throw new AssertionError("Insert should have returned id");
 			}
@@ -187,7 +252,12 @@ public class SQLiteBackend extends Backend {
 	}
 	
 	public void updatePlayer(ConnectionHandler handler, MinigamePlayer player) throws SQLException {
+		if (getCache().isPlayerCurrent(player)) {
+			return;
+		}
+		
 		handler.executeUpdate(insertPlayer, player.getUUID().toString(), player.getName(), player.getDisplayName());
+		getCache().putPlayer(player.getUUID(), player.getName(), player.getDisplayName());
 	}
 	
 	@Override
@@ -261,6 +331,7 @@ public class SQLiteBackend extends Backend {
 		} catch (SQLException e) {
 			e.printStackTrace();
 			handler.endTransactionFail();
+			getCache().invalidateMinigame(minigame.getName(false));
 		} finally {
 			if (handler != null) {
 				handler.release();
@@ -270,6 +341,8 @@ public class SQLiteBackend extends Backend {
 
 	@Override
 	protected BackendImportCallback getImportCallback() {
+		// Importing replaces the tables so the cached ids can't be trusted
+		getCache().clear();
 		return new SQLImport(pool);
 	}
 	
@@ -47,8 +47,7 @@ public class BasicRecorder implements Listener{
 			}
 			Minigame mgm = ply.getMinigame();
 			RecorderData d = mgm.getBlockRecorder();
-			if(((d.getWhitelistMode() && d.getWBBlocks().contains(event.getBlock().getType())) || 
-					(!d.getWhitelistMode() && !d.getWBBlocks().contains(event.getBlock().getType()))) && 
+			if(d.getBlockFilter().allows(event.getBlock().getType()) && 
 					mgm.canBlockBreak()){
 				if(event.getBlock().getState() instanceof Sign){
 					Sign sign = (Sign) event.getBlock().getState();
@@ -91,8 +90,7 @@ public class BasicRecorder implements Listener{
 			}
 			Minigame mgm = ply.getMinigame();
 			RecorderData d = mgm.getBlockRecorder();
-			if(((d.getWhitelistMode() && d.getWBBlocks().contains(event.getBlock().getType())) || 
-					(!d.getWhitelistMode() && !d.getWBBlocks().contains(event.getBlock().getType()))) &&
+			if(d.getBlockFilter().allows(event.getBlock().getType()) &&
 					 mgm.canBlockPlace()){
 				d.addBlock(event.getBlockReplacedState(), ply);
 			}
@@ -123,8 +121,7 @@ public class BasicRecorder implements Listener{
 		if(ply.isInMinigame()){
 			Minigame mgm = ply.getMinigame();
 			RecorderData d = mgm.getBlockRecorder();
-			if(((d.getWhitelistMode() && d.getWBBlocks().contains(event.getBlockClicked().getType())) || 
-					(!d.getWhitelistMode() && !d.getWBBlocks().contains(event.getBlockClicked().getType()))) && 
+			if(d.getBlockFilter().allows(event.getBlockClicked().getType()) && 
 					mgm.canBlockBreak()){
 				d.addBlock(event.getBlockClicked(), pdata.getMinigamePlayer(event.getPlayer()));
 			}
@@ -144,8 +141,7 @@ public class BasicRecorder implements Listener{
 				(event.getCause() == IgniteCause.FIREBALL || event.getCause() == IgniteCause.FLINT_AND_STEEL)){
 			Minigame mgm = ply.getMinigame();
 			RecorderData d = mgm.getBlockRecorder();
-			if(((d.getWhitelistMode() && d.getWBBlocks().contains(Material.FIRE)) || 
-					(!d.getWhitelistMode() && !d.getWBBlocks().contains(Material.FIRE))) && 
+			if(d.getBlockFilter().allows(Material.FIRE) && 
 					mgm.canBlockPlace()){
 				d.addBlock(event.getBlock(), pdata.getMinigamePlayer(event.getPlayer()));
 			}
@@ -161,10 +157,8 @@ public class BasicRecorder implements Listener{
 		if(ply.isInMinigame()){
 			Minigame mgm = ply.getMinigame();
 			RecorderData d = mgm.getBlockRecorder();
-			if(((d.getWhitelistMode() && d.getWBBlocks().contains(Material.PAINTING)) || 
-					(!d.getWhitelistMode() && !d.getWBBlocks().contains(Material.PAINTING))) ||
-					((d.getWhitelistMode() && d.getWBBlocks().contains(Material.ITEM_FRAME)) || 
-							(!d.getWhitelistMode() && !d.getWBBlocks().contains(Material.ITEM_FRAME)))){
+			if(d.getBlockFilter().allows(Material.PAINTING) ||
+					d.getBlockFilter().allows(Material.ITEM_FRAME)){
 				d.addEntity(event.getEntity(), ply, true);
 			}
 			else{
@@ -242,8 +236,7 @@ public class BasicRecorder implements Listener{
 		if(ply.isInMinigame()){
 			Minigame mgm = ply.getMinigame();
 			RecorderData d = mgm.getBlockRecorder();
-			if(((d.getWhitelistMode() && d.getWBBlocks().contains(event.getBlockClicked().getType())) || 
-					(!d.getWhitelistMode() && !d.getWBBlocks().contains(event.getBlockClicked().getType()))) && 
+			if(d.getBlockFilter().allows(event.getBlockClicked().getType()) && 
 					mgm.canBlockPlace()){
 				Location loc = new Location(event.getBlockClicked().getWorld(), 
 						event.getBlockFace().getModX() + event.getBlockClicked().getX(), 
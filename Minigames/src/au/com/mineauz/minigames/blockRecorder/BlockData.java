@@ -1,9 +1,6 @@
 package au.com.mineauz.minigames.blockRecorder;
 
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 import org.bukkit.Location;
@@ -17,6 +14,7 @@ import au.com.mineauz.minigames.MinigamePlayer;
 
 public class BlockData {
 	private Location location;
+	private long position;
 	private BlockState state;
 	private MinigamePlayer player = null;
 	private ItemStack[] items = null;
@@ -25,12 +23,14 @@ public class BlockData {
 	
 	public BlockData(Block original, MinigamePlayer modifier){
 		location = original.getLocation();
+		position = BlockPosition.pack(original);
 		state = original.getState();
 		player = modifier;
 	}
 	
 	public BlockData(BlockState original, MinigamePlayer modifier){
 		location = original.getLocation();
+		position = BlockPosition.pack(original);
 		state = original;
 		player = modifier;
 	}
@@ -39,6 +39,13 @@ public class BlockData {
 		return location;
 	}
 	
+	/**
+	 * @return The packed {@link BlockPosition} of this block
+	 */
+	public long getPosition(){
+		return position;
+	}
+	
 	public BlockState getBlockState(){
 		return state;
 	}
@@ -67,47 +74,15 @@ public class BlockData {
 		return specialData.get(key);
 	}
 
-	public void randomizeContents(int minContents, int maxContents){
+	/**
+	 * Randomizes the contents of the chest this block data was taken from,
+	 * using the layouts prepared for the current round.
+	 */
+	public void randomizeContents(ChestRandomizer randomizer, int minContents, int maxContents){
 		if(hasRandomized || items == null)
 			return;
 		
-		List<ItemStack> itemRand = new ArrayList<ItemStack>();
-		
-		for(int i=0; i < items.length; i++){
-			if(items[i] != null){
-				itemRand.add(items[i].clone());
-			}
-		}
-		
-		Collections.shuffle(itemRand);
-		List<ItemStack> itemChest = new ArrayList<ItemStack>();
-		
-		if(maxContents > itemRand.size()){
-			maxContents = itemRand.size();
-		}
-		if(minContents > itemRand.size()){
-			minContents = itemRand.size();
-		}
-
-		int rand = minContents + (int)(Math.random() * ((maxContents - minContents) + 1));
-		
-		for(int i=0;i < items.length; i++){
-			if(i < rand){
-				itemChest.add(i, itemRand.get(i));
-			}
-			else{
-				itemChest.add(null);
-			}
-		}
-		
-		Collections.shuffle(itemChest);
-		
-		ItemStack[] newItems = new ItemStack[itemChest.size()];
-		int inc = 0;
-		for(ItemStack item : itemChest){
-			newItems[inc] = item;
-			inc++;
-		}
+		ItemStack[] newItems = randomizer.randomize(items, minContents, maxContents);
 		
 		if(state instanceof Chest){
 			Chest chest = (Chest) state;
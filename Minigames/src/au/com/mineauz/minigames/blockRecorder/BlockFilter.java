@@ -0,0 +1,96 @@
+package au.com.mineauz.minigames.blockRecorder;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bukkit.Material;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * The block whitelist or blacklist of a minigame. Listed materials are kept in a
+ * bitset indexed by material ordinal, so checking a block is constant time no
+ * matter how many materials are listed.
+ */
+public class BlockFilter {
+	private final boolean[] listed = new boolean[Material.values().length];
+	private final List<Material> blocks = new ArrayList<Material>();
+	private final List<Material> view = new BlockList();
+	private boolean whitelist = false;
+	
+	public boolean isWhitelist(){
+		return whitelist;
+	}
+	
+	public void setWhitelist(boolean whitelist){
+		this.whitelist = whitelist;
+	}
+	
+	/**
+	 * @return True if the material is in the list, regardless of the mode
+	 */
+	public boolean isListed(Material type){
+		return listed[type.ordinal()];
+	}
+	
+	/**
+	 * @return True if blocks of this material may be broken or placed
+	 */
+	public boolean allows(Material type){
+		return listed[type.ordinal()] == whitelist;
+	}
+	
+	/**
+	 * @return A modifiable list of the listed materials. Changes to it update the filter.
+	 */
+	public List<Material> getBlocks(){
+		return view;
+	}
+	
+	private void update(Material type){
+		listed[type.ordinal()] = blocks.contains(type);
+	}
+	
+	private class BlockList extends AbstractList<Material> {
+		@Override
+		public Material get(int index){
+			return blocks.get(index);
+		}
+		
+		@Override
+		public int size(){
+			return blocks.size();
+		}
+		
+		@Override
+		public boolean contains(Object o){
+			return o instanceof Material && listed[((Material)o).ordinal()];
+		}
+		
+		@Override
+		public Material set(int index, Material element){
+			Preconditions.checkNotNull(element);
+			Material old = blocks.set(index, element);
+			update(old);
+			listed[element.ordinal()] = true;
+			return old;
+		}
+		
+		@Override
+		public void add(int index, Material element){
+			Preconditions.checkNotNull(element);
+			blocks.add(index, element);
+			listed[element.ordinal()] = true;
+			++modCount;
+		}
+		
+		@Override
+		public Material remove(int index){
+			Material old = blocks.remove(index);
+			update(old);
+			++modCount;
+			return old;
+		}
+	}
+}
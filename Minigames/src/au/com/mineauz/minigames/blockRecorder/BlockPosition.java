@@ -0,0 +1,69 @@
+package au.com.mineauz.minigames.blockRecorder;
+
+import org.bukkit.Location;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockState;
+
+/**
+ * Packs world relative block coordinates into a single long.
+ * The layout is chunk major (chunk X: 22 bits, chunk Z: 22 bits, Y: 12 bits,
+ * local X: 4 bits, local Z: 4 bits) so sorting packed positions groups them
+ * by chunk and then by height.
+ */
+public final class BlockPosition {
+	private BlockPosition(){}
+	
+	public static long pack(int x, int y, int z){
+		return ((long)((x >> 4) & 0x3FFFFF) << 42) |
+				((long)((z >> 4) & 0x3FFFFF) << 20) |
+				((long)(y & 0xFFF) << 8) |
+				((x & 0xF) << 4) |
+				(z & 0xF);
+	}
+	
+	public static long pack(Block block){
+		return pack(block.getX(), block.getY(), block.getZ());
+	}
+	
+	public static long pack(BlockState state){
+		return pack(state.getX(), state.getY(), state.getZ());
+	}
+	
+	public static long pack(Location location){
+		return pack(location.getBlockX(), location.getBlockY(), location.getBlockZ());
+	}
+	
+	public static int getX(long packed){
+		return (getChunkX(packed) << 4) | (int)((packed >> 4) & 0xF);
+	}
+	
+	public static int getY(long packed){
+		return (int)(packed << 44 >> 52);
+	}
+	
+	public static int getZ(long packed){
+		return (getChunkZ(packed) << 4) | (int)(packed & 0xF);
+	}
+	
+	public static int getChunkX(long packed){
+		return (int)(packed >> 42);
+	}
+	
+	public static int getChunkZ(long packed){
+		return (int)(packed << 22 >> 42);
+	}
+	
+	/**
+	 * @return A key that is equal for all positions within the same chunk
+	 */
+	public static long getChunkKey(long packed){
+		return packed >> 20;
+	}
+	
+	/**
+	 * @return The chunk key of the given chunk, matching {@link #getChunkKey(long)} for positions inside it
+	 */
+	public static long getChunkKey(int chunkX, int chunkZ){
+		return pack(chunkX << 4, 0, chunkZ << 4) >> 20;
+	}
+}
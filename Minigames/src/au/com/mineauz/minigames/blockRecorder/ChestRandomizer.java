@@ -0,0 +1,86 @@
+package au.com.mineauz.minigames.blockRecorder;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.bukkit.inventory.ItemStack;
+
+/**
+ * Random chest layouts generated once per round. Randomizing a chest picks
+ * precomputed slot orders from the table and makes a single pass over its
+ * contents, instead of building and shuffling lists while the chest is opened.
+ * The orders used and the number of items are drawn at random for each chest,
+ * so layouts do not repeat in a fixed cycle.
+ */
+public class ChestRandomizer {
+	private static final int TABLE_SIZE = 64;
+	
+	private final Random random = new Random();
+	private final Map<Integer, int[][]> orders = new HashMap<Integer, int[][]>();
+	
+	public ChestRandomizer(){
+		// Single and double chests
+		getOrders(27);
+		getOrders(54);
+	}
+	
+	private int[][] getOrders(int size){
+		int[][] table = orders.get(size);
+		if(table == null){
+			table = new int[TABLE_SIZE][];
+			for(int i = 0; i < TABLE_SIZE; ++i){
+				int[] order = new int[size];
+				for(int j = 0; j < size; ++j){
+					order[j] = j;
+				}
+				for(int j = size - 1; j > 0; --j){
+					int k = random.nextInt(j + 1);
+					int temp = order[j];
+					order[j] = order[k];
+					order[k] = temp;
+				}
+				table[i] = order;
+			}
+			orders.put(size, table);
+		}
+		return table;
+	}
+	
+	/**
+	 * Picks a random number of items, between minContents and maxContents, from the
+	 * given contents and places them in random slots.
+	 * @return The new contents, the same length as the given contents
+	 */
+	public ItemStack[] randomize(ItemStack[] contents, int minContents, int maxContents){
+		int[][] table = getOrders(contents.length);
+		int[] pick = table[random.nextInt(TABLE_SIZE)];
+		int[] place = table[random.nextInt(TABLE_SIZE)];
+		double amount = random.nextDouble();
+		
+		int count = 0;
+		for(ItemStack item : contents){
+			if(item != null){
+				++count;
+			}
+		}
+		
+		if(maxContents > count){
+			maxContents = count;
+		}
+		if(minContents > count){
+			minContents = count;
+		}
+		int total = minContents + (int)(amount * ((maxContents - minContents) + 1));
+		
+		ItemStack[] result = new ItemStack[contents.length];
+		int placed = 0;
+		for(int i = 0; i < pick.length && placed < total; ++i){
+			ItemStack item = contents[pick[i]];
+			if(item != null){
+				result[place[placed++]] = item.clone();
+			}
+		}
+		return result;
+	}
+}
@@ -0,0 +1,273 @@
+package au.com.mineauz.minigames.blockRecorder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bukkit.World;
+
+import au.com.mineauz.minigames.MinigamePlayer;
+
+/**
+ * Stores the original type and data of plain (non tile entity) blocks
+ * in primitive arrays, keyed by packed {@link BlockPosition}.
+ * All blocks in a store belong to the same world.
+ */
+public class CompactBlockStore {
+	private static final int EMPTY = -1;
+	private static final int REMOVED = -2;
+	private static final float LOAD_FACTOR = 0.6f;
+	
+	private World world;
+	
+	private long[] keys;
+	private int[] states;
+	private int[] modifiers;
+	private int size;
+	private int used;
+	private int threshold;
+	
+	private List<MinigamePlayer> players = new ArrayList<MinigamePlayer>();
+	private Map<MinigamePlayer, Integer> playerIndex = new IdentityHashMap<MinigamePlayer, Integer>();
+	// Positions each player has been made the modifier of, by player index. May hold positions
+	// that have since been given to another player, these are skipped when draining.
+	private List<KeyList> playerBlocks = new ArrayList<KeyList>();
+	
+	public CompactBlockStore(){
+		allocate(1024);
+	}
+	
+	private void allocate(int capacity){
+		keys = new long[capacity];
+		states = new int[capacity];
+		modifiers = new int[capacity];
+		Arrays.fill(states, EMPTY);
+		threshold = (int)(capacity * LOAD_FACTOR);
+		used = 0;
+	}
+	
+	private static int hash(long key){
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		return (int)key;
+	}
+	
+	private int indexOf(long key){
+		int mask = keys.length - 1;
+		int index = hash(key) & mask;
+		while(states[index] != EMPTY){
+			if(states[index] != REMOVED && keys[index] == key){
+				return index;
+			}
+			index = (index + 1) & mask;
+		}
+		return -1;
+	}
+	
+	private int getPlayerIndex(MinigamePlayer player){
+		if(player == null){
+			return -1;
+		}
+		Integer index = playerIndex.get(player);
+		if(index == null){
+			index = players.size();
+			players.add(player);
+			playerIndex.put(player, index);
+			playerBlocks.add(new KeyList());
+		}
+		return index;
+	}
+	
+	/**
+	 * @return The world blocks in this store belong to, or null if it is empty
+	 */
+	public World getWorld(){
+		return world;
+	}
+	
+	/**
+	 * Checks whether blocks from the given world can be stored here
+	 */
+	public boolean accepts(World world){
+		return this.world == null || this.world == world;
+	}
+	
+	public boolean contains(long position){
+		return indexOf(position) >= 0;
+	}
+	
+	/**
+	 * Records the original state of a block if it has not been recorded yet.
+	 * @return True if the block was added, false if it was already recorded
+	 */
+	public boolean add(World world, long position, int state, MinigamePlayer modifier){
+		if(this.world == null){
+			this.world = world;
+		}
+		
+		int mask = keys.length - 1;
+		int index = hash(position) & mask;
+		int firstRemoved = -1;
+		while(states[index] != EMPTY){
+			if(states[index] == REMOVED){
+				if(firstRemoved < 0){
+					firstRemoved = index;
+				}
+			}
+			else if(keys[index] == position){
+				return false;
+			}
+			index = (index + 1) & mask;
+		}
+		
+		if(firstRemoved >= 0){
+			index = firstRemoved;
+		}
+		else{
+			++used;
+		}
+		
+		keys[index] = position;
+		states[index] = state;
+		modifiers[index] = getPlayerIndex(modifier);
+		if(modifiers[index] >= 0){
+			playerBlocks.get(modifiers[index]).add(position);
+		}
+		++size;
+		
+		if(used > threshold){
+			rehash(size * 2 > threshold ? keys.length << 1 : keys.length);
+		}
+		return true;
+	}
+	
+	public void setModifier(long position, MinigamePlayer modifier){
+		int index = indexOf(position);
+		if(index >= 0){
+			int player = getPlayerIndex(modifier);
+			if(player != modifiers[index]){
+				modifiers[index] = player;
+				if(player >= 0){
+					playerBlocks.get(player).add(position);
+				}
+			}
+		}
+	}
+	
+	public MinigamePlayer getModifier(long position){
+		int index = indexOf(position);
+		if(index < 0 || modifiers[index] < 0){
+			return null;
+		}
+		return players.get(modifiers[index]);
+	}
+	
+	private void rehash(int capacity){
+		long[] oldKeys = keys;
+		int[] oldStates = states;
+		int[] oldModifiers = modifiers;
+		allocate(capacity);
+		
+		int mask = capacity - 1;
+		for(int i = 0; i < oldStates.length; ++i){
+			if(oldStates[i] >= 0){
+				int index = hash(oldKeys[i]) & mask;
+				while(states[index] != EMPTY){
+					index = (index + 1) & mask;
+				}
+				keys[index] = oldKeys[i];
+				states[index] = oldStates[i];
+				modifiers[index] = oldModifiers[i];
+				++used;
+			}
+		}
+	}
+	
+	/**
+	 * Removes every block modified by the given player, or all blocks if modifier is null,
+	 * and appends them to the given list. Draining a single player only visits the
+	 * positions that player modified.
+	 */
+	public void drainTo(MinigamePlayer modifier, PackedBlockList output){
+		if(modifier == null){
+			for(int i = 0; i < states.length; ++i){
+				if(states[i] >= 0){
+					output.add(keys[i], states[i]);
+				}
+			}
+			clear();
+			return;
+		}
+		
+		Integer player = playerIndex.get(modifier);
+		if(player == null){
+			return;
+		}
+		
+		KeyList positions = playerBlocks.get(player);
+		for(int i = 0; i < positions.size; ++i){
+			int index = indexOf(positions.keys[i]);
+			if(index >= 0 && modifiers[index] == player){
+				output.add(keys[index], states[index]);
+				states[index] = REMOVED;
+				--size;
+			}
+		}
+		positions.clear();
+		
+		if(size == 0){
+			clear();
+		}
+	}
+	
+	/**
+	 * Appends every block in this store to the given list without removing them
+	 */
+	public void copyTo(PackedBlockList output){
+		for(int i = 0; i < states.length; ++i){
+			if(states[i] >= 0){
+				output.add(keys[i], states[i]);
+			}
+		}
+	}
+	
+	public int size(){
+		return size;
+	}
+	
+	public boolean isEmpty(){
+		return size == 0;
+	}
+	
+	public void clear(){
+		if(used > 0){
+			Arrays.fill(states, EMPTY);
+		}
+		size = 0;
+		used = 0;
+		world = null;
+		players.clear();
+		playerIndex.clear();
+		playerBlocks.clear();
+	}
+	
+	private static class KeyList {
+		private long[] keys = new long[16];
+		private int size;
+		
+		public void add(long key){
+			if(size == keys.length){
+				keys = Arrays.copyOf(keys, size * 2);
+			}
+			keys[size++] = key;
+		}
+		
+		public void clear(){
+			keys = new long[16];
+			size = 0;
+		}
+	}
+}
@@ -0,0 +1,328 @@
+package au.com.mineauz.minigames.blockRecorder;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Entity;
+import org.bukkit.scheduler.BukkitTask;
+
+import com.google.common.collect.Lists;
+
+import au.com.mineauz.minigames.MinigameUtils;
+import au.com.mineauz.minigames.Minigames;
+import au.com.mineauz.minigames.minigame.Minigame;
+
+/**
+ * Removes entities created during a game and respawns entities destroyed during it,
+ * a chunk at a time within a per tick time budget. Entities in chunks that are not
+ * loaded are left until the chunk loads, as the entity objects recorded for them are
+ * no longer valid and spawning into them would load the chunk. The {@link RecorderDispatcher}
+ * tells this when those chunks load. Entities whose chunk does not load within
+ * {@link #DEFERRED_TIMEOUT} ticks are not restored.
+ */
+public class EntityRollbackScheduler implements Runnable {
+	// How long to wait for chunks that were not loaded, 5 minutes
+	private static final long DEFERRED_TIMEOUT = 6000;
+	
+	private final Minigame minigame;
+	private final List<Pending> pending;
+	private final Map<World, LongHashMap<List<Pending>>> deferred = new IdentityHashMap<World, LongHashMap<List<Pending>>>();
+	private final List<List<Pending>> loaded = Lists.newArrayList();
+	private final long budget;
+	private int index;
+	private int deferredCount;
+	
+	private final int totalEntities;
+	private int removed;
+	private int spawned;
+	private int removedLastTick;
+	private int spawnedLastTick;
+	private boolean finished;
+	
+	private BukkitTask task;
+	private BukkitTask timeoutTask;
+	
+	public EntityRollbackScheduler(List<EntityData> entities, Minigame minigame){
+		this.minigame = minigame;
+		totalEntities = entities.size();
+		
+		pending = Lists.newArrayListWithCapacity(entities.size());
+		for(EntityData data : entities){
+			pending.add(new Pending(data));
+		}
+		// Group by world and chunk
+		Collections.sort(pending, new Comparator<Pending>() {
+			@Override
+			public int compare(Pending o1, Pending o2) {
+				int w1 = System.identityHashCode(o1.world);
+				int w2 = System.identityHashCode(o2.world);
+				if(w1 != w2){
+					return (w1 < w2 ? -1 : 1);
+				}
+				return (o1.chunk < o2.chunk ? -1 : (o1.chunk == o2.chunk ? 0 : 1));
+			}
+		});
+		
+		budget = Math.max((long)(Minigames.plugin.getConfig().getDouble("regeneration.maxDelay") * 1000000), TimeUnit.MILLISECONDS.toNanos(1));
+		task = Bukkit.getScheduler().runTaskTimer(Minigames.plugin, this, 0, 1);
+	}
+	
+	@Override
+	public void run() {
+		long start = System.nanoTime();
+		removedLastTick = 0;
+		spawnedLastTick = 0;
+		
+		while(!loaded.isEmpty() && System.nanoTime() - start < budget){
+			restoreLoaded(loaded.remove(loaded.size() - 1));
+		}
+		
+		while(index < pending.size() && System.nanoTime() - start < budget){
+			Pending first = pending.get(index);
+			int end = index + 1;
+			while(end < pending.size() && pending.get(end).world == first.world && pending.get(end).chunk == first.chunk){
+				++end;
+			}
+			
+			List<Pending> group = pending.subList(index, end);
+			if(first.world.isChunkLoaded(first.getChunkX(), first.getChunkZ())){
+				for(Pending entity : group){
+					restore(entity);
+				}
+			}
+			else{
+				defer(first, Lists.newArrayList(group));
+			}
+			index = end;
+		}
+		
+		if(index < pending.size() || !loaded.isEmpty()){
+			return;
+		}
+		
+		if(deferredCount == 0){
+			finish();
+		}
+		else{
+			// Nothing to do until a chunk loads
+			task.cancel();
+			task = null;
+		}
+	}
+	
+	private void defer(Pending first, List<Pending> group){
+		LongHashMap<List<Pending>> chunks = deferred.get(first.world);
+		if(chunks == null){
+			chunks = new LongHashMap<List<Pending>>();
+			deferred.put(first.world, chunks);
+		}
+		chunks.put(first.chunk, group);
+		deferredCount += group.size();
+		
+		if(timeoutTask == null){
+			Minigames.plugin.getRecorderDispatcher().addChunkWaiter(this);
+			timeoutTask = Bukkit.getScheduler().runTaskLater(Minigames.plugin, new Runnable() {
+				@Override
+				public void run() {
+					MinigameUtils.debugMessage("Gave up restoring " + deferredCount + " entities in " + minigame.getName(false) + 
+							" as their chunks did not load");
+					stop();
+					discard();
+				}
+			}, DEFERRED_TIMEOUT);
+		}
+	}
+	
+	/**
+	 * Called by the {@link RecorderDispatcher} when a chunk loads. Entities waiting
+	 * for it are restored on the next tick.
+	 */
+	void chunkLoaded(Chunk chunk){
+		LongHashMap<List<Pending>> chunks = deferred.get(chunk.getWorld());
+		if(chunks == null){
+			return;
+		}
+		
+		List<Pending> group = chunks.remove(BlockPosition.getChunkKey(chunk.getX(), chunk.getZ()));
+		if(group == null){
+			return;
+		}
+		if(chunks.isEmpty()){
+			deferred.remove(chunk.getWorld());
+		}
+		
+		deferredCount -= group.size();
+		loaded.add(group);
+		if(task == null){
+			task = Bukkit.getScheduler().runTaskTimer(Minigames.plugin, this, 1, 1);
+		}
+	}
+	
+	private void restoreLoaded(List<Pending> group){
+		Pending first = group.get(0);
+		if(!first.world.isChunkLoaded(first.getChunkX(), first.getChunkZ())){
+			// Unloaded again before its turn
+			defer(first, group);
+			return;
+		}
+		
+		// The chunk was unloaded, so created entities now have new entity objects
+		Chunk chunk = first.world.getChunkAt(first.getChunkX(), first.getChunkZ());
+		Set<UUID> toRemove = new HashSet<UUID>();
+		for(Pending entity : group){
+			if(entity.data.wasCreated()){
+				toRemove.add(entity.data.getEntity().getUniqueId());
+			}
+			else{
+				spawn(entity.data);
+			}
+		}
+		
+		if(!toRemove.isEmpty()){
+			for(Entity entity : chunk.getEntities()){
+				if(toRemove.contains(entity.getUniqueId())){
+					entity.remove();
+					++removed;
+					++removedLastTick;
+				}
+			}
+		}
+	}
+	
+	private void restore(Pending entity){
+		if(entity.data.wasCreated()){
+			Entity ent = entity.data.getEntity();
+			// Entity needs to be removed
+			if(ent.isValid()){
+				ent.remove();
+				++removed;
+				++removedLastTick;
+			}
+		}
+		else{
+			spawn(entity.data);
+		}
+	}
+	
+	private void spawn(EntityData data){
+		// Entity needs to be spawned
+		Location location = data.getEntityLocation();
+		location.getWorld().spawnEntity(location, data.getEntityType());
+		++spawned;
+		++spawnedLastTick;
+	}
+	
+	private void finish(){
+		stop();
+		MinigameUtils.debugMessage("Restored " + totalEntities + " entities in " + minigame.getName(false) +
+				" (" + removed + " removed, " + spawned + " respawned)");
+	}
+	
+	/**
+	 * Stops the rollback, leaving any entities not yet restored as they are.
+	 * Used when they must not be restored later, such as when the next round starts.
+	 */
+	public void cancel(){
+		if(finished){
+			return;
+		}
+		
+		int remaining = deferredCount + pending.size() - index;
+		for(List<Pending> group : loaded){
+			remaining += group.size();
+		}
+		if(remaining > 0){
+			MinigameUtils.debugMessage("Cancelled restoring " + remaining + " entities in " + minigame.getName(false));
+		}
+		
+		stop();
+		discard();
+	}
+	
+	private void discard(){
+		deferred.clear();
+		loaded.clear();
+		deferredCount = 0;
+	}
+	
+	private void stop(){
+		finished = true;
+		if(task != null){
+			task.cancel();
+			task = null;
+		}
+		if(timeoutTask != null){
+			timeoutTask.cancel();
+			timeoutTask = null;
+			Minigames.plugin.getRecorderDispatcher().removeChunkWaiter(this);
+		}
+	}
+	
+	public Minigame getMinigame(){
+		return minigame;
+	}
+	
+	public boolean isFinished(){
+		return finished;
+	}
+	
+	public int getTotalEntities(){
+		return totalEntities;
+	}
+	
+	public int getRemovedEntities(){
+		return removed;
+	}
+	
+	public int getSpawnedEntities(){
+		return spawned;
+	}
+	
+	public int getRemovedLastTick(){
+		return removedLastTick;
+	}
+	
+	public int getSpawnedLastTick(){
+		return spawnedLastTick;
+	}
+	
+	/**
+	 * @return The number of entities waiting for their chunk to load
+	 */
+	public int getDeferredEntities(){
+		return deferredCount;
+	}
+	
+	private static class Pending {
+		private final EntityData data;
+		private final World world;
+		private final long chunk;
+		
+		public Pending(EntityData data){
+			this.data = data;
+			// Created entities may have moved since they were recorded
+			Location location = (data.wasCreated() ? data.getEntity().getLocation() : data.getEntityLocation());
+			world = location.getWorld();
+			chunk = BlockPosition.getChunkKey(location.getBlockX() >> 4, location.getBlockZ() >> 4);
+		}
+		
+		public int getChunkX(){
+			return BlockPosition.getChunkX(chunk << 20);
+		}
+		
+		public int getChunkZ(){
+			return BlockPosition.getChunkZ(chunk << 20);
+		}
+	}
+}
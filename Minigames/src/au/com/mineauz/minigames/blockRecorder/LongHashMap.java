@@ -0,0 +1,288 @@
+package au.com.mineauz.minigames.blockRecorder;
+
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An open addressing hash map keyed by primitive longs. Lookups and
+ * insertions of existing keys do not allocate. Null values are not permitted.
+ */
+public class LongHashMap<V> {
+	private static final Object REMOVED = new Object();
+	private static final float LOAD_FACTOR = 0.6f;
+	
+	private long[] keys;
+	private Object[] values;
+	private int size;
+	private int used;
+	private int threshold;
+	private int modCount;
+	
+	private Values valueView;
+	
+	public LongHashMap(){
+		this(16);
+	}
+	
+	public LongHashMap(int expectedSize){
+		int capacity = 16;
+		while(capacity * LOAD_FACTOR < expectedSize){
+			capacity <<= 1;
+		}
+		allocate(capacity);
+	}
+	
+	private void allocate(int capacity){
+		keys = new long[capacity];
+		values = new Object[capacity];
+		threshold = (int)(capacity * LOAD_FACTOR);
+		used = 0;
+	}
+	
+	private static int hash(long key){
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return (int)key;
+	}
+	
+	private int indexOf(long key){
+		int mask = keys.length - 1;
+		int index = hash(key) & mask;
+		while(true){
+			Object value = values[index];
+			if(value == null){
+				return -1;
+			}
+			if(value != REMOVED && keys[index] == key){
+				return index;
+			}
+			index = (index + 1) & mask;
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	public V get(long key){
+		int index = indexOf(key);
+		if(index < 0){
+			return null;
+		}
+		return (V)values[index];
+	}
+	
+	public boolean containsKey(long key){
+		return indexOf(key) >= 0;
+	}
+	
+	@SuppressWarnings("unchecked")
+	public V put(long key, V value){
+		if(value == null){
+			throw new NullPointerException("Null values are not permitted");
+		}
+		
+		int mask = keys.length - 1;
+		int index = hash(key) & mask;
+		int firstRemoved = -1;
+		while(true){
+			Object existing = values[index];
+			if(existing == null){
+				break;
+			}
+			if(existing == REMOVED){
+				if(firstRemoved < 0){
+					firstRemoved = index;
+				}
+			}
+			else if(keys[index] == key){
+				values[index] = value;
+				return (V)existing;
+			}
+			index = (index + 1) & mask;
+		}
+		
+		if(firstRemoved >= 0){
+			index = firstRemoved;
+		}
+		else{
+			++used;
+		}
+		
+		keys[index] = key;
+		values[index] = value;
+		++size;
+		++modCount;
+		
+		if(used > threshold){
+			rehash(size * 2 > threshold ? keys.length << 1 : keys.length);
+		}
+		return null;
+	}
+	
+	@SuppressWarnings("unchecked")
+	public V remove(long key){
+		int index = indexOf(key);
+		if(index < 0){
+			return null;
+		}
+		Object old = values[index];
+		values[index] = REMOVED;
+		--size;
+		++modCount;
+		return (V)old;
+	}
+	
+	private void rehash(int capacity){
+		long[] oldKeys = keys;
+		Object[] oldValues = values;
+		allocate(capacity);
+		
+		int mask = capacity - 1;
+		for(int i = 0; i < oldValues.length; ++i){
+			Object value = oldValues[i];
+			if(value != null && value != REMOVED){
+				int index = hash(oldKeys[i]) & mask;
+				while(values[index] != null){
+					index = (index + 1) & mask;
+				}
+				keys[index] = oldKeys[i];
+				values[index] = value;
+				++used;
+			}
+		}
+	}
+	
+	public int size(){
+		return size;
+	}
+	
+	public boolean isEmpty(){
+		return size == 0;
+	}
+	
+	public void clear(){
+		if(size == 0 && used == 0){
+			return;
+		}
+		Arrays.fill(values, null);
+		size = 0;
+		used = 0;
+		++modCount;
+	}
+	
+	/**
+	 * @return A live view of the values in this map. Removing through the
+	 *         view's iterator removes the mapping from this map.
+	 */
+	public AbstractCollection<V> values(){
+		if(valueView == null){
+			valueView = new Values();
+		}
+		return valueView;
+	}
+	
+	/**
+	 * @return A cursor over every mapping in this map
+	 */
+	public Cursor cursor(){
+		return new Cursor();
+	}
+	
+	/**
+	 * Iterates the mappings of a {@link LongHashMap} without boxing keys.
+	 * Usage: {@code while(cursor.next()) { cursor.key(); cursor.value(); }}
+	 */
+	public class Cursor {
+		private int index = -1;
+		private int expectedModCount = modCount;
+		
+		public boolean next(){
+			if(expectedModCount != modCount){
+				throw new ConcurrentModificationException();
+			}
+			while(++index < values.length){
+				Object value = values[index];
+				if(value != null && value != REMOVED){
+					return true;
+				}
+			}
+			return false;
+		}
+		
+		public long key(){
+			return keys[index];
+		}
+		
+		@SuppressWarnings("unchecked")
+		public V value(){
+			return (V)values[index];
+		}
+		
+		public void remove(){
+			if(index < 0 || index >= values.length || values[index] == REMOVED){
+				throw new IllegalStateException();
+			}
+			values[index] = REMOVED;
+			--size;
+			expectedModCount = ++modCount;
+		}
+	}
+	
+	private class Values extends AbstractCollection<V> {
+		@Override
+		public Iterator<V> iterator(){
+			return new Iterator<V>() {
+				private final Cursor cursor = new Cursor();
+				private boolean hasNext = cursor.next();
+				private boolean canRemove = false;
+				private int current = -1;
+				
+				@Override
+				public boolean hasNext(){
+					return hasNext;
+				}
+				
+				@SuppressWarnings("unchecked")
+				@Override
+				public V next(){
+					if(!hasNext){
+						throw new NoSuchElementException();
+					}
+					current = cursor.index;
+					V value = (V)values[current];
+					hasNext = cursor.next();
+					canRemove = true;
+					return value;
+				}
+				
+				@Override
+				public void remove(){
+					if(!canRemove){
+						throw new IllegalStateException();
+					}
+					if(cursor.expectedModCount != modCount){
+						throw new ConcurrentModificationException();
+					}
+					values[current] = REMOVED;
+					--size;
+					cursor.expectedModCount = ++modCount;
+					canRemove = false;
+				}
+			};
+		}
+		
+		@Override
+		public int size(){
+			return size;
+		}
+		
+		@Override
+		public void clear(){
+			LongHashMap.this.clear();
+		}
+	}
+}
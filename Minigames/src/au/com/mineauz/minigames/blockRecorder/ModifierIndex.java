@@ -0,0 +1,64 @@
+package au.com.mineauz.minigames.blockRecorder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the recorded changes each player has been made the modifier of, so
+ * one player's changes can be found without visiting everyone else's.
+ * Entries are not moved when another player takes a change over, so the
+ * caller must check each removed entry still belongs to that player.
+ */
+public class ModifierIndex<P, T> {
+	private Map<P, List<T>> entries = new HashMap<P, List<T>>();
+	
+	/**
+	 * Adds an entry for the given modifier. Entries without a modifier are not indexed.
+	 */
+	public void add(P modifier, T entry){
+		if(modifier == null){
+			return;
+		}
+		
+		List<T> list = entries.get(modifier);
+		if(list == null){
+			list = new ArrayList<T>();
+			entries.put(modifier, list);
+		}
+		list.add(entry);
+	}
+	
+	/**
+	 * Removes and returns every entry indexed for the given modifier.
+	 * @return The entries in the order they were added, or an empty list if there are none
+	 */
+	public List<T> remove(P modifier){
+		List<T> list = entries.remove(modifier);
+		if(list == null){
+			return Collections.emptyList();
+		}
+		return list;
+	}
+	
+	/**
+	 * @return The number of entries indexed for the given modifier, including ones since taken over
+	 */
+	public int size(P modifier){
+		List<T> list = entries.get(modifier);
+		if(list == null){
+			return 0;
+		}
+		return list.size();
+	}
+	
+	public boolean isEmpty(){
+		return entries.isEmpty();
+	}
+	
+	public void clear(){
+		entries.clear();
+	}
+}
@@ -0,0 +1,107 @@
+package au.com.mineauz.minigames.blockRecorder;
+
+import java.util.Arrays;
+
+/**
+ * A growable list of plain block records held in parallel primitive arrays.
+ * Each record is a packed {@link BlockPosition} and a packed type id and data value.
+ */
+public class PackedBlockList {
+	private long[] positions;
+	private int[] states;
+	private int size;
+	
+	public PackedBlockList(){
+		this(64);
+	}
+	
+	public PackedBlockList(int capacity){
+		positions = new long[Math.max(capacity, 1)];
+		states = new int[positions.length];
+	}
+	
+	public static int packState(int typeId, byte data){
+		return (typeId << 8) | (data & 0xFF);
+	}
+	
+	public static int getTypeId(int state){
+		return state >>> 8;
+	}
+	
+	public static byte getData(int state){
+		return (byte)(state & 0xFF);
+	}
+	
+	public void add(long position, int state){
+		if(size == positions.length){
+			positions = Arrays.copyOf(positions, size * 2);
+			states = Arrays.copyOf(states, size * 2);
+		}
+		positions[size] = position;
+		states[size] = state;
+		++size;
+	}
+	
+	public int size(){
+		return size;
+	}
+	
+	public boolean isEmpty(){
+		return size == 0;
+	}
+	
+	public long getPosition(int index){
+		return positions[index];
+	}
+	
+	public int getState(int index){
+		return states[index];
+	}
+	
+	/**
+	 * Sorts the records by position, grouping them by chunk then by height
+	 */
+	public void sort(){
+		sort(0, size - 1);
+	}
+	
+	private void sort(int low, int high){
+		while(high - low > 16){
+			long pivot = positions[(low + high) >>> 1];
+			int i = low;
+			int j = high;
+			while(i <= j){
+				while(positions[i] < pivot) ++i;
+				while(positions[j] > pivot) --j;
+				if(i <= j){
+					swap(i++, j--);
+				}
+			}
+			// Recurse on the smaller half to bound the stack depth
+			if(j - low < high - i){
+				sort(low, j);
+				low = i;
+			}
+			else{
+				sort(i, high);
+				high = j;
+			}
+		}
+		
+		for(int i = low + 1; i <= high; ++i){
+			for(int j = i; j > low && positions[j - 1] > positions[j]; --j){
+				swap(j, j - 1);
+			}
+		}
+	}
+	
+	private void swap(int a, int b){
+		long pos = positions[a];
+		positions[a] = positions[b];
+		positions[b] = pos;
+		
+		int state = states[a];
+		states[a] = states[b];
+		states[b] = state;
+	}
+}
@@ -7,13 +7,14 @@ import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.bukkit.Bukkit;
 import org.bukkit.Location;
@@ -23,15 +24,13 @@ import org.bukkit.block.Block;
 import org.bukkit.block.BlockFace;
 import org.bukkit.block.BlockState;
 import org.bukkit.block.Chest;
+import org.bukkit.block.Sign;
 import org.bukkit.enchantments.Enchantment;
 import org.bukkit.entity.Animals;
 import org.bukkit.entity.Entity;
 import org.bukkit.entity.EntityType;
 import org.bukkit.entity.Player;
 import org.bukkit.entity.minecart.HopperMinecart;
-import org.bukkit.event.EventHandler;
-import org.bukkit.event.EventPriority;
-import org.bukkit.event.Listener;
 import org.bukkit.event.block.BlockFromToEvent;
 import org.bukkit.event.block.BlockPhysicsEvent;
 import org.bukkit.event.block.BlockSpreadEvent;
@@ -46,31 +45,60 @@ import org.bukkit.event.inventory.InventoryType;
 import org.bukkit.event.player.PlayerInteractEvent;
 import org.bukkit.event.vehicle.VehicleCreateEvent;
 import org.bukkit.event.vehicle.VehicleDestroyEvent;
+import org.bukkit.inventory.Inventory;
 import org.bukkit.inventory.InventoryHolder;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.metadata.FixedMetadataValue;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 
 import au.com.mineauz.minigames.MinigamePlayer;
-import au.com.mineauz.minigames.MinigameUtils;
 import au.com.mineauz.minigames.Minigames;
 import au.com.mineauz.minigames.menu.Callback;
 import au.com.mineauz.minigames.minigame.Minigame;
 import au.com.mineauz.minigames.minigame.MinigameState;
 
-public class RecorderData implements Listener{
+public class RecorderData {
 	private static Minigames plugin;
 	
 	private Minigame minigame;
-	private boolean whitelistMode = false;
-	private List<Material> wbBlocks = new ArrayList<Material>();
+	private BlockFilter blockFilter = new BlockFilter();
 	private boolean hasCreatedRegenBlocks = false;
 	
-	private Map<String, BlockData> blockdata;
+	private boolean compactStorage;
+	private LongHashMap<BlockData> blockdata;
+	private CompactBlockStore plainBlocks;
 	private Map<Integer, EntityData> entdata;
+	// Blocks and entities each player has modified, so one player's changes can be rolled
+	// back without scanning everything. May hold entries since given to another player.
+	private ModifierIndex<MinigamePlayer, BlockData> modifiedBlocks = new ModifierIndex<MinigamePlayer, BlockData>();
+	private ModifierIndex<MinigamePlayer, EntityData> modifiedEntities = new ModifierIndex<MinigamePlayer, EntityData>();
 	
-	private static List<Material> physBlocks = new ArrayList<Material>();
+	private volatile RollbackScheduler activeRollback;
+	private EntityRollbackScheduler activeEntityRollback;
+	// Entity rollbacks that may still be waiting for chunks to load
+	private List<EntityRollbackScheduler> entityRollbacks = Lists.newArrayList();
+	private RegenBounds regenBounds;
+	private ChestRandomizer chestRandomizer;
+	private RollbackJournal journal;
+	
+	private static final Comparator<BlockData> positionOrder = new Comparator<BlockData>() {
+		@Override
+		public int compare(BlockData o1, BlockData o2) {
+			long pos1 = o1.getPosition();
+			long pos2 = o2.getPosition();
+			return (pos1 < pos2 ? -1 : (pos1 == pos2 ? 0 : 1));
+		}
+	};
+	
+	private static Set<Material> physBlocks = EnumSet.noneOf(Material.class);
+	// Blocks whose tile entity data is restored beyond type and data, these need a full BlockData
+	private static Set<Material> tileBlocks = EnumSet.of(
+			Material.CHEST, Material.TRAPPED_CHEST, Material.FURNACE, Material.BURNING_FURNACE,
+			Material.DISPENSER, Material.DROPPER, Material.HOPPER, Material.BREWING_STAND, Material.BEACON,
+			Material.SIGN_POST, Material.WALL_SIGN, Material.SKULL, Material.FLOWER_POT, Material.JUKEBOX,
+			Material.MOB_SPAWNER, Material.COMMAND, Material.NOTE_BLOCK, Material.STANDING_BANNER, Material.WALL_BANNER);
 	
 	static{
 		physBlocks.add(Material.TORCH);
@@ -123,18 +151,23 @@ public class RecorderData implements Listener{
 		plugin = Minigames.plugin;
 		
 		this.minigame = minigame;
-		blockdata = new HashMap<String, BlockData>();
+		blockdata = new LongHashMap<BlockData>();
+		plainBlocks = new CompactBlockStore();
+		compactStorage = plugin.getConfig().getBoolean("regeneration.compactStorage", true);
+		if(plugin.getConfig().getBoolean("regeneration.journal", true)){
+			journal = new RollbackJournal(minigame);
+		}
 		entdata = new HashMap<Integer, EntityData>();
 		
 //		plugin.getServer().getPluginManager().registerEvents(this, plugin);
 	}
 	
 	public void setWhitelistMode(boolean bool){
-		whitelistMode = bool;
+		blockFilter.setWhitelist(bool);
 	}
 	
 	public boolean getWhitelistMode(){
-		return whitelistMode;
+		return blockFilter.isWhitelist();
 	}
 	
 	public Callback<Boolean> getWhitelistModeCallback(){
@@ -142,30 +175,36 @@ public class RecorderData implements Listener{
 
 			@Override
 			public void setValue(Boolean value) {
-				whitelistMode = value;
+				blockFilter.setWhitelist(value);
 			}
 
 			@Override
 			public Boolean getValue() {
-				return whitelistMode;
+				return blockFilter.isWhitelist();
 			}
 		};
 	}
 	
 	public void addWBBlock(Material mat){
-		wbBlocks.add(mat);
+		if(mat != null){
+			blockFilter.getBlocks().add(mat);
+		}
 	}
 	
 	public List<Material> getWBBlocks(){
-		return wbBlocks;
+		return blockFilter.getBlocks();
 	}
 	
 	public boolean removeWBBlock(Material mat){
-		if(wbBlocks.contains(mat)){
-			wbBlocks.remove(mat);
-			return true;
-		}
-		return false;
+		return blockFilter.getBlocks().remove(mat);
+	}
+	
+	/**
+	 * @return The block whitelist or blacklist of this minigame. Modules should use
+	 * {@link BlockFilter#allows(Material)} to check whether a block may be changed.
+	 */
+	public BlockFilter getBlockFilter(){
+		return blockFilter;
 	}
 	
 	public boolean hasCreatedRegenBlocks(){
@@ -180,14 +219,40 @@ public class RecorderData implements Listener{
 		return minigame;
 	}
 	
+	/**
+	 * Records the original state of a block so it can be rolled back.
+	 * @return The BlockData for the block, or null if it is a plain block held in compact storage
+	 */
+	@SuppressWarnings("deprecation")
 	public BlockData addBlock(Block block, MinigamePlayer modifier){
+		if(compactStorage && !tileBlocks.contains(block.getType()) && 
+				addPlainBlock(block.getWorld(), BlockPosition.pack(block), block.getTypeId(), block.getData(), modifier)){
+			return null;
+		}
 		return addBlock(block.getState(), modifier);
 	}
 	
+	/**
+	 * Records the original state of a block so it can be rolled back.
+	 * @return The BlockData for the block, or null if it is a plain block held in compact storage
+	 */
+	@SuppressWarnings("deprecation")
 	public BlockData addBlock(BlockState block, MinigamePlayer modifier){
-		BlockData bdata = new BlockData(block, modifier);
-		String sloc = String.valueOf(bdata.getLocation().getBlockX()) + ":" + bdata.getLocation().getBlockY() + ":" + bdata.getLocation().getBlockZ();
-		if(!blockdata.containsKey(sloc)){
+		long key = BlockPosition.pack(block);
+		if(compactStorage && !tileBlocks.contains(block.getType()) && 
+				addPlainBlock(block.getWorld(), key, block.getTypeId(), block.getRawData(), modifier)){
+			return null;
+		}
+		
+		BlockData existing = blockdata.get(key);
+		if(existing == null){
+			if(plainBlocks.contains(key)){
+				// The original block was a plain block, that is what needs restoring
+				plainBlocks.setModifier(key, modifier);
+				return null;
+			}
+			
+			BlockData bdata = new BlockData(block, modifier);
 			if(block.getType() == Material.CHEST){
 				Chest chest = (Chest) block;
 				if(chest.getInventory().getSize() > 27){
@@ -226,65 +291,203 @@ public class RecorderData implements Listener{
 					}
 					
 					if(!isRight){
-						ItemStack[] items = new ItemStack[chest.getInventory().getContents().length];
-						for(int i = 0; i < items.length; i++){
-							if(chest.getInventory().getContents()[i] != null)
-								items[i] = chest.getInventory().getContents()[i].clone();
-						}
-						bdata.setItems(items);
+						bdata.setItems(copyContents(chest.getInventory()));
 						if(minigame.isRandomizeChests())
-							bdata.randomizeContents(minigame.getMinChestRandom(), minigame.getMaxChestRandom());
+							bdata.randomizeContents(getChestRandomizer(), minigame.getMinChestRandom(), minigame.getMaxChestRandom());
 					}
-					else{
+					else if(secondChest != null){
 						if(secondChest.getItems() == null){
-							ItemStack[] items = new ItemStack[chest.getInventory().getContents().length];
-							for(int i = 0; i < items.length; i++){
-								if(chest.getInventory().getContents()[i] != null)
-									items[i] = chest.getInventory().getContents()[i].clone();
-							}
-							secondChest.setItems(items);
+							secondChest.setItems(copyContents(chest.getInventory()));
+							journalBlock(secondChest);
 							if(minigame.isRandomizeChests())
-								secondChest.randomizeContents(minigame.getMinChestRandom(), minigame.getMaxChestRandom());
+								secondChest.randomizeContents(getChestRandomizer(), minigame.getMinChestRandom(), minigame.getMaxChestRandom());
 						}
 					}
 				}
 				else{
-					ItemStack[] items = new ItemStack[chest.getInventory().getContents().length];
-					for(int i = 0; i < items.length; i++){
-						if(chest.getInventory().getContents()[i] != null)
-							items[i] = chest.getInventory().getContents()[i].clone();
-					}
-					bdata.setItems(items);
+					bdata.setItems(copyContents(chest.getInventory()));
 					if(minigame.isRandomizeChests())
-						bdata.randomizeContents(minigame.getMinChestRandom(), minigame.getMaxChestRandom());
+						bdata.randomizeContents(getChestRandomizer(), minigame.getMinChestRandom(), minigame.getMaxChestRandom());
 				}
 			}
 			else if(block instanceof InventoryHolder){
 				InventoryHolder inv = (InventoryHolder) block;
-				ItemStack[] items = new ItemStack[inv.getInventory().getContents().length];
-				for(int i = 0; i < items.length; i++){
-					if(inv.getInventory().getContents()[i] != null)
-						items[i] = inv.getInventory().getContents()[i].clone();
-				}
-				bdata.setItems(items);
+				bdata.setItems(copyContents(inv.getInventory()));
 			}
 			else if(block.getType() == Material.FLOWER_POT){
 				bdata.setSpecialData("contents", block.getData());
 			}
 			
-			blockdata.put(sloc, bdata);
+			blockdata.put(key, bdata);
+			modifiedBlocks.add(modifier, bdata);
+			journalBlock(bdata);
 			return bdata;
 		}
 		else{
-			if(block.getType() != Material.CHEST || !blockdata.get(sloc).hasRandomized())
-				blockdata.get(sloc).setModifier(modifier);
-			return blockdata.get(sloc);
+			if((block.getType() != Material.CHEST || !existing.hasRandomized()) && existing.getModifier() != modifier){
+				existing.setModifier(modifier);
+				modifiedBlocks.add(modifier, existing);
+			}
+			return existing;
+		}
+	}
+	
+	private static ItemStack[] copyContents(Inventory inventory){
+		ItemStack[] contents = inventory.getContents();
+		ItemStack[] items = new ItemStack[contents.length];
+		for(int i = 0; i < contents.length; i++){
+			if(contents[i] != null)
+				items[i] = contents[i].clone();
+		}
+		return items;
+	}
+	
+	/**
+	 * Prepares new random chest layouts for the round that is starting
+	 */
+	public void prepareRound(){
+		// Entities left from the last round must not be restored during this one
+		cancelEntityRollbacks();
+		if(minigame.isRandomizeChests()){
+			chestRandomizer = new ChestRandomizer();
+		}
+	}
+	
+	private ChestRandomizer getChestRandomizer(){
+		if(chestRandomizer == null){
+			chestRandomizer = new ChestRandomizer();
+		}
+		return chestRandomizer;
+	}
+	
+	private boolean addPlainBlock(World world, long key, int typeId, byte data, MinigamePlayer modifier){
+		if(!plainBlocks.accepts(world) || blockdata.containsKey(key)){
+			return false;
+		}
+		
+		if(!plainBlocks.add(world, key, PackedBlockList.packState(typeId, data), modifier)){
+			plainBlocks.setModifier(key, modifier);
+		}
+		else if(journal != null){
+			journal.recordBlock(world, key, typeId, data);
+		}
+		return true;
+	}
+	
+	@SuppressWarnings("deprecation")
+	private void journalBlock(BlockData data){
+		if(journal == null){
+			return;
+		}
+		
+		BlockState state = data.getBlockState();
+		if(data.getItems() != null){
+			journal.recordInventory(state.getWorld(), data.getPosition(), state.getTypeId(), state.getRawData(), data.getItems());
+		}
+		else if(state instanceof Sign){
+			journal.recordSign(state.getWorld(), data.getPosition(), state.getTypeId(), state.getRawData(), ((Sign)state).getLines());
+		}
+		else{
+			journal.recordBlock(state.getWorld(), data.getPosition(), state.getTypeId(), state.getRawData());
+		}
+	}
+	
+	/**
+	 * Restores any blocks left in the rollback journal by a rollback that did not complete,
+	 * such as when the server crashed or stopped during a game. Restoring happens immediately.
+	 */
+	@SuppressWarnings("deprecation")
+	public void replayJournal(){
+		if(journal == null || !journal.hasRecords()){
+			return;
+		}
+		
+		List<RollbackJournal.Entry> entries;
+		try{
+			entries = journal.read();
+		}
+		catch(IOException e){
+			plugin.getLogger().severe("Failed to read the rollback journal for " + minigame.getName(false) + ": " + e.getMessage());
+			return;
+		}
+		
+		List<RollbackJournal.Entry> later = Lists.newArrayList();
+		List<RollbackJournal.Entry> unresolved = Lists.newArrayList();
+		int restored = 0;
+		int lost = 0;
+		Set<String> missingWorlds = Sets.newTreeSet();
+		for(RollbackJournal.Entry entry : entries){
+			if(entry.getWorldName() == null){
+				// Its world record was never written
+				++lost;
+				continue;
+			}
+			if(entry.getWorld() == null){
+				unresolved.add(entry);
+				missingWorlds.add(entry.getWorldName());
+				continue;
+			}
+			
+			++restored;
+			Block block = entry.getWorld().getBlockAt(BlockPosition.getX(entry.getPosition()), 
+					BlockPosition.getY(entry.getPosition()), BlockPosition.getZ(entry.getPosition()));
+			
+			// Clear inventories
+			if(block.getState() instanceof InventoryHolder){
+				((InventoryHolder)block.getState()).getInventory().clear();
+			}
+			
+			if(entry.getItems() != null || physBlocks.contains(Material.getMaterial(entry.getTypeId()))){
+				later.add(entry);
+			}
+			else{
+				block.setTypeIdAndData(entry.getTypeId(), entry.getData(), true);
+			}
+		}
+		
+		for(RollbackJournal.Entry entry : later){
+			Block block = entry.getWorld().getBlockAt(BlockPosition.getX(entry.getPosition()), 
+					BlockPosition.getY(entry.getPosition()), BlockPosition.getZ(entry.getPosition()));
+			block.setTypeIdAndData(entry.getTypeId(), entry.getData(), true);
+			
+			BlockState state = block.getState();
+			if(entry.getItems() != null && state instanceof InventoryHolder){
+				((InventoryHolder)state).getInventory().setContents(entry.getItems().clone());
+			}
+			else if(entry.getLines() != null && state instanceof Sign){
+				Sign sign = (Sign)state;
+				for(int i = 0; i < 4; ++i){
+					sign.setLine(i, entry.getLines()[i]);
+				}
+				sign.update();
+			}
+		}
+		
+		plugin.getLogger().info("Restored " + restored + " blocks in " + minigame.getName(false) + " left over from an incomplete rollback");
+		if(lost > 0){
+			plugin.getLogger().warning("Could not restore " + lost + " blocks in " + minigame.getName(false) + " as the journal does not say which world they are in");
+		}
+		if(!unresolved.isEmpty()){
+			plugin.getLogger().warning("Could not restore " + unresolved.size() + " blocks in " + minigame.getName(false) + 
+					" as their world is not loaded " + missingWorlds + ". They will be restored once the world is loaded and the server restarts.");
+		}
+		// Only the unresolved entries are kept, so the replayed ones are not restored again
+		journal.retain(unresolved);
+	}
+	
+	/**
+	 * Called once a rollback of the whole minigame has completed
+	 */
+	void rollbackComplete(){
+		if(journal != null){
+			journal.truncate();
 		}
 	}
 	
 	public void addEntity(Entity ent, MinigamePlayer player, boolean created){
 		EntityData edata = new EntityData(ent, player, created);
 		entdata.put(ent.getEntityId(), edata);
+		modifiedEntities.add(player, edata);
 	}
 	
 	public boolean hasEntity(Entity ent){
@@ -295,15 +498,17 @@ public class RecorderData implements Listener{
 	}
 	
 	public boolean hasBlock(Block block){
-		String sloc = String.valueOf(block.getLocation().getBlockX()) + ":" + block.getLocation().getBlockY() + ":" + block.getLocation().getBlockZ();
-		if(blockdata.containsKey(sloc)){
-			return true;
-		}
-		return false;
+		long key = BlockPosition.pack(block);
+		return blockdata.containsKey(key) || plainBlocks.contains(key);
+	}
+	
+	public boolean hasBlock(int x, int y, int z){
+		long key = BlockPosition.pack(x, y, z);
+		return blockdata.containsKey(key) || plainBlocks.contains(key);
 	}
 	
 	public void restoreAll(MinigamePlayer modifier) {
-		if (!blockdata.isEmpty()) {
+		if (!blockdata.isEmpty() || !plainBlocks.isEmpty()) {
 			restoreBlocks(modifier);
 		}
 		
@@ -322,126 +527,192 @@ public class RecorderData implements Listener{
 		entdata.clear();
 	}
 	
+	@SuppressWarnings("deprecation")
 	public void restoreBlocks(final MinigamePlayer modifier){
 		// When rolling back a single player's changes dont change the overall games state
 		if (modifier == null) {
 			minigame.setState(MinigameState.REGENERATING);
 		}
 		
-		Iterator<BlockData> it = blockdata.values().iterator();
 		final List<BlockData> resBlocks = Lists.newArrayList();
 		final List<BlockData> addBlocks = Lists.newArrayList();
 		
-		while (it.hasNext()) {
-			BlockData data = it.next();
-			
-			if (modifier == null || modifier.equals(data.getModifier())) {
-				it.remove();
-				
-				// Clear inventories
-				if(data.getLocation().getBlock().getState() instanceof InventoryHolder) {
-					InventoryHolder block = (InventoryHolder) data.getLocation().getBlock().getState();
-					block.getInventory().clear();
-				}
-				
-				if(physBlocks.contains(data.getBlockState().getType()) || data.getItems() != null) {
-					addBlocks.add(data);
-				} else {
-					resBlocks.add(data);
+		if (modifier == null) {
+			for (BlockData data : blockdata.values()) {
+				prepareRestore(data, resBlocks, addBlocks);
+			}
+			blockdata.clear();
+			modifiedBlocks.clear();
+		} else {
+			for (BlockData data : modifiedBlocks.remove(modifier)) {
+				// Skip blocks since modified by another player, or already restored
+				if (modifier.equals(data.getModifier()) && blockdata.get(data.getPosition()) == data) {
+					blockdata.remove(data.getPosition());
+					prepareRestore(data, resBlocks, addBlocks);
 				}
 			}
 		}
 		
+		final World plainWorld = plainBlocks.getWorld();
+		PackedBlockList plain = new PackedBlockList(plainBlocks.size());
+		plainBlocks.drainTo(modifier, plain);
+		final PackedBlockList resPlain = new PackedBlockList(plain.size());
+		final PackedBlockList addPlain = new PackedBlockList();
+		
+		for(int i = 0; i < plain.size(); ++i){
+			long pos = plain.getPosition(i);
+			int state = plain.getState(i);
+			
+			// Clear inventories
+			Block current = plainWorld.getBlockAt(BlockPosition.getX(pos), BlockPosition.getY(pos), BlockPosition.getZ(pos));
+			if(tileBlocks.contains(current.getType()) && current.getState() instanceof InventoryHolder){
+				((InventoryHolder)current.getState()).getInventory().clear();
+			}
+			
+			if(physBlocks.contains(Material.getMaterial(PackedBlockList.getTypeId(state)))){
+				addPlain.add(pos, state);
+			} else {
+				resPlain.add(pos, state);
+			}
+		}
+		
 		Bukkit.getScheduler().runTaskAsynchronously(plugin, new Runnable() {
 			@Override
 			public void run() {
-				Collections.sort(resBlocks, new Comparator<BlockData>() {
-
-					@Override
-					public int compare(BlockData o1, BlockData o2) {
-						int comp = Integer.valueOf(o1.getBlockState().getChunk().getX()).compareTo(o2.getBlockState().getChunk().getX());
-						if(comp != 0)
-							return comp;
-						comp = Integer.valueOf(o1.getBlockState().getChunk().getZ()).compareTo(o2.getBlockState().getChunk().getZ());
-						if(comp != 0)
-							return comp;
-						return Integer.valueOf(o1.getBlockState().getY()).compareTo(o2.getBlockState().getY());
-					}
-				});
-				Collections.sort(addBlocks, new Comparator<BlockData>() {
-
-					@Override
-					public int compare(BlockData o1, BlockData o2) {
-						int comp = Integer.valueOf(o1.getBlockState().getChunk().getX()).compareTo(o2.getBlockState().getChunk().getX());
-						if(comp != 0)
-							return comp;
-						comp = Integer.valueOf(o1.getBlockState().getChunk().getZ()).compareTo(o2.getBlockState().getChunk().getZ());
-						if(comp != 0)
-							return comp;
-						return Integer.valueOf(o1.getBlockState().getY()).compareTo(o2.getBlockState().getY());
-					}
-				});
+				resPlain.sort();
+				addPlain.sort();
+				Collections.sort(resBlocks, positionOrder);
+				Collections.sort(addBlocks, positionOrder);
 				
-				new RollbackScheduler(resBlocks, addBlocks, minigame, modifier);
+				RollbackScheduler rollback = new RollbackScheduler(resBlocks, addBlocks, plainWorld, resPlain, addPlain, minigame, modifier);
+				if(modifier == null){
+					activeRollback = rollback;
+				}
 			}
 		});
 	}
 	
+	private void prepareRestore(BlockData data, List<BlockData> resBlocks, List<BlockData> addBlocks){
+		// Clear inventories
+		if(data.getLocation().getBlock().getState() instanceof InventoryHolder) {
+			InventoryHolder block = (InventoryHolder) data.getLocation().getBlock().getState();
+			block.getInventory().clear();
+		}
+		
+		if(physBlocks.contains(data.getBlockState().getType()) || data.getItems() != null) {
+			addBlocks.add(data);
+		} else {
+			resBlocks.add(data);
+		}
+	}
+	
+	/**
+	 * @return The rollback of the whole minigame that is in progress, or null if there is none
+	 */
+	public RollbackScheduler getActiveRollback(){
+		RollbackScheduler rollback = activeRollback;
+		if(rollback != null && rollback.isFinished()){
+			return null;
+		}
+		return rollback;
+	}
+	
 	public void restoreEntities(MinigamePlayer player) {
-		Iterator<EntityData> it = entdata.values().iterator();
-		while (it.hasNext()) {
-			EntityData entdata = it.next();
-			if (player == null || player.equals(entdata.getModifier())) {
-				if (entdata.wasCreated()) {
-					Entity ent = entdata.getEntity();
-					// Entity needs to be removed
-					if (ent.isValid()) {
-						ent.remove();
-					}
-				} else {
-					// Entity needs to be spawned
-					Location location = entdata.getEntityLocation();
-					location.getWorld().spawnEntity(location, entdata.getEntityType());
+		List<EntityData> restore;
+		if (player == null) {
+			restore = Lists.newArrayList(entdata.values());
+			entdata.clear();
+			modifiedEntities.clear();
+		} else {
+			List<EntityData> modified = modifiedEntities.remove(player);
+			if (modified.isEmpty()) {
+				return;
+			}
+			restore = Lists.newArrayListWithCapacity(modified.size());
+			for (EntityData edata : modified) {
+				// Skip entities recorded again since, or already restored
+				if (entdata.get(edata.getEntity().getEntityId()) == edata) {
+					entdata.remove(edata.getEntity().getEntityId());
+					restore.add(edata);
 				}
-				
+			}
+		}
+		
+		if (player == null && activeEntityRollback != null) {
+			// Left from an earlier round
+			activeEntityRollback.cancel();
+			activeEntityRollback = null;
+		}
+		if (restore.isEmpty()) {
+			return;
+		}
+		
+		EntityRollbackScheduler rollback = new EntityRollbackScheduler(restore, minigame);
+		if (player == null) {
+			activeEntityRollback = rollback;
+		}
+		
+		Iterator<EntityRollbackScheduler> it = entityRollbacks.iterator();
+		while (it.hasNext()) {
+			if (it.next().isFinished()) {
 				it.remove();
 			}
 		}
+		entityRollbacks.add(rollback);
+	}
+	
+	/**
+	 * Stops all entity rollbacks of this minigame, including ones waiting for chunks to load
+	 */
+	public void cancelEntityRollbacks() {
+		for (EntityRollbackScheduler rollback : entityRollbacks) {
+			rollback.cancel();
+		}
+		entityRollbacks.clear();
+		activeEntityRollback = null;
+	}
+	
+	/**
+	 * @return The entity rollback of the whole minigame that is in progress, or null if there is none
+	 */
+	public EntityRollbackScheduler getActiveEntityRollback(){
+		EntityRollbackScheduler rollback = activeEntityRollback;
+		if(rollback != null && rollback.isFinished()){
+			return null;
+		}
+		return rollback;
 	}
 	
 	public void clearRestoreData(){
 		entdata.clear();
 		blockdata.clear();
+		plainBlocks.clear();
+		modifiedBlocks.clear();
+		modifiedEntities.clear();
+		if(journal != null){
+			journal.truncate();
+		}
 	}
 	
 	public boolean hasData(){
-		if(blockdata.isEmpty() && entdata.isEmpty())
+		if(blockdata.isEmpty() && plainBlocks.isEmpty() && entdata.isEmpty())
 			return false;
 		return true;
 	}
 	
 	public boolean checkBlockSides(Location location){
-		Location temp = location.clone();
-		temp.setX(temp.getX() - 1);
-		temp.setY(temp.getY() - 1);
-		temp.setZ(temp.getZ() - 1);
+		int bx = location.getBlockX();
+		int by = location.getBlockY();
+		int bz = location.getBlockZ();
 		
-		for(int y = 0; y < 2; y++){
-			for(int x = 0; x < 2; x++){
-				for(int z = 0; z < 2; z++){
-					if(hasBlock(temp.getBlock())){
+		for(int y = by - 1; y <= by; y++){
+			for(int x = bx - 1; x <= bx; x++){
+				for(int z = bz - 1; z <= bz + 1; z++){
+					if(hasBlock(x, y, z)){
 						return true;
 					}
-					temp.setZ(temp.getZ() + 1);
 				}
-				if(hasBlock(temp.getBlock())){
-					return true;
-				}
-				temp.setZ(temp.getZ() - 2);
-				temp.setX(temp.getX() + 1);
 			}
-			temp.setX(temp.getX() - 2);
-			temp.setY(temp.getY() + 1);
 		}
 		return false;
 	}
@@ -490,7 +761,17 @@ public class RecorderData implements Listener{
 		return minigame.getRegenArea1().getZ();
 	}
 	
+	/**
+	 * Sets the regen bounds cached while this recorder is registered with the {@link RecorderDispatcher}
+	 */
+	void setRegenBounds(RegenBounds bounds){
+		regenBounds = bounds;
+	}
+	
 	public boolean blockInRegenArea(Location location){
+		if(regenBounds != null){
+			return regenBounds.contains(location);
+		}
 		if(location.getWorld() == minigame.getRegenArea1().getWorld() && 
 				location.getBlockX() >= getRegenMinX() && location.getBlockX() <= getRegenMaxX() &&
 				location.getBlockY() >= getRegenMinY() && location.getBlockY() <= getRegenMaxY() &&
@@ -500,6 +781,7 @@ public class RecorderData implements Listener{
 		return false;
 	}
 	
+	@SuppressWarnings("deprecation")
 	public void saveAllBlockData(){
 		File f = new File(plugin.getDataFolder() + "/minigames/" + minigame.getName(false) + "/backup.dat");
 		
@@ -515,6 +797,27 @@ public class RecorderData implements Listener{
 				}
 			}
 			
+			if(!plainBlocks.isEmpty()){
+				String world = plainBlocks.getWorld().getName();
+				PackedBlockList plain = new PackedBlockList(plainBlocks.size());
+				plainBlocks.copyTo(plain);
+				for(int i = 0; i < plain.size(); ++i){
+					long pos = plain.getPosition(i);
+					int state = plain.getState(i);
+					wr.write("{mat:" + Material.getMaterial(PackedBlockList.getTypeId(state)).toString() + ";" + 
+							"data:" + PackedBlockList.getData(state) + ";" + 
+							"x:" + BlockPosition.getX(pos) + ";" + 
+							"y:" + BlockPosition.getY(pos) + ";" + 
+							"z:" + BlockPosition.getZ(pos) + ";" + 
+							"world:" + world + "}");
+					c++;
+					if(c >= 10){
+						wr.newLine();
+						c = 0;
+					}
+				}
+			}
+			
 			wr.close();
 		} 
 		catch (FileNotFoundException e) {
@@ -575,6 +878,11 @@ public class RecorderData implements Listener{
 					state.setType(Material.getMaterial(args.get("mat")));
 					state.setRawData(Byte.valueOf(args.get("data")));
 					
+					if(compactStorage && !args.containsKey("items") && !tileBlocks.contains(state.getType()) && 
+							addPlainBlock(w, BlockPosition.pack(state), state.getTypeId(), state.getRawData(), null)){
+						continue;
+					}
+					
 					bd = new BlockData(state, null);
 					
 					if(args.containsKey("items")){
@@ -624,7 +932,8 @@ public class RecorderData implements Listener{
 						bd.setItems(items);
 					}
 					
-					blockdata.put(MinigameUtils.createLocationID(bd.getLocation()), bd);
+					blockdata.put(BlockPosition.pack(state), bd);
+					journalBlock(bd);
 				}
 			}
 			
@@ -641,15 +950,13 @@ public class RecorderData implements Listener{
 		return true;
 	}
 	
-	@EventHandler(ignoreCancelled = true)
-	private void vehicleCreate(VehicleCreateEvent event){
+	void vehicleCreate(VehicleCreateEvent event){
 		if(hasRegenArea() && minigame.hasPlayers() && blockInRegenArea(event.getVehicle().getLocation())){
 			addEntity(event.getVehicle(), null, true);
 		}
 	}
 	
-	@EventHandler(ignoreCancelled = true)
-	private void vehicleDestroy(VehicleDestroyEvent event){
+	void vehicleDestroy(VehicleDestroyEvent event){
 		if(event.getAttacker() == null){
 			if(hasRegenArea() && minigame.hasPlayers() && blockInRegenArea(event.getVehicle().getLocation())){
 				addEntity(event.getVehicle(), null, false);
@@ -657,8 +964,7 @@ public class RecorderData implements Listener{
 		}
 	}
 	
-	@EventHandler(ignoreCancelled = true)
-	private void animalDeath(EntityDamageByEntityEvent event){
+	void animalDeath(EntityDamageByEntityEvent event){
 		if(event.getEntity() instanceof Animals){
 			Animals animal = (Animals) event.getEntity();
 			if(hasRegenArea() && minigame.hasPlayers() && !(event.getDamager() instanceof Player)){
@@ -672,36 +978,31 @@ public class RecorderData implements Listener{
 		}
 	}
 	
-	@EventHandler(ignoreCancelled = true)
-	private void mobSpawnEvent(CreatureSpawnEvent event){
+	void mobSpawnEvent(CreatureSpawnEvent event){
 		if(hasRegenArea() && minigame.hasPlayers() && blockInRegenArea(event.getLocation())){
 			addEntity(event.getEntity(), null, true);
 		}
 	}
 	
-	@EventHandler(ignoreCancelled = true)
-	private void entityExplode(EntityExplodeEvent event){
+	void entityExplode(EntityExplodeEvent event){
 		if(hasRegenArea() && minigame.hasPlayers()){
 			Location block = event.getLocation().getBlock().getLocation();
 			if(blockInRegenArea(block)){
-				List<Block> blocks = new ArrayList<Block>();
-				blocks.addAll(event.blockList());
-				
-				for(Block bl : blocks){
-					if((whitelistMode && getWBBlocks().contains(bl.getType())) ||
-							(!whitelistMode && !getWBBlocks().contains(bl.getType()))){
+				Iterator<Block> it = event.blockList().iterator();
+				while(it.hasNext()){
+					Block bl = it.next();
+					if(blockFilter.allows(bl.getType())){
 						addBlock(bl, null);
 					}
 					else{
-						event.blockList().remove(bl);
+						it.remove();
 					}
 				}
 			}
 		}
 	}
 	
-	@EventHandler(ignoreCancelled = true)
-	private void itemDrop(ItemSpawnEvent event){
+	void itemDrop(ItemSpawnEvent event){
 		if(hasRegenArea() && minigame.hasPlayers()){
 			Location ent = event.getLocation();
 			if(blockInRegenArea(ent)){
@@ -710,8 +1011,7 @@ public class RecorderData implements Listener{
 		}
 	}
 	
-	@EventHandler(ignoreCancelled = true, priority = EventPriority.HIGHEST)
-	private void physicalBlock(EntityChangeBlockEvent event)
+	void physicalBlock(EntityChangeBlockEvent event)
 	{
 		if(hasRegenArea() && blockInRegenArea(event.getBlock().getLocation()))
 		{
@@ -738,8 +1038,7 @@ public class RecorderData implements Listener{
 		}
 	}
 	
-	@EventHandler(ignoreCancelled = true)
-	private void cartHopperPickup(InventoryPickupItemEvent event){
+	void cartHopperPickup(InventoryPickupItemEvent event){
 		if(hasRegenArea() && minigame.hasPlayers() && event.getInventory().getHolder() instanceof HopperMinecart){
 			Location loc = ((HopperMinecart)event.getInventory().getHolder()).getLocation();
 			if(blockInRegenArea(loc)){
@@ -748,8 +1047,7 @@ public class RecorderData implements Listener{
 		}
 	}
 	
-	@EventHandler(ignoreCancelled = true)
-	private void cartkMoveItem(InventoryMoveItemEvent event){
+	void cartMoveItem(InventoryMoveItemEvent event){
 		if(!hasRegenArea() || !minigame.hasPlayers()) return;
 		
 		Location loc = null;
@@ -763,31 +1061,27 @@ public class RecorderData implements Listener{
 		if(event.getDestination().getHolder() instanceof HopperMinecart){
 			loc = ((HopperMinecart)event.getDestination().getHolder()).getLocation().clone();
 			if(blockInRegenArea(loc))
-				addEntity((Entity)event.getInitiator().getHolder(), null, false);
+				addEntity((Entity)event.getDestination().getHolder(), null, false);
 		}
 	}
 	
-	@EventHandler(ignoreCancelled = true, priority = EventPriority.HIGHEST)
-	private void physEvent(BlockPhysicsEvent event){
+	void physEvent(BlockPhysicsEvent event){
 		if(minigame.isRegenerating() && hasRegenArea() && blockInRegenArea(event.getBlock().getLocation())){
 			event.setCancelled(true);
 		}
 	}
 	
-	@EventHandler(ignoreCancelled = true, priority = EventPriority.HIGHEST)
-	private void waterFlow(BlockFromToEvent event){
+	void waterFlow(BlockFromToEvent event){
 		if(minigame.isRegenerating() && hasRegenArea() && blockInRegenArea(event.getBlock().getLocation()))
 			event.setCancelled(true);
 	}
 	
-	@EventHandler(ignoreCancelled = true, priority = EventPriority.HIGHEST)
-	private void fireSpread(BlockSpreadEvent event){
+	void fireSpread(BlockSpreadEvent event){
 		if(minigame.isRegenerating() && hasRegenArea() && blockInRegenArea(event.getBlock().getLocation()))
 			event.setCancelled(true);
 	}
 	
-	@EventHandler(ignoreCancelled = true, priority = EventPriority.HIGHEST)
-	private void interact(PlayerInteractEvent event){
+	void interact(PlayerInteractEvent event){
 		if(minigame.isRegenerating() && hasRegenArea() && blockInRegenArea(event.getClickedBlock().getLocation())){
 			event.setCancelled(true);
 		}
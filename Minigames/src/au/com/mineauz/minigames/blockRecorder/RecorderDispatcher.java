@@ -0,0 +1,355 @@
+package au.com.mineauz.minigames.blockRecorder;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.entity.Animals;
+import org.bukkit.entity.minecart.HopperMinecart;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.block.BlockFromToEvent;
+import org.bukkit.event.block.BlockPhysicsEvent;
+import org.bukkit.event.block.BlockSpreadEvent;
+import org.bukkit.event.entity.CreatureSpawnEvent;
+import org.bukkit.event.entity.EntityChangeBlockEvent;
+import org.bukkit.event.entity.EntityDamageByEntityEvent;
+import org.bukkit.event.entity.EntityExplodeEvent;
+import org.bukkit.event.entity.ItemSpawnEvent;
+import org.bukkit.event.inventory.InventoryMoveItemEvent;
+import org.bukkit.event.inventory.InventoryPickupItemEvent;
+import org.bukkit.event.player.PlayerInteractEvent;
+import org.bukkit.event.vehicle.VehicleCreateEvent;
+import org.bukkit.event.vehicle.VehicleDestroyEvent;
+import org.bukkit.event.world.ChunkLoadEvent;
+import org.bukkit.inventory.InventoryHolder;
+
+import com.google.common.collect.Lists;
+
+/**
+ * A single listener that passes world events to the {@link RecorderData} of each
+ * registered minigame whose regen area contains them. Regen areas are indexed by
+ * world and chunk, so an event is one hash lookup no matter how many minigames
+ * are running, and only reaches the recorders whose area overlaps its chunk.
+ * It also tells entity rollbacks when the chunks they are waiting for load.
+ */
+public class RecorderDispatcher implements Listener {
+	private static final RecorderData[] NONE = new RecorderData[0];
+	
+	private final Map<World, LongHashMap<RecorderData[]>> index = new IdentityHashMap<World, LongHashMap<RecorderData[]>>();
+	private final Map<RecorderData, RegenBounds> registered = new IdentityHashMap<RecorderData, RegenBounds>();
+	private final List<EntityRollbackScheduler> chunkWaiters = Lists.newArrayList();
+	
+	private long eventCount;
+	private long routedCount;
+	private long totalNanos;
+	
+	/**
+	 * Starts passing events inside the recorder's regen area to it. The regen area
+	 * is read once here, so a recorder must be registered again for changes to it to apply.
+	 */
+	public void register(RecorderData recorder){
+		if(registered.containsKey(recorder)){
+			unregister(recorder);
+		}
+		if(!recorder.hasRegenArea()){
+			return;
+		}
+		
+		RegenBounds bounds = new RegenBounds(recorder.getMinigame().getRegenArea1(), recorder.getMinigame().getRegenArea2());
+		registered.put(recorder, bounds);
+		recorder.setRegenBounds(bounds);
+		
+		LongHashMap<RecorderData[]> chunks = index.get(bounds.getWorld());
+		if(chunks == null){
+			chunks = new LongHashMap<RecorderData[]>();
+			index.put(bounds.getWorld(), chunks);
+		}
+		
+		for(int x = bounds.getMinX() >> 4; x <= bounds.getMaxX() >> 4; ++x){
+			for(int z = bounds.getMinZ() >> 4; z <= bounds.getMaxZ() >> 4; ++z){
+				long key = BlockPosition.getChunkKey(x, z);
+				RecorderData[] existing = chunks.get(key);
+				if(existing == null){
+					chunks.put(key, new RecorderData[] {recorder});
+				}
+				else{
+					RecorderData[] added = Arrays.copyOf(existing, existing.length + 1);
+					added[existing.length] = recorder;
+					chunks.put(key, added);
+				}
+			}
+		}
+	}
+	
+	public void unregister(RecorderData recorder){
+		RegenBounds bounds = registered.remove(recorder);
+		if(bounds == null){
+			return;
+		}
+		recorder.setRegenBounds(null);
+		
+		LongHashMap<RecorderData[]> chunks = index.get(bounds.getWorld());
+		for(int x = bounds.getMinX() >> 4; x <= bounds.getMaxX() >> 4; ++x){
+			for(int z = bounds.getMinZ() >> 4; z <= bounds.getMaxZ() >> 4; ++z){
+				long key = BlockPosition.getChunkKey(x, z);
+				RecorderData[] existing = chunks.get(key);
+				if(existing == null){
+					continue;
+				}
+				
+				if(existing.length == 1){
+					chunks.remove(key);
+					continue;
+				}
+				
+				RecorderData[] removed = new RecorderData[existing.length - 1];
+				int i = 0;
+				for(RecorderData data : existing){
+					if(data != recorder){
+						removed[i++] = data;
+					}
+				}
+				chunks.put(key, removed);
+			}
+		}
+		
+		if(chunks.isEmpty()){
+			index.remove(bounds.getWorld());
+		}
+	}
+	
+	public boolean isRegistered(RecorderData recorder){
+		return registered.containsKey(recorder);
+	}
+	
+	/**
+	 * Starts passing chunk loads to an entity rollback that has entities in unloaded chunks
+	 */
+	void addChunkWaiter(EntityRollbackScheduler rollback){
+		chunkWaiters.add(rollback);
+	}
+	
+	void removeChunkWaiter(EntityRollbackScheduler rollback){
+		chunkWaiters.remove(rollback);
+	}
+	
+	private RecorderData[] getRecorders(World world, int x, int z){
+		LongHashMap<RecorderData[]> chunks = index.get(world);
+		if(chunks == null){
+			return NONE;
+		}
+		RecorderData[] recorders = chunks.get(BlockPosition.getChunkKey(x >> 4, z >> 4));
+		if(recorders == null){
+			return NONE;
+		}
+		++routedCount;
+		return recorders;
+	}
+	
+	private RecorderData[] getRecorders(Location location){
+		return getRecorders(location.getWorld(), location.getBlockX(), location.getBlockZ());
+	}
+	
+	private RecorderData[] getRecorders(Block block){
+		return getRecorders(block.getWorld(), block.getX(), block.getZ());
+	}
+	
+	private void record(long start){
+		++eventCount;
+		totalNanos += System.nanoTime() - start;
+	}
+	
+	/**
+	 * @return The number of events handled since the last reset
+	 */
+	public long getEventCount(){
+		return eventCount;
+	}
+	
+	/**
+	 * @return The number of events handled since the last reset that were inside a registered chunk
+	 */
+	public long getRoutedCount(){
+		return routedCount;
+	}
+	
+	/**
+	 * @return The average time taken to handle an event in nanoseconds, including the recorders' handling
+	 */
+	public double getAverageEventNanos(){
+		if(eventCount == 0){
+			return 0;
+		}
+		return (double)totalNanos / eventCount;
+	}
+	
+	public void resetMetrics(){
+		eventCount = 0;
+		routedCount = 0;
+		totalNanos = 0;
+	}
+	
+	@EventHandler
+	private void chunkLoad(ChunkLoadEvent event){
+		for(EntityRollbackScheduler rollback : chunkWaiters){
+			rollback.chunkLoaded(event.getChunk());
+		}
+	}
+	
+	@EventHandler(ignoreCancelled = true)
+	private void vehicleCreate(VehicleCreateEvent event){
+		long start = System.nanoTime();
+		for(RecorderData recorder : getRecorders(event.getVehicle().getLocation())){
+			recorder.vehicleCreate(event);
+		}
+		record(start);
+	}
+	
+	@EventHandler(ignoreCancelled = true)
+	private void vehicleDestroy(VehicleDestroyEvent event){
+		if(event.getAttacker() != null){
+			return;
+		}
+		
+		long start = System.nanoTime();
+		for(RecorderData recorder : getRecorders(event.getVehicle().getLocation())){
+			recorder.vehicleDestroy(event);
+		}
+		record(start);
+	}
+	
+	@EventHandler(ignoreCancelled = true)
+	private void animalDeath(EntityDamageByEntityEvent event){
+		if(!(event.getEntity() instanceof Animals)){
+			return;
+		}
+		
+		long start = System.nanoTime();
+		for(RecorderData recorder : getRecorders(event.getEntity().getLocation())){
+			recorder.animalDeath(event);
+		}
+		record(start);
+	}
+	
+	@EventHandler(ignoreCancelled = true)
+	private void mobSpawnEvent(CreatureSpawnEvent event){
+		long start = System.nanoTime();
+		for(RecorderData recorder : getRecorders(event.getLocation())){
+			recorder.mobSpawnEvent(event);
+		}
+		record(start);
+	}
+	
+	@EventHandler(ignoreCancelled = true)
+	private void entityExplode(EntityExplodeEvent event){
+		long start = System.nanoTime();
+		for(RecorderData recorder : getRecorders(event.getLocation())){
+			recorder.entityExplode(event);
+		}
+		record(start);
+	}
+	
+	@EventHandler(ignoreCancelled = true)
+	private void itemDrop(ItemSpawnEvent event){
+		long start = System.nanoTime();
+		for(RecorderData recorder : getRecorders(event.getLocation())){
+			recorder.itemDrop(event);
+		}
+		record(start);
+	}
+	
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.HIGHEST)
+	private void physicalBlock(EntityChangeBlockEvent event){
+		long start = System.nanoTime();
+		for(RecorderData recorder : getRecorders(event.getBlock())){
+			recorder.physicalBlock(event);
+		}
+		record(start);
+	}
+	
+	@EventHandler(ignoreCancelled = true)
+	private void cartHopperPickup(InventoryPickupItemEvent event){
+		if(!(event.getInventory().getHolder() instanceof HopperMinecart)){
+			return;
+		}
+		
+		long start = System.nanoTime();
+		for(RecorderData recorder : getRecorders(((HopperMinecart)event.getInventory().getHolder()).getLocation())){
+			recorder.cartHopperPickup(event);
+		}
+		record(start);
+	}
+	
+	@EventHandler(ignoreCancelled = true)
+	private void cartMoveItem(InventoryMoveItemEvent event){
+		InventoryHolder initiator = event.getInitiator().getHolder();
+		InventoryHolder destination = event.getDestination().getHolder();
+		if(!(initiator instanceof HopperMinecart) && !(destination instanceof HopperMinecart)){
+			return;
+		}
+		
+		long start = System.nanoTime();
+		RecorderData[] first = NONE;
+		if(initiator instanceof HopperMinecart){
+			first = getRecorders(((HopperMinecart)initiator).getLocation());
+			for(RecorderData recorder : first){
+				recorder.cartMoveItem(event);
+			}
+		}
+		if(destination instanceof HopperMinecart){
+			for(RecorderData recorder : getRecorders(((HopperMinecart)destination).getLocation())){
+				// Both carts may be in the same regen area
+				if(!Arrays.asList(first).contains(recorder)){
+					recorder.cartMoveItem(event);
+				}
+			}
+		}
+		record(start);
+	}
+	
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.HIGHEST)
+	private void physEvent(BlockPhysicsEvent event){
+		long start = System.nanoTime();
+		for(RecorderData recorder : getRecorders(event.getBlock())){
+			recorder.physEvent(event);
+		}
+		record(start);
+	}
+	
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.HIGHEST)
+	private void waterFlow(BlockFromToEvent event){
+		long start = System.nanoTime();
+		for(RecorderData recorder : getRecorders(event.getBlock())){
+			recorder.waterFlow(event);
+		}
+		record(start);
+	}
+	
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.HIGHEST)
+	private void fireSpread(BlockSpreadEvent event){
+		long start = System.nanoTime();
+		for(RecorderData recorder : getRecorders(event.getBlock())){
+			recorder.fireSpread(event);
+		}
+		record(start);
+	}
+	
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.HIGHEST)
+	private void interact(PlayerInteractEvent event){
+		if(event.getClickedBlock() == null){
+			return;
+		}
+		
+		long start = System.nanoTime();
+		for(RecorderData recorder : getRecorders(event.getClickedBlock())){
+			recorder.interact(event);
+		}
+		record(start);
+	}
+}
@@ -0,0 +1,68 @@
+package au.com.mineauz.minigames.blockRecorder;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+
+/**
+ * The block coordinates covered by a regen area, resolved once from its two corners.
+ */
+public class RegenBounds {
+	private final World world;
+	private final int minX, minY, minZ;
+	private final int maxX, maxY, maxZ;
+	
+	public RegenBounds(Location corner1, Location corner2){
+		world = corner1.getWorld();
+		// A block is inside if its coordinates are between the corners, which may not be whole numbers
+		minX = (int)Math.ceil(Math.min(corner1.getX(), corner2.getX()));
+		minY = (int)Math.ceil(Math.min(corner1.getY(), corner2.getY()));
+		minZ = (int)Math.ceil(Math.min(corner1.getZ(), corner2.getZ()));
+		maxX = (int)Math.floor(Math.max(corner1.getX(), corner2.getX()));
+		maxY = (int)Math.floor(Math.max(corner1.getY(), corner2.getY()));
+		maxZ = (int)Math.floor(Math.max(corner1.getZ(), corner2.getZ()));
+	}
+	
+	public World getWorld(){
+		return world;
+	}
+	
+	public int getMinX(){
+		return minX;
+	}
+	
+	public int getMinY(){
+		return minY;
+	}
+	
+	public int getMinZ(){
+		return minZ;
+	}
+	
+	public int getMaxX(){
+		return maxX;
+	}
+	
+	public int getMaxY(){
+		return maxY;
+	}
+	
+	public int getMaxZ(){
+		return maxZ;
+	}
+	
+	public boolean contains(World world, int x, int y, int z){
+		return world == this.world &&
+				x >= minX && x <= maxX &&
+				y >= minY && y <= maxY &&
+				z >= minZ && z <= maxZ;
+	}
+	
+	public boolean contains(Location location){
+		return contains(location.getWorld(), location.getBlockX(), location.getBlockY(), location.getBlockZ());
+	}
+	
+	public boolean contains(Block block){
+		return contains(block.getWorld(), block.getX(), block.getY(), block.getZ());
+	}
+}
@@ -0,0 +1,596 @@
+package au.com.mineauz.minigames.blockRecorder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockState;
+import org.bukkit.block.Chest;
+import org.bukkit.block.Sign;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.InventoryHolder;
+import org.bukkit.scheduler.BukkitTask;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import au.com.mineauz.minigames.Minigames;
+import au.com.mineauz.minigames.minigame.Minigame;
+
+/**
+ * A compressed binary copy of a minigame's regen area. Capturing and restoring both
+ * work chunk by chunk over several ticks, spending at most regeneration.maxDelay each tick.
+ * Encoding, compression and file I/O happen on a background thread.
+ * <p>
+ * The file holds a header with the world and bounds, then one section per chunk in
+ * ascending chunk X then Z order. Each section holds the type and data of every block
+ * of the chunk inside the area (X, then Z, then Y order) followed by the contents of
+ * its inventories and signs.
+ */
+public class RegionSnapshot {
+	private static final int MAGIC = 0x4D47534E;
+	private static final byte VERSION = 1;
+	
+	private static final byte TILE_INVENTORY = 1;
+	private static final byte TILE_SIGN = 2;
+	
+	private static final int MAX_PENDING_CHUNKS = 16;
+	private static final int BUDGET_CHECK_INTERVAL = 256;
+	
+	private final Minigame minigame;
+	private final File file;
+	
+	public RegionSnapshot(Minigame minigame){
+		this.minigame = minigame;
+		file = new File(Minigames.plugin.getDataFolder() + "/minigames/" + minigame.getName(false) + "/backup.snapshot");
+	}
+	
+	public File getFile(){
+		return file;
+	}
+	
+	public boolean exists(){
+		return file.exists();
+	}
+	
+	private static long getTickBudget(){
+		long budget = (long)(Minigames.plugin.getConfig().getDouble("regeneration.maxDelay") * 1000000);
+		return Math.max(budget, TimeUnit.MILLISECONDS.toNanos(1));
+	}
+	
+	private static ExecutorService createWorker(){
+		return Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+				.setNameFormat("Minigames Snapshot IO")
+				.setDaemon(true)
+				.build());
+	}
+	
+	/**
+	 * Starts capturing the regen area. The existing snapshot is only replaced once
+	 * the new one has been completely written.
+	 * @return A future that completes with the number of blocks captured
+	 */
+	public ListenableFuture<Integer> capture(){
+		// The same blocks the recorder treats as inside the regen area
+		RegenBounds bounds = new RegenBounds(minigame.getRegenArea1(), minigame.getRegenArea2());
+		World world = bounds.getWorld();
+		Area area = new Area(world,
+				bounds.getMinX(),
+				Math.max(bounds.getMinY(), 0),
+				bounds.getMinZ(),
+				bounds.getMaxX(),
+				Math.min(bounds.getMaxY(), world.getMaxHeight() - 1),
+				bounds.getMaxZ());
+		
+		Capture capture = new Capture(area);
+		capture.start();
+		return capture.result;
+	}
+	
+	/**
+	 * Starts restoring the regen area from the snapshot on disk.
+	 * @return A future that completes with the number of blocks restored
+	 * @throws IOException If the snapshot cannot be opened or its world is not loaded
+	 */
+	public ListenableFuture<Integer> restore() throws IOException{
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))));
+		try{
+			if(in.readInt() != MAGIC || in.readByte() != VERSION){
+				throw new IOException("Not a region snapshot");
+			}
+			
+			String worldName = in.readUTF();
+			World world = Bukkit.getWorld(worldName);
+			if(world == null){
+				throw new IOException("The world " + worldName + " is not loaded");
+			}
+			
+			Area area = new Area(world, in.readInt(), in.readInt(), in.readInt(), in.readInt(), in.readInt(), in.readInt());
+			Restore restore = new Restore(area, in);
+			restore.start();
+			return restore.result;
+		}
+		catch(IOException e){
+			in.close();
+			throw e;
+		}
+	}
+	
+	private static class Area {
+		private final World world;
+		private final int minX, minY, minZ;
+		private final int maxX, maxY, maxZ;
+		
+		public Area(World world, int minX, int minY, int minZ, int maxX, int maxY, int maxZ){
+			this.world = world;
+			this.minX = minX;
+			this.minY = minY;
+			this.minZ = minZ;
+			this.maxX = maxX;
+			this.maxY = maxY;
+			this.maxZ = maxZ;
+		}
+		
+		public boolean contains(int x, int y, int z){
+			return x >= minX && x <= maxX && y >= minY && y <= maxY && z >= minZ && z <= maxZ;
+		}
+		
+		public int getHeight(){
+			return Math.max(maxY - minY + 1, 0);
+		}
+		
+		public void writeHeader(DataOutputStream out) throws IOException{
+			out.writeInt(MAGIC);
+			out.writeByte(VERSION);
+			out.writeUTF(world.getName());
+			out.writeInt(minX);
+			out.writeInt(minY);
+			out.writeInt(minZ);
+			out.writeInt(maxX);
+			out.writeInt(maxY);
+			out.writeInt(maxZ);
+		}
+	}
+	
+	/**
+	 * The contents of an inventory or sign inside the area
+	 */
+	private static class TileData {
+		private byte kind;
+		private int x, y, z;
+		private byte[] items;
+		private String[] lines;
+		
+		public static TileData capture(BlockState state){
+			TileData tile = new TileData();
+			tile.x = state.getX();
+			tile.y = state.getY();
+			tile.z = state.getZ();
+			
+			if(state instanceof InventoryHolder){
+				tile.kind = TILE_INVENTORY;
+				try{
+					tile.items = RollbackJournal.encodeItems(getInventory(state).getContents());
+				}
+				catch(IOException e){
+					Minigames.plugin.getLogger().log(Level.WARNING, "Failed to snapshot the inventory at " + tile.x + ", " + tile.y + ", " + tile.z, e);
+					return null;
+				}
+			}
+			else if(state instanceof Sign){
+				tile.kind = TILE_SIGN;
+				tile.lines = ((Sign)state).getLines();
+			}
+			else{
+				return null;
+			}
+			return tile;
+		}
+		
+		private static Inventory getInventory(BlockState state){
+			if(state instanceof Chest){
+				// Only this half of a double chest
+				return ((Chest)state).getBlockInventory();
+			}
+			return ((InventoryHolder)state).getInventory();
+		}
+		
+		public void write(DataOutputStream out) throws IOException{
+			out.writeByte(kind);
+			out.writeInt(x);
+			out.writeInt(y);
+			out.writeInt(z);
+			if(kind == TILE_INVENTORY){
+				out.writeInt(items.length);
+				out.write(items);
+			}
+			else{
+				for(int i = 0; i < 4; ++i){
+					out.writeUTF(i < lines.length && lines[i] != null ? lines[i] : "");
+				}
+			}
+		}
+		
+		public static TileData read(DataInputStream in) throws IOException{
+			TileData tile = new TileData();
+			tile.kind = in.readByte();
+			tile.x = in.readInt();
+			tile.y = in.readInt();
+			tile.z = in.readInt();
+			if(tile.kind == TILE_INVENTORY){
+				tile.items = new byte[in.readInt()];
+				in.readFully(tile.items);
+			}
+			else if(tile.kind == TILE_SIGN){
+				tile.lines = new String[4];
+				for(int i = 0; i < 4; ++i){
+					tile.lines[i] = in.readUTF();
+				}
+			}
+			else{
+				throw new IOException("Unknown tile type " + tile.kind);
+			}
+			return tile;
+		}
+		
+		public void apply(World world){
+			BlockState state = world.getBlockAt(x, y, z).getState();
+			if(kind == TILE_INVENTORY && state instanceof InventoryHolder){
+				try{
+					Inventory inventory = getInventory(state);
+					inventory.setContents(Arrays.copyOf(RollbackJournal.decodeItems(items), inventory.getSize()));
+				}
+				catch(IOException e){
+					Minigames.plugin.getLogger().log(Level.WARNING, "Failed to restore the inventory at " + x + ", " + y + ", " + z, e);
+				}
+			}
+			else if(kind == TILE_SIGN && state instanceof Sign){
+				Sign sign = (Sign)state;
+				for(int i = 0; i < 4; ++i){
+					sign.setLine(i, lines[i]);
+				}
+				sign.update();
+			}
+		}
+	}
+	
+	/**
+	 * The blocks of one chunk section read back from the file
+	 */
+	private static class ChunkData {
+		private int minX, minZ;
+		private int depth;
+		private int[] states;
+		private List<TileData> tiles;
+	}
+	
+	private class Capture implements Runnable {
+		private final Area area;
+		private final SettableFuture<Integer> result = SettableFuture.create();
+		private final ExecutorService worker = createWorker();
+		private final AtomicInteger pendingChunks = new AtomicInteger();
+		private final long budget = getTickBudget();
+		private final File tempFile = new File(file.getPath() + ".tmp");
+		
+		private BukkitTask task;
+		private int chunkX;
+		private int chunkZ;
+		
+		// Worker thread only
+		private DataOutputStream out;
+		private IOException error;
+		private int blocks;
+		
+		public Capture(Area area){
+			this.area = area;
+		}
+		
+		public void start(){
+			chunkX = area.minX >> 4;
+			chunkZ = area.minZ >> 4;
+			
+			worker.execute(new Runnable() {
+				@Override
+				public void run() {
+					try{
+						tempFile.getParentFile().mkdirs();
+						out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(tempFile), 65536)));
+						area.writeHeader(out);
+					}
+					catch(IOException e){
+						error = e;
+					}
+				}
+			});
+			
+			task = Bukkit.getScheduler().runTaskTimer(Minigames.plugin, this, 0, 1);
+		}
+		
+		@Override
+		public void run() {
+			long start = System.nanoTime();
+			// Stop taking snapshots while the writer is behind so they do not pile up in memory
+			while(pendingChunks.get() < MAX_PENDING_CHUNKS && System.nanoTime() - start < budget){
+				if(chunkX > area.maxX >> 4){
+					task.cancel();
+					worker.execute(new Runnable() {
+						@Override
+						public void run() {
+							finish();
+						}
+					});
+					worker.shutdown();
+					return;
+				}
+				
+				captureChunk(chunkX, chunkZ);
+				
+				if(++chunkZ > area.maxZ >> 4){
+					chunkZ = area.minZ >> 4;
+					++chunkX;
+				}
+			}
+		}
+		
+		private void captureChunk(final int chunkX, final int chunkZ){
+			Chunk chunk = area.world.getChunkAt(chunkX, chunkZ);
+			final ChunkSnapshot snapshot = chunk.getChunkSnapshot(false, false, false);
+			final List<TileData> tiles = Lists.newArrayList();
+			for(BlockState state : chunk.getTileEntities()){
+				if(area.contains(state.getX(), state.getY(), state.getZ())){
+					TileData tile = TileData.capture(state);
+					if(tile != null){
+						tiles.add(tile);
+					}
+				}
+			}
+			
+			pendingChunks.incrementAndGet();
+			worker.execute(new Runnable() {
+				@Override
+				public void run() {
+					try{
+						if(error == null){
+							writeChunk(chunkX, chunkZ, snapshot, tiles);
+						}
+					}
+					catch(IOException e){
+						error = e;
+					}
+					finally{
+						pendingChunks.decrementAndGet();
+					}
+				}
+			});
+		}
+		
+		@SuppressWarnings("deprecation")
+		private void writeChunk(int chunkX, int chunkZ, ChunkSnapshot snapshot, List<TileData> tiles) throws IOException{
+			int minX = Math.max(area.minX, chunkX << 4);
+			int maxX = Math.min(area.maxX, (chunkX << 4) + 15);
+			int minZ = Math.max(area.minZ, chunkZ << 4);
+			int maxZ = Math.min(area.maxZ, (chunkZ << 4) + 15);
+			
+			out.writeInt(chunkX);
+			out.writeInt(chunkZ);
+			for(int x = minX; x <= maxX; ++x){
+				for(int z = minZ; z <= maxZ; ++z){
+					for(int y = area.minY; y <= area.maxY; ++y){
+						out.writeShort(snapshot.getBlockTypeId(x & 15, y, z & 15));
+						out.writeByte(snapshot.getBlockData(x & 15, y, z & 15));
+						++blocks;
+					}
+				}
+			}
+			
+			out.writeInt(tiles.size());
+			for(TileData tile : tiles){
+				tile.write(out);
+			}
+		}
+		
+		private void finish(){
+			if(error == null){
+				try{
+					out.close();
+					out = null;
+					if(file.exists() && !file.delete()){
+						throw new IOException("Unable to replace " + file.getName());
+					}
+					if(!tempFile.renameTo(file)){
+						throw new IOException("Unable to rename " + tempFile.getName());
+					}
+				}
+				catch(IOException e){
+					error = e;
+				}
+			}
+			
+			if(error != null){
+				if(out != null){
+					try{
+						out.close();
+					}
+					catch(IOException e){
+						// Ignore
+					}
+				}
+				tempFile.delete();
+				result.setException(error);
+			}
+			else{
+				result.set(blocks);
+			}
+		}
+	}
+	
+	private class Restore implements Runnable {
+		private final Area area;
+		private final DataInputStream in;
+		private final SettableFuture<Integer> result = SettableFuture.create();
+		private final BlockingQueue<ChunkData> queue = new ArrayBlockingQueue<ChunkData>(MAX_PENDING_CHUNKS);
+		private final ExecutorService worker = createWorker();
+		private final long budget = getTickBudget();
+		
+		private volatile boolean readerDone;
+		private volatile IOException error;
+		
+		private BukkitTask task;
+		private ChunkData current;
+		private int index;
+		private int restored;
+		
+		public Restore(Area area, DataInputStream in){
+			this.area = area;
+			this.in = in;
+		}
+		
+		public void start(){
+			worker.execute(new Runnable() {
+				@Override
+				public void run() {
+					try{
+						readChunks();
+					}
+					catch(IOException e){
+						error = e;
+					}
+					catch(InterruptedException e){
+						// Shutting down
+					}
+					finally{
+						readerDone = true;
+						try{
+							in.close();
+						}
+						catch(IOException e){
+							// Ignore
+						}
+					}
+				}
+			});
+			worker.shutdown();
+			
+			task = Bukkit.getScheduler().runTaskTimer(Minigames.plugin, this, 0, 1);
+		}
+		
+		private void readChunks() throws IOException, InterruptedException{
+			int height = area.getHeight();
+			for(int chunkX = area.minX >> 4; chunkX <= area.maxX >> 4; ++chunkX){
+				for(int chunkZ = area.minZ >> 4; chunkZ <= area.maxZ >> 4; ++chunkZ){
+					if(in.readInt() != chunkX || in.readInt() != chunkZ){
+						throw new IOException("Snapshot is corrupt");
+					}
+					
+					ChunkData chunk = new ChunkData();
+					chunk.minX = Math.max(area.minX, chunkX << 4);
+					chunk.minZ = Math.max(area.minZ, chunkZ << 4);
+					chunk.depth = Math.min(area.maxZ, (chunkZ << 4) + 15) - chunk.minZ + 1;
+					int width = Math.min(area.maxX, (chunkX << 4) + 15) - chunk.minX + 1;
+					
+					chunk.states = new int[width * chunk.depth * height];
+					for(int i = 0; i < chunk.states.length; ++i){
+						int typeId = in.readShort();
+						chunk.states[i] = PackedBlockList.packState(typeId, in.readByte());
+					}
+					
+					int tileCount = in.readInt();
+					chunk.tiles = Lists.newArrayListWithCapacity(tileCount);
+					for(int i = 0; i < tileCount; ++i){
+						chunk.tiles.add(TileData.read(in));
+					}
+					
+					queue.put(chunk);
+				}
+			}
+		}
+		
+		@Override
+		public void run() {
+			long start = System.nanoTime();
+			while(System.nanoTime() - start < budget){
+				if(current == null){
+					// Read before polling so an empty queue after the reader finished means we are done
+					boolean done = readerDone;
+					current = queue.poll();
+					if(current == null){
+						if(done){
+							finish();
+						}
+						return;
+					}
+					index = 0;
+				}
+				
+				if(restoreBlocks(start)){
+					for(TileData tile : current.tiles){
+						tile.apply(area.world);
+					}
+					current = null;
+				}
+			}
+		}
+		
+		/**
+		 * Restores blocks of the current chunk until it is complete or the budget runs out
+		 * @return True if every block in the chunk has been restored
+		 */
+		@SuppressWarnings("deprecation")
+		private boolean restoreBlocks(long start){
+			int height = area.getHeight();
+			int[] states = current.states;
+			while(index < states.length){
+				int column = index / height;
+				Block block = area.world.getBlockAt(current.minX + column / current.depth,
+						area.minY + index % height, current.minZ + column % current.depth);
+				
+				int typeId = PackedBlockList.getTypeId(states[index]);
+				byte data = PackedBlockList.getData(states[index]);
+				if(block.getTypeId() != typeId || block.getData() != data){
+					// No physics so attached blocks are not dropped before their supports are restored
+					block.setTypeIdAndData(typeId, data, false);
+				}
+				
+				++index;
+				++restored;
+				if(index % BUDGET_CHECK_INTERVAL == 0 && System.nanoTime() - start >= budget){
+					return index >= states.length;
+				}
+			}
+			return true;
+		}
+		
+		private void finish(){
+			task.cancel();
+			if(error != null){
+				result.setException(error);
+			}
+			else{
+				result.set(restored);
+			}
+		}
+	}
+}
@@ -0,0 +1,599 @@
+package au.com.mineauz.minigames.blockRecorder;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.util.io.BukkitObjectInputStream;
+import org.bukkit.util.io.BukkitObjectOutputStream;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import au.com.mineauz.minigames.Minigames;
+import au.com.mineauz.minigames.minigame.Minigame;
+
+/**
+ * An append only binary log of the original state of every block recorded by a
+ * {@link RecorderData}. Records are encoded on the calling thread into an in memory
+ * buffer and written and fsync'd in batches by a shared background writer thread.
+ * <p>
+ * If the server stops before a rollback completes, the journal is replayed the next
+ * time the minigame is loaded. It is truncated once a full rollback completes, except
+ * for records that could not be replayed as their world was not loaded, which are kept
+ * until a later replay succeeds.
+ */
+public class RollbackJournal {
+	private static final int MAGIC = 0x4D474A4C;
+	private static final byte VERSION = 1;
+	private static final long FLUSH_DELAY = 100;
+	
+	private static final byte RECORD_WORLD = 1;
+	private static final byte RECORD_BLOCK = 2;
+	private static final byte RECORD_INVENTORY = 3;
+	private static final byte RECORD_SIGN = 4;
+	
+	private static ScheduledExecutorService writer;
+	private static final List<RollbackJournal> openJournals = Lists.newArrayList();
+	
+	private final Minigame minigame;
+	private File file;
+	
+	// Guarded by lock
+	private final Object lock = new Object();
+	private ByteArrayOutputStream pending = new ByteArrayOutputStream(8192);
+	private DataOutputStream pendingOut = new DataOutputStream(pending);
+	private ByteArrayOutputStream spare = new ByteArrayOutputStream(8192);
+	private boolean flushScheduled;
+	private boolean truncateRequested;
+	private Map<World, Integer> worldIds = new IdentityHashMap<World, Integer>();
+	private int nextWorldId;
+	// Records that could not be replayed, written again after every truncate
+	private byte[] retained;
+	private int retainedWorlds;
+	
+	// Guarded by this
+	private FileOutputStream output;
+	
+	public RollbackJournal(Minigame minigame){
+		this.minigame = minigame;
+	}
+	
+	private static synchronized ScheduledExecutorService getWriter(){
+		if(writer == null || writer.isShutdown()){
+			writer = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+					.setNameFormat("Minigames Rollback Journal")
+					.setDaemon(true)
+					.build());
+		}
+		return writer;
+	}
+	
+	/**
+	 * Writes out all pending records and closes every journal. Called when the plugin disables.
+	 */
+	public static void shutdown(){
+		ScheduledExecutorService service;
+		synchronized(RollbackJournal.class){
+			service = writer;
+			writer = null;
+		}
+		
+		if(service != null){
+			service.shutdown();
+			try{
+				service.awaitTermination(10, TimeUnit.SECONDS);
+			}
+			catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+			}
+		}
+		
+		List<RollbackJournal> journals;
+		synchronized(openJournals){
+			journals = Lists.newArrayList(openJournals);
+		}
+		for(RollbackJournal journal : journals){
+			journal.flush();
+			journal.closeFile();
+		}
+	}
+	
+	public File getFile(){
+		if(file == null){
+			file = new File(Minigames.plugin.getDataFolder() + "/minigames/" + minigame.getName(false) + "/rollback.journal");
+		}
+		return file;
+	}
+	
+	private int getWorldId(World world) throws IOException{
+		Integer id = worldIds.get(world);
+		if(id == null){
+			id = nextWorldId++;
+			worldIds.put(world, id);
+			pendingOut.writeByte(RECORD_WORLD);
+			pendingOut.writeShort(id);
+			pendingOut.writeUTF(world.getName());
+		}
+		return id;
+	}
+	
+	private void writeHeader(DataOutputStream out, int worldId, long position, int typeId, byte data) throws IOException{
+		out.writeShort(worldId);
+		out.writeLong(position);
+		out.writeShort(typeId);
+		out.writeByte(data);
+	}
+	
+	/**
+	 * Records the original type and data of a block
+	 */
+	public void recordBlock(World world, long position, int typeId, byte data){
+		synchronized(lock){
+			try{
+				int worldId = getWorldId(world);
+				pendingOut.writeByte(RECORD_BLOCK);
+				writeHeader(pendingOut, worldId, position, typeId, data);
+			}
+			catch(IOException e){
+				// Cannot happen writing to memory
+				throw new AssertionError(e);
+			}
+			scheduleFlush();
+		}
+	}
+	
+	/**
+	 * Records the original state and inventory contents of a block
+	 */
+	public void recordInventory(World world, long position, int typeId, byte data, ItemStack[] items){
+		byte[] encoded;
+		try{
+			encoded = encodeItems(items);
+		}
+		catch(IOException e){
+			Minigames.plugin.getLogger().log(Level.WARNING, "Failed to journal inventory in " + minigame.getName(false), e);
+			recordBlock(world, position, typeId, data);
+			return;
+		}
+		
+		synchronized(lock){
+			try{
+				int worldId = getWorldId(world);
+				pendingOut.writeByte(RECORD_INVENTORY);
+				writeHeader(pendingOut, worldId, position, typeId, data);
+				pendingOut.writeInt(encoded.length);
+				pendingOut.write(encoded);
+			}
+			catch(IOException e){
+				throw new AssertionError(e);
+			}
+			scheduleFlush();
+		}
+	}
+	
+	/**
+	 * Records the original state and text of a sign
+	 */
+	public void recordSign(World world, long position, int typeId, byte data, String[] lines){
+		synchronized(lock){
+			try{
+				int worldId = getWorldId(world);
+				pendingOut.writeByte(RECORD_SIGN);
+				writeHeader(pendingOut, worldId, position, typeId, data);
+				for(int i = 0; i < 4; ++i){
+					pendingOut.writeUTF(i < lines.length && lines[i] != null ? lines[i] : "");
+				}
+			}
+			catch(IOException e){
+				throw new AssertionError(e);
+			}
+			scheduleFlush();
+		}
+	}
+	
+	/**
+	 * Discards all records. Records added after this call are kept.
+	 */
+	public void truncate(){
+		synchronized(lock){
+			pending.reset();
+			worldIds.clear();
+			nextWorldId = retainedWorlds;
+			if(retained != null){
+				pending.write(retained, 0, retained.length);
+			}
+			truncateRequested = true;
+			scheduleFlush();
+		}
+	}
+	
+	/**
+	 * Replaces the journal with the given entries, and keeps them through later truncates.
+	 * Used for entries that could not be replayed, so they are not lost and are not
+	 * joined by the records of every later round.
+	 * @param entries Entries read from this journal. Entries with no world name are discarded.
+	 *                An empty list stops keeping any entries.
+	 */
+	public void retain(List<Entry> entries){
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		Map<String, Integer> ids = new HashMap<String, Integer>();
+		try{
+			for(Entry entry : entries){
+				if(entry.worldName == null){
+					continue;
+				}
+				
+				Integer worldId = ids.get(entry.worldName);
+				if(worldId == null){
+					worldId = ids.size();
+					ids.put(entry.worldName, worldId);
+					out.writeByte(RECORD_WORLD);
+					out.writeShort(worldId);
+					out.writeUTF(entry.worldName);
+				}
+				
+				byte[] encoded = null;
+				if(entry.items != null){
+					try{
+						encoded = encodeItems(entry.items);
+					}
+					catch(IOException e){
+						Minigames.plugin.getLogger().log(Level.WARNING, "Failed to journal inventory in " + minigame.getName(false), e);
+					}
+				}
+				
+				if(encoded != null){
+					out.writeByte(RECORD_INVENTORY);
+					writeHeader(out, worldId, entry.position, entry.typeId, entry.data);
+					out.writeInt(encoded.length);
+					out.write(encoded);
+				}
+				else if(entry.lines != null){
+					out.writeByte(RECORD_SIGN);
+					writeHeader(out, worldId, entry.position, entry.typeId, entry.data);
+					for(int i = 0; i < 4; ++i){
+						out.writeUTF(entry.lines[i]);
+					}
+				}
+				else{
+					out.writeByte(RECORD_BLOCK);
+					writeHeader(out, worldId, entry.position, entry.typeId, entry.data);
+				}
+			}
+		}
+		catch(IOException e){
+			throw new AssertionError(e);
+		}
+		
+		synchronized(lock){
+			retained = (bytes.size() > 0 ? bytes.toByteArray() : null);
+			retainedWorlds = ids.size();
+			truncate();
+		}
+	}
+	
+	private void scheduleFlush(){
+		if(flushScheduled){
+			return;
+		}
+		flushScheduled = true;
+		getWriter().schedule(new Runnable() {
+			@Override
+			public void run() {
+				flush();
+			}
+		}, FLUSH_DELAY, TimeUnit.MILLISECONDS);
+	}
+	
+	private synchronized void flush(){
+		ByteArrayOutputStream batch;
+		boolean truncate;
+		synchronized(lock){
+			flushScheduled = false;
+			truncate = truncateRequested;
+			truncateRequested = false;
+			batch = pending;
+			pending = spare;
+			pendingOut = new DataOutputStream(pending);
+			spare = batch;
+		}
+		
+		boolean retry = false;
+		long length = -1;
+		try{
+			if(truncate){
+				closeFile();
+				if(getFile().exists() && !getFile().delete()){
+					Minigames.plugin.getLogger().warning("Failed to truncate rollback journal for " + minigame.getName(false));
+				}
+			}
+			
+			if(batch.size() > 0){
+				openFile();
+				length = output.getChannel().size();
+				batch.writeTo(output);
+				output.getChannel().force(false);
+			}
+		}
+		catch(IOException e){
+			Minigames.plugin.getLogger().log(Level.SEVERE, "Failed to write rollback journal for " + minigame.getName(false), e);
+			discardPartialWrite(length);
+			retry = requeue(batch);
+		}
+		finally{
+			if(!retry){
+				batch.reset();
+			}
+		}
+	}
+	
+	/**
+	 * Puts a batch that failed to write back in front of the pending records.
+	 * The batch holds the world records that later records refer to, so it
+	 * cannot be dropped without making those records unreadable.
+	 * @return True if the batch was requeued, false if it is no longer needed
+	 */
+	private boolean requeue(ByteArrayOutputStream batch){
+		synchronized(lock){
+			if(truncateRequested){
+				// Everything up to the truncate is discarded anyway
+				return false;
+			}
+			
+			byte[] later = pending.toByteArray();
+			batch.write(later, 0, later.length);
+			pending.reset();
+			spare = pending;
+			pending = batch;
+			pendingOut = new DataOutputStream(pending);
+			scheduleFlush();
+			return true;
+		}
+	}
+	
+	/**
+	 * Removes anything written by a failed write so the batch can be written again
+	 * without leaving a broken record in the middle of the file
+	 */
+	private void discardPartialWrite(long length){
+		if(output == null || length < 0){
+			return;
+		}
+		
+		try{
+			output.getChannel().truncate(length);
+		}
+		catch(IOException e){
+			// The write is retried after reopening the file
+		}
+		closeFile();
+	}
+	
+	private void openFile() throws IOException{
+		if(output != null){
+			return;
+		}
+		
+		File f = getFile();
+		f.getParentFile().mkdirs();
+		boolean isNew = !f.exists() || f.length() == 0;
+		output = new FileOutputStream(f, true);
+		if(isNew){
+			DataOutputStream header = new DataOutputStream(output);
+			header.writeInt(MAGIC);
+			header.writeByte(VERSION);
+			header.flush();
+		}
+		
+		synchronized(openJournals){
+			openJournals.add(this);
+		}
+	}
+	
+	private synchronized void closeFile(){
+		if(output == null){
+			return;
+		}
+		
+		try{
+			output.close();
+		}
+		catch(IOException e){
+			// Ignore
+		}
+		output = null;
+		
+		synchronized(openJournals){
+			openJournals.remove(this);
+		}
+	}
+	
+	/**
+	 * @return True if there is a journal left over from a rollback that did not complete
+	 */
+	public boolean hasRecords(){
+		return getFile().length() > 5;
+	}
+	
+	/**
+	 * Reads every record from the journal on disk. Where a block has several records,
+	 * the first is kept unless a later one carries inventory contents the first is missing.
+	 * Incomplete records at the end of the file (from a crash mid write) are ignored.
+	 * Records for worlds that are not loaded are included with a null world.
+	 */
+	public List<Entry> read() throws IOException{
+		Map<String, LongHashMap<Entry>> byPosition = new HashMap<String, LongHashMap<Entry>>();
+		List<Entry> entries = new ArrayList<Entry>();
+		Map<Integer, String> worlds = new HashMap<Integer, String>();
+		
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(getFile())));
+		try{
+			if(in.readInt() != MAGIC || in.readByte() != VERSION){
+				throw new IOException("Not a rollback journal");
+			}
+			
+			while(true){
+				int type;
+				try{
+					type = in.readByte();
+				}
+				catch(EOFException e){
+					break;
+				}
+				
+				try{
+					if(type == RECORD_WORLD){
+						int id = in.readShort();
+						worlds.put(id, in.readUTF());
+						continue;
+					}
+					
+					Entry entry = new Entry();
+					entry.worldName = worlds.get((int)in.readShort());
+					entry.position = in.readLong();
+					entry.typeId = in.readShort();
+					entry.data = in.readByte();
+					
+					if(type == RECORD_INVENTORY){
+						byte[] encoded = new byte[in.readInt()];
+						in.readFully(encoded);
+						entry.items = decodeItems(encoded);
+					}
+					else if(type == RECORD_SIGN){
+						entry.lines = new String[4];
+						for(int i = 0; i < 4; ++i){
+							entry.lines[i] = in.readUTF();
+						}
+					}
+					else if(type != RECORD_BLOCK){
+						throw new IOException("Unknown record type " + type);
+					}
+					
+					if(entry.worldName == null){
+						// Its world record was lost, so it cannot be restored
+						entries.add(entry);
+						continue;
+					}
+					entry.world = Bukkit.getWorld(entry.worldName);
+					
+					LongHashMap<Entry> worldEntries = byPosition.get(entry.worldName);
+					if(worldEntries == null){
+						worldEntries = new LongHashMap<Entry>();
+						byPosition.put(entry.worldName, worldEntries);
+					}
+					
+					Entry existing = worldEntries.get(entry.position);
+					if(existing == null){
+						worldEntries.put(entry.position, entry);
+						entries.add(entry);
+					}
+					else if(existing.items == null && entry.items != null){
+						existing.items = entry.items;
+					}
+				}
+				catch(EOFException e){
+					// Partially written record
+					break;
+				}
+			}
+		}
+		finally{
+			in.close();
+		}
+		
+		return entries;
+	}
+	
+	static byte[] encodeItems(ItemStack[] items) throws IOException{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		BukkitObjectOutputStream out = new BukkitObjectOutputStream(bytes);
+		out.writeInt(items.length);
+		for(ItemStack item : items){
+			out.writeObject(item);
+		}
+		out.close();
+		return bytes.toByteArray();
+	}
+	
+	static ItemStack[] decodeItems(byte[] encoded) throws IOException{
+		BukkitObjectInputStream in = new BukkitObjectInputStream(new ByteArrayInputStream(encoded));
+		try{
+			ItemStack[] items = new ItemStack[in.readInt()];
+			for(int i = 0; i < items.length; ++i){
+				items[i] = (ItemStack)in.readObject();
+			}
+			return items;
+		}
+		catch(ClassNotFoundException e){
+			throw new IOException(e.getMessage());
+		}
+		finally{
+			in.close();
+		}
+	}
+	
+	/**
+	 * The original state of a block read back from the journal
+	 */
+	public static class Entry {
+		private String worldName;
+		private World world;
+		private long position;
+		private int typeId;
+		private byte data;
+		private ItemStack[] items;
+		private String[] lines;
+		
+		public String getWorldName(){
+			return worldName;
+		}
+		
+		/**
+		 * @return The world the block is in, or null if that world is not loaded
+		 */
+		public World getWorld(){
+			return world;
+		}
+		
+		public long getPosition(){
+			return position;
+		}
+		
+		public int getTypeId(){
+			return typeId;
+		}
+		
+		public byte getData(){
+			return data;
+		}
+		
+		public ItemStack[] getItems(){
+			return items;
+		}
+		
+		public String[] getLines(){
+			return lines;
+		}
+	}
+}
@@ -1,101 +1,276 @@
 package au.com.mineauz.minigames.blockRecorder;
 
-import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import org.bukkit.Bukkit;
 import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
 import org.bukkit.block.Jukebox;
 import org.bukkit.block.Sign;
 import org.bukkit.block.Skull;
-import org.bukkit.event.HandlerList;
 import org.bukkit.inventory.InventoryHolder;
 import org.bukkit.material.FlowerPot;
 import org.bukkit.material.MaterialData;
 import org.bukkit.scheduler.BukkitTask;
 
 import au.com.mineauz.minigames.MinigamePlayer;
+import au.com.mineauz.minigames.MinigameUtils;
 import au.com.mineauz.minigames.Minigames;
 import au.com.mineauz.minigames.minigame.Minigame;
 import au.com.mineauz.minigames.minigame.MinigameState;
 
+/**
+ * Restores recorded blocks over several ticks. Blocks are restored a chunk at a time,
+ * as many chunks as fit in the per tick time budget. The budget shrinks when the server
+ * is running behind and recovers to the configured regeneration.maxDelay when it is not.
+ * <p>
+ * All non physics blocks are restored before any physics blocks.
+ * The block lists must be sorted by position.
+ */
 public class RollbackScheduler implements Runnable {
+	private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+	// Chunks with more changes than this are split over several batches
+	private static final int MAX_BATCH_SIZE = 4096;
+	
+	private List<BlockData> blocks;
+	private List<BlockData> physBlocks;
+	private World plainWorld;
+	private PackedBlockList plainBlocks;
+	private PackedBlockList plainPhysBlocks;
+	
+	private boolean physPhase;
+	private int fullIndex;
+	private int plainIndex;
+	
+	private long maxBudget;
+	private long minBudget;
+	private long budget;
+	private long lastRun;
+	
+	private final int totalBlocks;
+	private volatile int restoredBlocks;
+	private volatile long startTime;
+	private volatile long lastUpdate;
+	private volatile boolean finished;
 	
-	private Iterator<BlockData> iterator;
-	private Iterator<BlockData> physIterator;
 	private BukkitTask task;
 	private Minigame minigame;
 	private MinigamePlayer modifier;
 	
-	public RollbackScheduler(List<BlockData> blocks, List<BlockData> physblocks, Minigame minigame, MinigamePlayer modifier){
-		iterator = blocks.iterator();
-		physIterator = physblocks.iterator();
+	public RollbackScheduler(List<BlockData> blocks, List<BlockData> physblocks, World plainWorld,
+			PackedBlockList plainBlocks, PackedBlockList plainPhysBlocks, Minigame minigame, MinigamePlayer modifier){
+		this.blocks = blocks;
+		this.physBlocks = physblocks;
+		this.plainWorld = plainWorld;
+		this.plainBlocks = plainBlocks;
+		this.plainPhysBlocks = plainPhysBlocks;
 		this.minigame = minigame;
 		this.modifier = modifier;
+		
+		totalBlocks = blocks.size() + physblocks.size() + plainBlocks.size() + plainPhysBlocks.size();
+		
+		maxBudget = (long)(Minigames.plugin.getConfig().getDouble("regeneration.maxDelay") * 1000000);
+		minBudget = Math.max(maxBudget / 10, TimeUnit.MILLISECONDS.toNanos(1));
+		// A max delay below 1ms must not let the budget grow past it
+		minBudget = Math.min(minBudget, maxBudget);
+		budget = maxBudget;
+		
 		int delay = minigame.getRegenDelay() * 20 + 1;
 		task = Bukkit.getScheduler().runTaskTimer(Minigames.plugin, this, delay, 1);
 	}
-
+	
 	@Override
 	public void run() {
-		long time = System.nanoTime();
-		while(iterator.hasNext()){
-			BlockData bdata = iterator.next();
-			bdata.getBlockState().update(true);
-			if(System.nanoTime() - time > Minigames.plugin.getConfig().getDouble("regeneration.maxDelay") * 1000000)
-				return;
+		long start = System.nanoTime();
+		if(lastRun == 0){
+			startTime = start;
 		}
-		while(physIterator.hasNext()){
-			BlockData bdata = physIterator.next();
-			bdata.getBlockState().update(true);
-			if((bdata.getBlockState().getType() == Material.SIGN_POST || bdata.getBlockState().getType() == Material.WALL_SIGN) && 
-					bdata.getBlockState() instanceof Sign){
-				Sign sign = (Sign) bdata.getLocation().getBlock().getState();
-				Sign signOld = (Sign) bdata.getBlockState();
-				sign.setLine(0, signOld.getLine(0));
-				sign.setLine(1, signOld.getLine(1));
-				sign.setLine(2, signOld.getLine(2));
-				sign.setLine(3, signOld.getLine(3));
-				sign.update();
-			}
-			else if(bdata.getLocation().getBlock().getState() instanceof InventoryHolder){
-				InventoryHolder block = (InventoryHolder) bdata.getLocation().getBlock().getState();
-				if(bdata.getItems() != null)
-					block.getInventory().setContents(bdata.getItems().clone());
-			}
-			else if(bdata.getBlockState().getType() == Material.FLOWER_POT){
-				FlowerPot pot = (FlowerPot) bdata.getLocation().getBlock().getState().getData();
-				if((MaterialData)bdata.getSpecialData("contents") != null)
-					pot.setContents((MaterialData)bdata.getSpecialData("contents"));
-			}
-			else if(bdata.getBlockState().getType() == Material.JUKEBOX){
-				Jukebox jbox = (Jukebox) bdata.getLocation().getBlock().getState();
-				Jukebox orig = (Jukebox) bdata.getBlockState();
-				jbox.setPlaying(orig.getPlaying());
-				jbox.update();
+		else{
+			adaptBudget(start - lastRun);
+		}
+		lastRun = start;
+		
+		do{
+			if(!restoreNextBatch()){
+				finish();
+				return;
 			}
-			else if(bdata.getBlockState().getType() == Material.SKULL){
-				Skull skull = (Skull) bdata.getBlockState().getBlock().getState();
-				Skull orig = (Skull) bdata.getBlockState();
-				skull.setOwner(orig.getOwner());
-				skull.setRotation(orig.getRotation());
-				skull.setSkullType(orig.getSkullType());
-				skull.update();
+		}
+		while(System.nanoTime() - start < budget);
+		
+		lastUpdate = System.nanoTime();
+	}
+	
+	private void adaptBudget(long tickTime){
+		if(tickTime > TICK_NANOS + TICK_NANOS / 5){
+			// Server is falling behind, back off
+			budget = Math.max(minBudget, budget / 2);
+		}
+		else{
+			budget = Math.min(maxBudget, budget + maxBudget / 10);
+		}
+	}
+	
+	/**
+	 * Restores the blocks of the next chunk in the current phase
+	 * @return False if there is nothing left to restore
+	 */
+	private boolean restoreNextBatch(){
+		List<BlockData> full = (physPhase ? physBlocks : blocks);
+		PackedBlockList plain = (physPhase ? plainPhysBlocks : plainBlocks);
+		
+		boolean hasFull = fullIndex < full.size();
+		boolean hasPlain = plainIndex < plain.size();
+		
+		if(!hasFull && !hasPlain){
+			if(physPhase){
+				return false;
 			}
-			
-			if(System.nanoTime() - time > Minigames.plugin.getConfig().getDouble("regeneration.maxDelay") * 1000000)
-				return;
+			physPhase = true;
+			fullIndex = 0;
+			plainIndex = 0;
+			return true;
+		}
+		
+		long chunk;
+		if(hasFull && hasPlain){
+			chunk = Math.min(BlockPosition.getChunkKey(full.get(fullIndex).getPosition()), BlockPosition.getChunkKey(plain.getPosition(plainIndex)));
+		}
+		else if(hasFull){
+			chunk = BlockPosition.getChunkKey(full.get(fullIndex).getPosition());
+		}
+		else{
+			chunk = BlockPosition.getChunkKey(plain.getPosition(plainIndex));
+		}
+		
+		int count = 0;
+		while(fullIndex < full.size() && count < MAX_BATCH_SIZE && BlockPosition.getChunkKey(full.get(fullIndex).getPosition()) == chunk){
+			restore(full.get(fullIndex++));
+			++count;
+		}
+		while(plainIndex < plain.size() && count < MAX_BATCH_SIZE && BlockPosition.getChunkKey(plain.getPosition(plainIndex)) == chunk){
+			restorePlain(plain, plainIndex++);
+			++count;
 		}
 		
+		restoredBlocks += count;
+		return true;
+	}
+	
+	private void finish(){
+		finished = true;
+		lastUpdate = System.nanoTime();
+		task.cancel();
+		
+		MinigameUtils.debugMessage("Restored " + restoredBlocks + " blocks in " + minigame.getName(false) + " at " +
+				(int)getBlocksPerSecond() + " blocks per second");
+		
 		// When rolling back a single player's changes dont change the overall games state
 		if (modifier == null) {
-			HandlerList.unregisterAll(minigame.getBlockRecorder());
-			HandlerList.bakeAll();
+			Minigames.plugin.getRecorderDispatcher().unregister(minigame.getBlockRecorder());
 			
+			minigame.getBlockRecorder().rollbackComplete();
 			minigame.setState(MinigameState.IDLE);
 		}
+	}
+	
+	private void restore(BlockData bdata){
+		bdata.getBlockState().update(true);
+		if(!physPhase){
+			return;
+		}
 		
-		task.cancel();
+		if((bdata.getBlockState().getType() == Material.SIGN_POST || bdata.getBlockState().getType() == Material.WALL_SIGN) &&
+				bdata.getBlockState() instanceof Sign){
+			Sign sign = (Sign) bdata.getLocation().getBlock().getState();
+			Sign signOld = (Sign) bdata.getBlockState();
+			sign.setLine(0, signOld.getLine(0));
+			sign.setLine(1, signOld.getLine(1));
+			sign.setLine(2, signOld.getLine(2));
+			sign.setLine(3, signOld.getLine(3));
+			sign.update();
+		}
+		else if(bdata.getLocation().getBlock().getState() instanceof InventoryHolder){
+			InventoryHolder block = (InventoryHolder) bdata.getLocation().getBlock().getState();
+			if(bdata.getItems() != null)
+				block.getInventory().setContents(bdata.getItems().clone());
+		}
+		else if(bdata.getBlockState().getType() == Material.FLOWER_POT){
+			FlowerPot pot = (FlowerPot) bdata.getLocation().getBlock().getState().getData();
+			if((MaterialData)bdata.getSpecialData("contents") != null)
+				pot.setContents((MaterialData)bdata.getSpecialData("contents"));
+		}
+		else if(bdata.getBlockState().getType() == Material.JUKEBOX){
+			Jukebox jbox = (Jukebox) bdata.getLocation().getBlock().getState();
+			Jukebox orig = (Jukebox) bdata.getBlockState();
+			jbox.setPlaying(orig.getPlaying());
+			jbox.update();
+		}
+		else if(bdata.getBlockState().getType() == Material.SKULL){
+			Skull skull = (Skull) bdata.getBlockState().getBlock().getState();
+			Skull orig = (Skull) bdata.getBlockState();
+			skull.setOwner(orig.getOwner());
+			skull.setRotation(orig.getRotation());
+			skull.setSkullType(orig.getSkullType());
+			skull.update();
+		}
+	}
+	
+	@SuppressWarnings("deprecation")
+	private void restorePlain(PackedBlockList list, int index){
+		long pos = list.getPosition(index);
+		int state = list.getState(index);
+		Block block = plainWorld.getBlockAt(BlockPosition.getX(pos), BlockPosition.getY(pos), BlockPosition.getZ(pos));
+		block.setTypeIdAndData(PackedBlockList.getTypeId(state), PackedBlockList.getData(state), true);
+	}
+	
+	public Minigame getMinigame(){
+		return minigame;
+	}
+	
+	/**
+	 * @return True once the regen delay has passed and blocks are being restored
+	 */
+	public boolean hasStarted(){
+		return startTime != 0;
+	}
+	
+	public boolean isFinished(){
+		return finished;
+	}
+	
+	public int getTotalBlocks(){
+		return totalBlocks;
+	}
+	
+	public int getRestoredBlocks(){
+		return restoredBlocks;
+	}
+	
+	/**
+	 * @return The average number of blocks restored per second since restoring started
+	 */
+	public double getBlocksPerSecond(){
+		long elapsed = lastUpdate - startTime;
+		if(!hasStarted() || elapsed <= 0){
+			return 0;
+		}
+		return restoredBlocks / (elapsed / 1000000000.0);
+	}
+	
+	/**
+	 * @return The estimated time in milliseconds until all blocks are restored, or -1 if it is not yet known
+	 */
+	public long getEstimatedTimeRemaining(){
+		if(finished){
+			return 0;
+		}
+		double rate = getBlocksPerSecond();
+		if(rate <= 0){
+			return -1;
+		}
+		return (long)((totalBlocks - restoredBlocks) / rate * 1000);
 	}
-
 }
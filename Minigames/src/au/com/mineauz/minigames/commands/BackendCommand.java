@@ -12,8 +12,11 @@ import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 
 import au.com.mineauz.minigames.Minigames;
+import au.com.mineauz.minigames.backend.BackendCache;
 import au.com.mineauz.minigames.backend.BackendManager;
+import au.com.mineauz.minigames.backend.ConnectionPool;
 import au.com.mineauz.minigames.backend.ExportNotifier;
+import au.com.mineauz.minigames.backend.Leaderboards;
 import au.com.mineauz.minigames.minigame.Minigame;
 
 public class BackendCommand implements ICommand{
@@ -39,12 +42,12 @@ public class BackendCommand implements ICommand{
 
 	@Override
 	public String[] getParameters() {
-		return new String[] {"export", "switch"};
+		return new String[] {"export", "switch", "status"};
 	}
 
 	@Override
 	public String[] getUsage() {
-		return new String[] {"/minigame backend export <type>", "/minigame backend switch <type>"};
+		return new String[] {"/minigame backend export <type>", "/minigame backend switch <type>", "/minigame backend status"};
 	}
 
 	@Override
@@ -59,12 +62,37 @@ public class BackendCommand implements ICommand{
 
 	@Override
 	public boolean onCommand(final CommandSender sender, Minigame minigame, String label, String[] args) {
-		if (args == null || args.length != 2) {
+		if (args == null || args.length == 0) {
 			return false;
 		}
 		
 		BackendManager manager = Minigames.plugin.getBackend();
 		
+		if (args[0].equalsIgnoreCase("status")) {
+			sender.sendMessage(ChatColor.GRAY + "Stats waiting to be saved: " + ChatColor.WHITE + manager.getPendingGames() + " games (max " + manager.getMaxPendingGames() + ")");
+			sender.sendMessage(ChatColor.GRAY + "Stat flushes: " + ChatColor.WHITE + manager.getFlushCount() + ", " + manager.getFlushedGames() + " games, " + manager.getFailedFlushCount() + " failed");
+			sender.sendMessage(ChatColor.GRAY + "Rows per flush: " + ChatColor.WHITE + String.format("%.1f", manager.getAverageRowsPerFlush()));
+			sender.sendMessage(ChatColor.GRAY + "Flush time: " + ChatColor.WHITE + String.format("%.2fms avg, %.2fms last", manager.getAverageFlushNanos() / 1000000.0, manager.getLastFlushNanos() / 1000000.0));
+			
+			BackendCache cache = manager.getCache();
+			sender.sendMessage(ChatColor.GRAY + "Minigame id cache: " + ChatColor.WHITE + String.format("%d entries, %.1f%% hits", cache.getMinigameCount(), cache.getMinigameHitRatio() * 100));
+			sender.sendMessage(ChatColor.GRAY + "Player cache: " + ChatColor.WHITE + String.format("%d entries, %.1f%% hits", cache.getPlayerCount(), cache.getPlayerHitRatio() * 100));
+			
+			ConnectionPool pool = manager.getPool();
+			sender.sendMessage(ChatColor.GRAY + "Connections: " + ChatColor.WHITE + String.format("%d active, %d idle, %d waiting (max %d)", pool.getActiveCount(), pool.getIdleCount(), pool.getWaitingCount(), pool.getMaxSize()));
+			sender.sendMessage(ChatColor.GRAY + "Connection wait: " + ChatColor.WHITE + String.format("%.2fms avg, %.2fms max, %d timeouts", pool.getAverageWaitNanos() / 1000000.0, pool.getMaxWaitNanos() / 1000000.0, pool.getTimeoutCount()));
+			sender.sendMessage(ChatColor.GRAY + "Connections opened: " + ChatColor.WHITE + pool.getCreatedCount() + ", closed: " + pool.getClosedCount() + ", leaked: " + pool.getLeakCount());
+			sender.sendMessage(ChatColor.GRAY + "Statement cache: " + ChatColor.WHITE + String.format("%.1f%% hits", pool.getStatementCacheHitRatio() * 100));
+			
+			Leaderboards leaderboards = manager.getLeaderboards();
+			sender.sendMessage(ChatColor.GRAY + "Scoreboards in memory: " + ChatColor.WHITE + String.format("%d, %.1f%% hits", leaderboards.getBoardCount(), leaderboards.getHitRatio() * 100));
+			return true;
+		}
+		
+		if (args.length != 2) {
+			return false;
+		}
+		
 		if (args[0].equalsIgnoreCase("export")) {
 			try {
 				ListenableFuture<Void> future = manager.exportTo(args[1], Minigames.plugin.getConfig(), new Notifier(sender));
@@ -1,15 +1,21 @@
 package au.com.mineauz.minigames.commands;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.logging.Level;
 
 import org.bukkit.ChatColor;
 import org.bukkit.Location;
 import org.bukkit.command.CommandSender;
 
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.ListenableFuture;
+
 import au.com.mineauz.minigames.MinigameUtils;
 import au.com.mineauz.minigames.Minigames;
 import au.com.mineauz.minigames.blockRecorder.RecorderData;
+import au.com.mineauz.minigames.blockRecorder.RegionSnapshot;
 import au.com.mineauz.minigames.minigame.Minigame;
 import au.com.mineauz.minigames.minigame.MinigameState;
 
@@ -33,7 +39,8 @@ public class BackupCommand implements ICommand {
 	@Override
 	public String getDescription() {
 		return "Backs up or restores the regen area of a Minigame in case of regeneration failure.\n"
-				+ "Note: This is not 100% accurate, some blocks may not return to their original state.";
+				+ "Note: This is not 100% accurate, some blocks may not return to their original state.\n"
+				+ "Snapshot mode saves the whole area to a compressed file over several ticks, and restores it the same way.";
 	}
 
 	@Override
@@ -44,7 +51,8 @@ public class BackupCommand implements ICommand {
 	@Override
 	public String[] getUsage() {
 		return new String[] {
-				"/minigame backup <Minigame> [restore]"
+				"/minigame backup <Minigame> [restore]",
+				"/minigame backup <Minigame> snapshot [restore]"
 		};
 	}
 
@@ -111,6 +119,23 @@ public class BackupCommand implements ICommand {
 							sender.sendMessage(ChatColor.RED + minigame.getName(false) + " has players playing, can't be restored until Minigame is empty.");
 						}
 					}
+					else if(args[1].equalsIgnoreCase("snapshot")){
+						if(minigame.getPlayers().size() != 0){
+							sender.sendMessage(ChatColor.RED + minigame.getName(false) + " has players playing, can't be backed up or restored until Minigame is empty.");
+						}
+						else if(minigame.getState() == MinigameState.REGENERATING){
+							sender.sendMessage(ChatColor.RED + minigame.getName(false) + " is currently regenerating.");
+						}
+						else if(args.length == 2){
+							captureSnapshot(sender, minigame);
+						}
+						else if(args[2].equalsIgnoreCase("restore")){
+							restoreSnapshot(sender, minigame);
+						}
+						else{
+							return false;
+						}
+					}
 				}
 				else{
 					sender.sendMessage(ChatColor.RED + minigame.getName(false) + " has no regen area!");
@@ -124,6 +149,68 @@ public class BackupCommand implements ICommand {
 		return false;
 	}
 
+	private void captureSnapshot(final CommandSender sender, final Minigame minigame){
+		final RegionSnapshot snapshot = new RegionSnapshot(minigame);
+		final long start = System.currentTimeMillis();
+		
+		minigame.setState(MinigameState.REGENERATING);
+		ListenableFuture<Integer> future = snapshot.capture();
+		sender.sendMessage(ChatColor.GRAY + "Taking a snapshot of " + minigame.getName(false) + "...");
+		
+		Minigames.plugin.getBackend().addServerThreadCallback(future, new FutureCallback<Integer>() {
+			@Override
+			public void onSuccess(Integer blocks) {
+				minigame.setState(MinigameState.IDLE);
+				sender.sendMessage(ChatColor.GRAY + minigame.getName(false) + " has been successfully backed up! (" + blocks + " blocks in " + 
+						(System.currentTimeMillis() - start) + "ms, " + (snapshot.getFile().length() / 1024) + "KB)");
+			}
+			
+			@Override
+			public void onFailure(Throwable t) {
+				minigame.setState(MinigameState.IDLE);
+				sender.sendMessage(ChatColor.RED + "Failed to back up " + minigame.getName(false) + ": " + t.getMessage());
+				Minigames.plugin.getLogger().log(Level.WARNING, "Failed to snapshot " + minigame.getName(false), t);
+			}
+		});
+	}
+	
+	private void restoreSnapshot(final CommandSender sender, final Minigame minigame){
+		RegionSnapshot snapshot = new RegionSnapshot(minigame);
+		if(!snapshot.exists()){
+			sender.sendMessage(ChatColor.RED + "No snapshot found for " + minigame.getName(false));
+			return;
+		}
+		
+		final long start = System.currentTimeMillis();
+		ListenableFuture<Integer> future;
+		try{
+			future = snapshot.restore();
+		}
+		catch(IOException e){
+			sender.sendMessage(ChatColor.RED + "Failed to read the snapshot of " + minigame.getName(false) + ": " + e.getMessage());
+			return;
+		}
+		
+		minigame.setState(MinigameState.REGENERATING);
+		sender.sendMessage(ChatColor.GRAY + minigame.getName(false) + " is now restoring from snapshot.");
+		
+		Minigames.plugin.getBackend().addServerThreadCallback(future, new FutureCallback<Integer>() {
+			@Override
+			public void onSuccess(Integer blocks) {
+				minigame.setState(MinigameState.IDLE);
+				sender.sendMessage(ChatColor.GRAY + minigame.getName(false) + " has been restored from snapshot. (" + blocks + " blocks in " + 
+						(System.currentTimeMillis() - start) + "ms)");
+			}
+			
+			@Override
+			public void onFailure(Throwable t) {
+				minigame.setState(MinigameState.IDLE);
+				sender.sendMessage(ChatColor.RED + "Failed to restore " + minigame.getName(false) + " from snapshot: " + t.getMessage());
+				Minigames.plugin.getLogger().log(Level.WARNING, "Failed to restore snapshot of " + minigame.getName(false), t);
+			}
+		});
+	}
+
 	@Override
 	public List<String> onTabComplete(CommandSender sender, Minigame minigame,
 			String alias, String[] args) {
@@ -132,7 +219,10 @@ public class BackupCommand implements ICommand {
 				return MinigameUtils.tabCompleteMatch(new ArrayList<String>(Minigames.plugin.mdata.getAllMinigames().keySet()), args[0]);
 			}
 			else if(args.length == 2){
-				return MinigameUtils.tabCompleteMatch(MinigameUtils.stringToList("restore"), args[1]);
+				return MinigameUtils.tabCompleteMatch(MinigameUtils.stringToList("restore;snapshot"), args[1]);
+			}
+			else if(args.length == 3 && args[1].equalsIgnoreCase("snapshot")){
+				return MinigameUtils.tabCompleteMatch(MinigameUtils.stringToList("restore"), args[2]);
 			}
 		}
 		return null;
@@ -75,6 +75,7 @@ public class CommandDispatcher implements CommandExecutor, TabCompleter{
 		registerCommand(new SaveCommand());
 		registerCommand(new LoadoutCommand());
 		registerCommand(new BackupCommand());
+		registerCommand(new RegenStatusCommand());
 		registerCommand(new DebugCommand());
 		registerCommand(new BackendCommand());
 		
@@ -76,6 +76,7 @@ public class DeleteCommand implements ICommand{
 					ls.remove(mgm.getName(false));
 					plugin.getConfig().set("minigames", ls);
 					plugin.mdata.removeMinigame(mgm.getName(false));
+					plugin.getBackend().invalidateMinigame(mgm.getName(false));
 					plugin.saveConfig();
 					sender.sendMessage(ChatColor.RED + "The minigame " + mgm.getName(false) + " has been removed");
 				}
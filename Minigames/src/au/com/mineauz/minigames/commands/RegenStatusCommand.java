@@ -0,0 +1,143 @@
+package au.com.mineauz.minigames.commands;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bukkit.ChatColor;
+import org.bukkit.command.CommandSender;
+
+import au.com.mineauz.minigames.MinigameUtils;
+import au.com.mineauz.minigames.Minigames;
+import au.com.mineauz.minigames.blockRecorder.EntityRollbackScheduler;
+import au.com.mineauz.minigames.blockRecorder.RecorderDispatcher;
+import au.com.mineauz.minigames.blockRecorder.RollbackScheduler;
+import au.com.mineauz.minigames.minigame.Minigame;
+
+public class RegenStatusCommand implements ICommand {
+	
+	@Override
+	public String getName() {
+		return "regenstatus";
+	}
+	
+	@Override
+	public String[] getAliases() {
+		return null;
+	}
+	
+	@Override
+	public boolean canBeConsole() {
+		return true;
+	}
+	
+	@Override
+	public String getDescription() {
+		return "Shows the regeneration progress of a Minigame, or of all regenerating Minigames along with block recorder event statistics.";
+	}
+	
+	@Override
+	public String[] getParameters() {
+		return null;
+	}
+	
+	@Override
+	public String[] getUsage() {
+		return new String[] {
+				"/minigame regenstatus [Minigame]"
+		};
+	}
+	
+	@Override
+	public String getPermissionMessage() {
+		return "You do not have permission to view regeneration status!";
+	}
+	
+	@Override
+	public String getPermission() {
+		return "minigame.regenstatus";
+	}
+	
+	@Override
+	public boolean onCommand(CommandSender sender, Minigame minigame,
+			String label, String[] args) {
+		if(args != null){
+			if(!Minigames.plugin.mdata.hasMinigame(args[0])){
+				sender.sendMessage(ChatColor.RED + "No Minigame found by the name '" + args[0] + "'!");
+				return true;
+			}
+			
+			minigame = Minigames.plugin.mdata.getMinigame(args[0]);
+			RollbackScheduler rollback = minigame.getBlockRecorder().getActiveRollback();
+			EntityRollbackScheduler entities = minigame.getBlockRecorder().getActiveEntityRollback();
+			if(rollback == null && entities == null){
+				sender.sendMessage(ChatColor.GRAY + minigame.getName(false) + " is not regenerating.");
+			}
+			if(rollback != null){
+				sender.sendMessage(describe(rollback));
+			}
+			if(entities != null){
+				sender.sendMessage(describe(entities));
+			}
+			return true;
+		}
+		
+		boolean found = false;
+		for(Minigame mg : Minigames.plugin.mdata.getAllMinigames().values()){
+			RollbackScheduler rollback = mg.getBlockRecorder().getActiveRollback();
+			if(rollback != null){
+				sender.sendMessage(describe(rollback));
+				found = true;
+			}
+			EntityRollbackScheduler entities = mg.getBlockRecorder().getActiveEntityRollback();
+			if(entities != null){
+				sender.sendMessage(describe(entities));
+				found = true;
+			}
+		}
+		
+		if(!found){
+			sender.sendMessage(ChatColor.GRAY + "No Minigames are regenerating.");
+		}
+		
+		RecorderDispatcher dispatcher = Minigames.plugin.getRecorderDispatcher();
+		sender.sendMessage(ChatColor.GRAY + "Recorder events: " + dispatcher.getEventCount() + " handled, " + 
+				dispatcher.getRoutedCount() + " near a regen area, " + String.format("%.1f", dispatcher.getAverageEventNanos() / 1000) + "us average");
+		return true;
+	}
+	
+	private String describe(RollbackScheduler rollback){
+		String name = rollback.getMinigame().getName(false);
+		if(!rollback.hasStarted()){
+			return ChatColor.GRAY + name + ": waiting for regen delay, " + rollback.getTotalBlocks() + " blocks to restore.";
+		}
+		
+		String msg = ChatColor.GRAY + name + ": " + rollback.getRestoredBlocks() + "/" + rollback.getTotalBlocks() +
+				" blocks restored (" + (int)rollback.getBlocksPerSecond() + " blocks/s)";
+		long eta = rollback.getEstimatedTimeRemaining();
+		if(eta >= 0){
+			msg += ", idle in " + MinigameUtils.convertTime((int)Math.max(1, (eta + 999) / 1000), true);
+		}
+		return msg;
+	}
+	
+	private String describe(EntityRollbackScheduler rollback){
+		String msg = ChatColor.GRAY + rollback.getMinigame().getName(false) + ": " + rollback.getRemovedEntities() + " entities removed, " +
+				rollback.getSpawnedEntities() + " respawned of " + rollback.getTotalEntities() + 
+				" (last tick " + rollback.getRemovedLastTick() + " removed, " + rollback.getSpawnedLastTick() + " respawned)";
+		int deferred = rollback.getDeferredEntities();
+		if(deferred > 0){
+			msg += ", " + deferred + " waiting for chunks to load";
+		}
+		return msg;
+	}
+	
+	@Override
+	public List<String> onTabComplete(CommandSender sender, Minigame minigame,
+			String alias, String[] args) {
+		if(args != null && args.length == 1){
+			return MinigameUtils.tabCompleteMatch(new ArrayList<String>(Minigames.plugin.mdata.getAllMinigames().keySet()), args[0]);
+		}
+		return null;
+	}
+	
+}
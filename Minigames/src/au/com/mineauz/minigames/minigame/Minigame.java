@@ -1297,13 +1297,16 @@ public class Minigame implements ScriptObject {
 					}
 				}
 			}else{
-				MinigameSave modsave = new MinigameSave("minigames/" + name + "/" + module.getName().toLowerCase());
-				module.load(modsave.getConfig());
+				FileConfiguration modconfig = module.getPreloadedConfig();
+				if(modconfig == null){
+					modconfig = new MinigameSave("minigames/" + name + "/" + module.getName().toLowerCase()).getConfig();
+				}
+				module.load(modconfig);
 				
 				if(module.getFlags() != null){
 					for(String flag : module.getFlags().keySet()){
-						if(modsave.getConfig().contains(name + "." + flag))
-							module.getFlags().get(flag).loadValue(name, modsave.getConfig());
+						if(modconfig.contains(name + "." + flag))
+							module.getFlags().get(flag).loadValue(name, modconfig);
 					}
 				}
 			}
@@ -22,6 +22,13 @@ public abstract class MinigameModule {
 	public abstract boolean useSeparateConfig();
 	public abstract void save(FileConfiguration config);
 	public abstract void load(FileConfiguration config);
+	/**
+	 * Modules with a separate config may read it ahead of time, such as on another thread while the server starts.
+	 * @return The already read separate config of this module, or null to read it from disk
+	 */
+	public FileConfiguration getPreloadedConfig(){
+		return null;
+	}
 	public abstract void addEditMenuOptions(Menu menu);
 	public abstract boolean displayMechanicSettings(Menu previous);
 }
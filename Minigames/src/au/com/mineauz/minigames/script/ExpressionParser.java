@@ -1,5 +1,7 @@
 package au.com.mineauz.minigames.script;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -17,58 +19,32 @@ public class ExpressionParser {
 	 * @throws NoSuchElementException Thrown if the objects referenced in the path cannot be resolved
 	 */
 	public static ScriptReference resolveObject(String pathString, ScriptObject root) throws IllegalArgumentException, NoSuchElementException {
+		return compilePath(pathString).resolve(root);
+	}
+	
+	private static ExpressionTemplate.Path compilePath(String pathString) throws IllegalArgumentException {
 		String[] segments = pathString.split("\\.");
-		
-		ScriptReference lastRef = null;
-		ScriptObject current = root;
+		String[] names = new String[segments.length];
+		String[] keys = new String[segments.length];
 		String pathToCurrent = "";
 		
-		for (String segment : segments) {
+		for (int i = 0; i < segments.length; ++i) {
 			// Keep track of path for error display
 			if (!pathToCurrent.isEmpty()) {
 				pathToCurrent += ".";
 			}
-			pathToCurrent += segment;
+			pathToCurrent += segments[i];
 			
-			if (current == null) {
-				throw new NoSuchElementException("Unable to resolve '" + pathToCurrent + "'");
-			}
-			
-			Matcher matcher = pathSegmentPattern.matcher(segment);
-			
-			if (matcher.matches()) {
-				String objectName = matcher.group(1);
-				ScriptReference ref = current.get(objectName.toLowerCase());
-				
-				if (ref == null) {
-					throw new NoSuchElementException("Unknown object " + objectName + " at '" + pathToCurrent + "'");
-				}
-				
-				// Index group
-				if (matcher.group(2) != null) {
-					if (ref instanceof ScriptCollection) {
-						try {
-							ref = ((ScriptCollection) ref).getValue(matcher.group(2));
-						} catch (IllegalArgumentException e) {
-							throw new NoSuchElementException("Invalid key '" + matcher.group(2) + "' for '" + pathToCurrent + "'");
-						} catch (NoSuchElementException e) {
-							throw new NoSuchElementException("Key '" + matcher.group(2) + "' is not found for '" + pathToCurrent + "'");
-						}
-					}
-				}
-				
-				lastRef = ref;
-				if (ref instanceof ScriptObject) {
-					current = (ScriptObject)ref;
-				} else {
-					current = null;
-				}
-			} else {
+			Matcher matcher = pathSegmentPattern.matcher(segments[i]);
+			if (!matcher.matches()) {
 				throw new IllegalArgumentException("Invalid path part: " + pathToCurrent);
 			}
+			
+			names[i] = matcher.group(1).toLowerCase();
+			keys[i] = matcher.group(2);
 		}
 		
-		return lastRef;
+		return new ExpressionTemplate.Path(segments, names, keys);
 	}
 	
 	/**
@@ -120,87 +96,95 @@ public class ExpressionParser {
 	 * @throws IllegalArgumentException Thrown if there is a syntax error in a path. Only thrown if ignoreSyntaxErrors is false
 	 */
 	public static String stringResolve(String input, ScriptObject object, boolean ignoreSyntaxErrors, boolean ignoreResolutionErrors) throws IllegalArgumentException, NoSuchElementException {
-		StringBuffer buffer = new StringBuffer(input);
+		return compile(input, ignoreSyntaxErrors).resolve(object, ignoreResolutionErrors);
+	}
+	
+	/**
+	 * Parses all tokens within the input string so it can be resolved
+	 * repeatedly without parsing it again. The token syntax is the same as
+	 * {@link #stringResolve(String, ScriptObject)}.
+	 * 
+	 * @param input The input string
+	 * @param ignoreSyntaxErrors When true, tokens with syntax errors are removed (IllegalArgumentException)
+	 * @return The compiled template
+	 * @throws IllegalArgumentException Thrown if there is a syntax error in a path. Only thrown if ignoreSyntaxErrors is false
+	 */
+	public static ExpressionTemplate compile(String input, boolean ignoreSyntaxErrors) throws IllegalArgumentException {
+		List<Object> parts = new ArrayList<Object>();
+		StringBuilder literal = new StringBuilder();
 		int start = 0;
 		int index = 0;
 		
 		while (true) {
-			index = buffer.indexOf("$", start);
+			index = input.indexOf('$', start);
 			if (index == -1) {
+				literal.append(input, start, input.length());
 				break;
 			}
 			
+			literal.append(input, start, index);
 			start = index + 1;
 			
 			// Check for end of string
-			if (start >= buffer.length()) {
+			if (start >= input.length()) {
+				literal.append('$');
 				break;
 			}
 			
 			// Check for $$
-			if (buffer.charAt(start) == '$') {
-				// Just delete one of the $ symbols
-				buffer.delete(start-1, start);
+			if (input.charAt(start) == '$') {
+				// Keep just one of the $ symbols
+				literal.append('$');
+				++start;
 				continue;
 			}
 			
 			String path;
 			// Check for brace pattern
-			if (buffer.charAt(start) == '{') {
-				int braceEnd = buffer.indexOf("}", start+1);
+			if (input.charAt(start) == '{') {
+				int braceEnd = input.indexOf('}', start+1);
 				if (braceEnd == -1) {
 					// Not a valid path
+					literal.append('$');
 					continue;
 				}
 				
-				path = buffer.substring(start+1, braceEnd);
+				path = input.substring(start+1, braceEnd);
 				start = braceEnd + 1;
 			} else {
 				// Find a non alphanumeric char
-				path = null;
-				for (int i = start; i < buffer.length(); ++i) {
-					if (!Character.isLetterOrDigit(buffer.charAt(i))) {
-						path = buffer.substring(start, i);
-						start = i;
-						break;
-					}
+				int end = start;
+				while (end < input.length() && Character.isLetterOrDigit(input.charAt(end))) {
+					++end;
 				}
 				
-				if (path == null) {
-					path = buffer.substring(start);
-					start = buffer.length();
-				}
+				path = input.substring(start, end);
+				start = end;
 			}
 			
-			// Attempt to resolve it
 			try {
-				ScriptReference ref = resolveObject(path, object);
-				buffer.delete(index, start);
-				String toInsert = asString(ref);
-				
-				buffer.insert(index, toInsert);
-				start = index + toInsert.length();
-			} catch (NoSuchElementException e) {
-				if (ignoreResolutionErrors) {
-					buffer.delete(index, start);
-					start = index;
-				} else {
-					throw e;
+				ExpressionTemplate.Path compiled = compilePath(path);
+				if (literal.length() != 0) {
+					parts.add(literal.toString());
+					literal.setLength(0);
 				}
+				parts.add(compiled);
 			} catch (IllegalArgumentException e) {
-				if (ignoreSyntaxErrors) {
-					buffer.delete(index, start);
-					start = index;
-				} else {
+				// The token is removed
+				if (!ignoreSyntaxErrors) {
 					throw e;
 				}
 			}
 		}
 		
-		return buffer.toString();
+		if (literal.length() != 0) {
+			parts.add(literal.toString());
+		}
+		
+		return new ExpressionTemplate(input, parts.toArray());
 	}
 	
-	private static String asString(ScriptReference ref) {
+	static String asString(ScriptReference ref) {
 		if (ref == null) {
 			return "";
 		} else if (ref instanceof ScriptValue<?>) {
@@ -0,0 +1,133 @@
+package au.com.mineauz.minigames.script;
+
+import java.util.NoSuchElementException;
+
+/**
+ * A string with its tokens already parsed by {@link ExpressionParser#compile(String, boolean)}.
+ * Resolving it only looks up the objects in each path, so a template can be compiled
+ * once and resolved many times.
+ */
+public final class ExpressionTemplate {
+	private final String source;
+	// Each part is either a literal String or a Path
+	private final Object[] parts;
+	
+	ExpressionTemplate(String source, Object[] parts) {
+		this.source = source;
+		this.parts = parts;
+	}
+	
+	/**
+	 * @return The string this template was compiled from
+	 */
+	public String getSource() {
+		return source;
+	}
+	
+	/**
+	 * @return True if this template has no tokens to resolve
+	 */
+	public boolean isConstant() {
+		return parts.length == 0 || (parts.length == 1 && parts[0] instanceof String);
+	}
+	
+	/**
+	 * Resolves all tokens in this template
+	 * @param object The object to resolve from
+	 * @param ignoreResolutionErrors When true, tokens that cannot be resolved are left empty
+	 * @return The template with all tokens resolved
+	 * @throws NoSuchElementException Thrown if an object in a path cannot be resolved. Only thrown if ignoreResolutionErrors is false
+	 */
+	public String resolve(ScriptObject object, boolean ignoreResolutionErrors) throws NoSuchElementException {
+		if (parts.length == 0) {
+			return "";
+		} else if (parts.length == 1 && parts[0] instanceof String) {
+			return (String)parts[0];
+		}
+		
+		StringBuilder builder = new StringBuilder(source.length() + 16);
+		for (Object part : parts) {
+			if (part instanceof String) {
+				builder.append((String)part);
+				continue;
+			}
+			
+			try {
+				builder.append(ExpressionParser.asString(((Path)part).resolve(object)));
+			} catch (NoSuchElementException e) {
+				if (!ignoreResolutionErrors) {
+					throw e;
+				}
+			}
+		}
+		
+		return builder.toString();
+	}
+	
+	@Override
+	public String toString() {
+		return source;
+	}
+	
+	/**
+	 * A parsed object path such as <code>teams[red].name</code>
+	 */
+	static final class Path {
+		private final String[] segments;
+		private final String[] names;
+		private final String[] keys;
+		
+		Path(String[] segments, String[] names, String[] keys) {
+			this.segments = segments;
+			this.names = names;
+			this.keys = keys;
+		}
+		
+		private String pathTo(int segment) {
+			StringBuilder path = new StringBuilder();
+			for (int i = 0; i <= segment; ++i) {
+				if (i != 0) {
+					path.append('.');
+				}
+				path.append(segments[i]);
+			}
+			return path.toString();
+		}
+		
+		public ScriptReference resolve(ScriptObject root) throws NoSuchElementException {
+			ScriptReference lastRef = null;
+			ScriptObject current = root;
+			
+			for (int i = 0; i < names.length; ++i) {
+				if (current == null) {
+					throw new NoSuchElementException("Unable to resolve '" + pathTo(i) + "'");
+				}
+				
+				ScriptReference ref = current.get(names[i]);
+				if (ref == null) {
+					throw new NoSuchElementException("Unknown object " + names[i] + " at '" + pathTo(i) + "'");
+				}
+				
+				// Index group
+				if (keys[i] != null && ref instanceof ScriptCollection) {
+					try {
+						ref = ((ScriptCollection) ref).getValue(keys[i]);
+					} catch (IllegalArgumentException e) {
+						throw new NoSuchElementException("Invalid key '" + keys[i] + "' for '" + pathTo(i) + "'");
+					} catch (NoSuchElementException e) {
+						throw new NoSuchElementException("Key '" + keys[i] + "' is not found for '" + pathTo(i) + "'");
+					}
+				}
+				
+				lastRef = ref;
+				if (ref instanceof ScriptObject) {
+					current = (ScriptObject)ref;
+				} else {
+					current = null;
+				}
+			}
+			
+			return lastRef;
+		}
+	}
+}
@@ -0,0 +1,167 @@
+package au.com.mineauz.minigames.blockRecorder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ModifierIndexTest {
+	private static final String ALICE = "alice";
+	private static final String BOB = "bob";
+	
+	private Map<Long, Change> store;
+	private ModifierIndex<String, Change> index;
+	private int visited;
+	
+	@Before
+	public void setUp(){
+		store = new HashMap<Long, Change>();
+		index = new ModifierIndex<String, Change>();
+		visited = 0;
+	}
+	
+	// Records a change the same way RecorderData does for blocks
+	private void record(long key, String modifier){
+		Change existing = store.get(key);
+		if(existing == null){
+			Change change = new Change(key, modifier);
+			store.put(key, change);
+			index.add(modifier, change);
+		}
+		else if(existing.modifier != modifier){
+			existing.modifier = modifier;
+			index.add(modifier, existing);
+		}
+	}
+	
+	// Rolls back a single player the same way RecorderData does for blocks
+	private List<Change> rollback(String modifier){
+		List<Change> restored = new ArrayList<Change>();
+		for(Change change : index.remove(modifier)){
+			++visited;
+			if(modifier.equals(change.modifier) && store.get(change.key) == change){
+				store.remove(change.key);
+				restored.add(change);
+			}
+		}
+		return restored;
+	}
+	
+	@Test
+	public void recordsChangesByModifier(){
+		record(1, ALICE);
+		record(2, ALICE);
+		record(3, BOB);
+		record(4, null);
+		
+		assertEquals(2, index.size(ALICE));
+		assertEquals(1, index.size(BOB));
+		assertEquals(0, index.size(null));
+		
+		// Recording the same block again for the same player does not index it twice
+		record(1, ALICE);
+		assertEquals(2, index.size(ALICE));
+	}
+	
+	@Test
+	public void rollbackOnlyRestoresThatPlayersChanges(){
+		record(1, ALICE);
+		record(2, ALICE);
+		record(3, BOB);
+		record(4, null);
+		
+		List<Change> restored = rollback(ALICE);
+		
+		assertEquals(2, restored.size());
+		assertEquals(1, restored.get(0).key);
+		assertEquals(2, restored.get(1).key);
+		assertFalse(store.containsKey(1L));
+		assertFalse(store.containsKey(2L));
+		assertTrue(store.containsKey(3L));
+		assertTrue(store.containsKey(4L));
+		assertEquals(1, index.size(BOB));
+	}
+	
+	@Test
+	public void rollbackSkipsChangesTakenOver(){
+		record(1, ALICE);
+		record(2, ALICE);
+		record(1, BOB);
+		
+		List<Change> restored = rollback(ALICE);
+		
+		assertEquals(1, restored.size());
+		assertEquals(2, restored.get(0).key);
+		assertSame(BOB, store.get(1L).modifier);
+		
+		restored = rollback(BOB);
+		assertEquals(1, restored.size());
+		assertEquals(1, restored.get(0).key);
+		assertTrue(store.isEmpty());
+	}
+	
+	@Test
+	public void rollbackCostDoesNotGrowWithOtherPlayersChanges(){
+		for(long key = 0; key < 10; ++key){
+			record(key, ALICE);
+		}
+		
+		int[] others = {0, 1000, 100000};
+		long next = 10;
+		for(int count : others){
+			for(int i = 0; i < count; ++i){
+				record(next++, BOB);
+			}
+			for(long key = 0; key < 10; ++key){
+				record(key, ALICE);
+			}
+			
+			visited = 0;
+			assertEquals(10, rollback(ALICE).size());
+			assertEquals(10, visited);
+		}
+	}
+	
+	@Test
+	public void rollbackRemovesIndexEntries(){
+		record(1, ALICE);
+		record(2, BOB);
+		
+		rollback(ALICE);
+		assertEquals(0, index.size(ALICE));
+		assertTrue(index.remove(ALICE).isEmpty());
+		
+		rollback(BOB);
+		assertTrue(index.isEmpty());
+	}
+	
+	@Test
+	public void clearRemovesAllEntries(){
+		record(1, ALICE);
+		record(2, BOB);
+		
+		index.clear();
+		
+		assertTrue(index.isEmpty());
+		assertEquals(0, index.size(ALICE));
+		assertTrue(index.remove(BOB).isEmpty());
+	}
+	
+	private static class Change {
+		private final long key;
+		private String modifier;
+		
+		public Change(long key, String modifier){
+			this.key = key;
+			this.modifier = modifier;
+		}
+	}
+}
@@ -0,0 +1,223 @@
+package au.com.mineauz.minigamesregions;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.scheduler.BukkitTask;
+
+import au.com.mineauz.minigames.MinigamePlayer;
+import au.com.mineauz.minigames.blockRecorder.RecorderData;
+import au.com.mineauz.minigames.minigame.Minigame;
+import au.com.mineauz.minigames.minigame.MinigameState;
+
+/**
+ * Applies block changes to whole regions a chunk at a time, within a time budget
+ * each tick. Edits run in the order they are submitted, and as much of an edit as
+ * fits in the budget is applied straight away, so small regions change immediately.
+ * The original blocks are recorded with the minigame so they are rolled back with it.
+ * Edits belonging to a minigame are cancelled before it is rolled back, and skipped
+ * if the minigame is no longer running.
+ */
+public class BlockEditQueue implements Runnable {
+	private static final long TICK_BUDGET = TimeUnit.MILLISECONDS.toNanos(10);
+	// How many blocks are edited between checks of the time
+	private static final int CHECK_INTERVAL = 64;
+	
+	private final Deque<Edit> edits = new ArrayDeque<Edit>();
+	private BukkitTask task;
+	private long editedBlocks;
+	
+	/**
+	 * A change to apply to each block in a region
+	 */
+	public interface Operation {
+		/**
+		 * @return True if the block should be changed
+		 */
+		public boolean matches(Block block);
+		public void apply(Block block);
+	}
+	
+	/**
+	 * Applies the operation to every block in the region
+	 * @param player The player that caused the edit. When in a minigame, the changes are recorded for its rollback
+	 */
+	public void submit(Region region, Operation operation, MinigamePlayer player){
+		Minigame minigame = null;
+		if(player != null && player.isInMinigame()){
+			minigame = player.getMinigame();
+			if(!isRunning(minigame)){
+				return;
+			}
+		}
+		
+		Edit edit = new Edit(region, operation, minigame, player);
+		if(edits.isEmpty()){
+			if(edit.run(System.nanoTime())){
+				return;
+			}
+		}
+		
+		edits.add(edit);
+		if(task == null){
+			task = Bukkit.getScheduler().runTaskTimer(Main.getPlugin(), this, 1, 1);
+		}
+	}
+	
+	@Override
+	public void run() {
+		long start = System.nanoTime();
+		while(!edits.isEmpty() && System.nanoTime() - start < TICK_BUDGET){
+			Edit edit = edits.peek();
+			if(edit.minigame != null && !isRunning(edit.minigame)){
+				edits.poll();
+			}
+			else if(edit.run(start)){
+				edits.poll();
+			}
+		}
+		
+		if(edits.isEmpty()){
+			task.cancel();
+			task = null;
+		}
+	}
+	
+	/**
+	 * Cancels the edits of a minigame. This must be done before the minigame is rolled back,
+	 * so blocks are not changed or recorded while it is being restored. Blocks that were
+	 * already changed have been recorded, so they are restored with the rest.
+	 * @param player Only cancel the edits caused by this player, or null for all of them
+	 */
+	public void cancel(Minigame minigame, MinigamePlayer player){
+		Iterator<Edit> it = edits.iterator();
+		while(it.hasNext()){
+			Edit edit = it.next();
+			if(edit.minigame == minigame && (player == null || edit.player == player)){
+				it.remove();
+			}
+		}
+	}
+	
+	private static boolean isRunning(Minigame minigame){
+		return !minigame.getPlayers().isEmpty() && minigame.getState() != MinigameState.REGENERATING;
+	}
+	
+	public void stop(){
+		if(task != null){
+			task.cancel();
+			task = null;
+		}
+		edits.clear();
+	}
+	
+	/**
+	 * @return The number of region edits waiting to be applied
+	 */
+	public int getPendingEdits(){
+		return edits.size();
+	}
+	
+	/**
+	 * @return The total number of blocks changed
+	 */
+	public long getEditedBlocks(){
+		return editedBlocks;
+	}
+	
+	private class Edit {
+		private final World world;
+		private final int minX, minY, minZ;
+		private final int maxX, maxY, maxZ;
+		private final Operation operation;
+		private final Minigame minigame;
+		private final RecorderData recorder;
+		private final MinigamePlayer player;
+		
+		// The next block to edit, visiting each chunk column in turn
+		private int chunkX, chunkZ;
+		private int chunkMinX, chunkMaxX, chunkMinZ, chunkMaxZ;
+		private int x, y, z;
+		private boolean done;
+		
+		public Edit(Region region, Operation operation, Minigame minigame, MinigamePlayer player){
+			world = region.getWorld();
+			minX = region.getMinX();
+			minY = region.getMinY();
+			minZ = region.getMinZ();
+			maxX = region.getMaxX();
+			maxY = region.getMaxY();
+			maxZ = region.getMaxZ();
+			this.operation = operation;
+			this.minigame = minigame;
+			this.recorder = (minigame != null ? minigame.getBlockRecorder() : null);
+			this.player = player;
+			
+			chunkX = minX >> 4;
+			chunkZ = minZ >> 4;
+			startChunk();
+		}
+		
+		private void startChunk(){
+			chunkMinX = Math.max(minX, chunkX << 4);
+			chunkMaxX = Math.min(maxX, (chunkX << 4) + 15);
+			chunkMinZ = Math.max(minZ, chunkZ << 4);
+			chunkMaxZ = Math.min(maxZ, (chunkZ << 4) + 15);
+			x = chunkMinX;
+			y = minY;
+			z = chunkMinZ;
+		}
+		
+		private void advance(){
+			if(++z <= chunkMaxZ){
+				return;
+			}
+			z = chunkMinZ;
+			if(++x <= chunkMaxX){
+				return;
+			}
+			x = chunkMinX;
+			if(++y <= maxY){
+				return;
+			}
+			
+			// Next chunk
+			if(++chunkZ > maxZ >> 4){
+				chunkZ = minZ >> 4;
+				if(++chunkX > maxX >> 4){
+					done = true;
+					return;
+				}
+			}
+			startChunk();
+		}
+		
+		/**
+		 * @return True if the edit is complete
+		 */
+		public boolean run(long start){
+			int count = 0;
+			while(!done){
+				if(++count % CHECK_INTERVAL == 0 && System.nanoTime() - start >= TICK_BUDGET){
+					return false;
+				}
+				
+				Block block = world.getBlockAt(x, y, z);
+				if(operation.matches(block)){
+					if(recorder != null){
+						recorder.addBlock(block, player);
+					}
+					operation.apply(block);
+					++editedBlocks;
+				}
+				advance();
+			}
+			return true;
+		}
+	}
+}
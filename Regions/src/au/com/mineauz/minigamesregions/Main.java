@@ -18,6 +18,10 @@ public class Main extends JavaPlugin{
 	private static Main plugin;
 	
 	private RegionDisplayManager display;
+	private RegionTicker ticker;
+	private BlockEditQueue blockEdits;
+	private TriggerQueue triggers;
+	private RegionLoader loader;
 	
 	@Override
 	public void onEnable(){
@@ -35,6 +39,13 @@ public class Main extends JavaPlugin{
 			}
 			
 			display = new RegionDisplayManager();
+			ticker = new RegionTicker();
+			ticker.start();
+			blockEdits = new BlockEditQueue();
+			triggers = new TriggerQueue();
+			loader = new RegionLoader();
+			// Minigames are loaded on the first tick, so their regions can be read until then
+			loader.preload(minigames.getConfig().getStringList("minigames"));
 			
 			minigames.mdata.addModule(RegionModule.class);
 			
@@ -71,6 +82,9 @@ public class Main extends JavaPlugin{
 		ToolModes.removeToolMode("REGION_AND_NODE_EDITOR");
 		
 		display.shutdown();
+		ticker.stop();
+		blockEdits.stop();
+		loader.clear();
 		
 		getLogger().info("Minigames Regions disabled");
 	}
@@ -86,4 +100,20 @@ public class Main extends JavaPlugin{
 	public RegionDisplayManager getDisplayManager() {
 		return display;
 	}
+	
+	public RegionTicker getTicker() {
+		return ticker;
+	}
+	
+	public BlockEditQueue getBlockEditQueue() {
+		return blockEdits;
+	}
+	
+	public TriggerQueue getTriggerQueue() {
+		return triggers;
+	}
+	
+	public RegionLoader getRegionLoader() {
+		return loader;
+	}
 }
@@ -1,6 +1,7 @@
 package au.com.mineauz.minigamesregions;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
 
@@ -16,13 +17,19 @@ import au.com.mineauz.minigames.script.ScriptWrapper;
 import au.com.mineauz.minigamesregions.actions.ActionInterface;
 import au.com.mineauz.minigamesregions.conditions.ConditionInterface;
 import au.com.mineauz.minigamesregions.triggers.Trigger;
+import au.com.mineauz.minigamesregions.triggers.Triggers;
 
 public class Node implements ScriptObject {
+	private static final NodeExecutor[] NO_EXECUTORS = new NodeExecutor[0];
 	
 	private String name;
 	private Location loc;
 	private List<NodeExecutor> executors = new ArrayList<NodeExecutor>();
+	// Executors by trigger id, rebuilt when executors are added or removed
+	private NodeExecutor[][] triggerTable;
 	private boolean enabled = true;
+	// The module this node has been added to, kept so its block index can be updated
+	private RegionModule module;
 	
 	public Node(String name, Location loc){
 		this.name = name;
@@ -39,15 +46,24 @@ public class Node implements ScriptObject {
 	
 	public void setLocation(Location loc) {
 		this.loc = loc.clone();
+		if(module != null){
+			module.invalidateNodeIndex();
+		}
+	}
+	
+	void setModule(RegionModule module){
+		this.module = module;
 	}
 	
 	public int addExecutor(Trigger trigger){
 		executors.add(new NodeExecutor(trigger));
+		triggerTable = null;
 		return executors.size();
 	}
 	
 	public int addExecutor(NodeExecutor exec){
 		executors.add(exec);
+		triggerTable = null;
 		return executors.size();
 	}
 	
@@ -58,15 +74,49 @@ public class Node implements ScriptObject {
 	public void removeExecutor(int id){
 		if(executors.size() <= id){
 			executors.remove(id - 1);
+			triggerTable = null;
 		}
 	}
 	
 	public void removeExecutor(NodeExecutor executor){
 		if(executors.contains(executor)){
 			executors.remove(executor);
+			triggerTable = null;
 		}
 	}
 	
+	private NodeExecutor[] getExecutors(Trigger trigger){
+		if(triggerTable == null){
+			NodeExecutor[][] table = new NodeExecutor[Triggers.getTriggerCount()][];
+			for(NodeExecutor exec : executors){
+				int id = Triggers.getId(exec.getTrigger());
+				if(id == -1)
+					continue;
+				if(table[id] == null){
+					table[id] = new NodeExecutor[] {exec};
+				}
+				else{
+					NodeExecutor[] added = Arrays.copyOf(table[id], table[id].length + 1);
+					added[table[id].length] = exec;
+					table[id] = added;
+				}
+			}
+			triggerTable = table;
+		}
+		
+		int id = Triggers.getId(trigger);
+		if(id < 0 || id >= triggerTable.length || triggerTable[id] == null)
+			return NO_EXECUTORS;
+		return triggerTable[id];
+	}
+	
+	/**
+	 * @return True if this node has any executors for the trigger
+	 */
+	public boolean hasExecutors(Trigger trigger){
+		return getExecutors(trigger).length != 0;
+	}
+	
 	public void setEnabled(boolean enabled){
 		this.enabled = enabled;
 	}
@@ -76,13 +126,14 @@ public class Node implements ScriptObject {
 	}
 	
 	public void execute(Trigger trigger, MinigamePlayer player){
+		NodeExecutor[] execs = getExecutors(trigger);
+		if(execs.length == 0) return;
 		if(player != null && player.getMinigame() != null && player.getMinigame().isSpectator(player)) return;
-		List<NodeExecutor> toExecute = new ArrayList<NodeExecutor>();
-		for(NodeExecutor exec : executors){
-			if(exec.getTrigger() == trigger){
-				if(checkConditions(exec, player) && exec.canBeTriggered(player))
-					toExecute.add(exec);
-			}
+		// Check all conditions before running any actions
+		List<NodeExecutor> toExecute = new ArrayList<NodeExecutor>(execs.length);
+		for(NodeExecutor exec : execs){
+			if(checkConditions(exec, player) && exec.canBeTriggered(player))
+				toExecute.add(exec);
 		}
 		for(NodeExecutor exec : toExecute){
 			execute(exec, player);
@@ -90,7 +141,7 @@ public class Node implements ScriptObject {
 	}
 	
 	public boolean checkConditions(NodeExecutor exec, MinigamePlayer player){
-		for(ConditionInterface con : exec.getConditions()){
+		for(ConditionInterface con : exec.getCheckOrder()){
 			boolean c = con.checkNodeCondition(player, this);
 			if(con.isInverted())
 				c = !c;
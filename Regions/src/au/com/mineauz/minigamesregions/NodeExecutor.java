@@ -1,7 +1,7 @@
 package au.com.mineauz.minigamesregions;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -9,6 +9,7 @@ import au.com.mineauz.minigames.MinigamePlayer;
 import au.com.mineauz.minigames.menu.Callback;
 import au.com.mineauz.minigamesregions.actions.ActionInterface;
 import au.com.mineauz.minigamesregions.conditions.ConditionInterface;
+import au.com.mineauz.minigamesregions.conditions.Conditions;
 import au.com.mineauz.minigamesregions.triggers.Trigger;
 
 
@@ -16,10 +17,14 @@ public class NodeExecutor {
 	
 	private Trigger trigger;
 	private List<ConditionInterface> conditions = new ArrayList<ConditionInterface>();
+	// Conditions cheapest first, rebuilt when conditions are added or removed
+	private ConditionInterface[] checkOrder;
 	private List<ActionInterface> actions = new ArrayList<ActionInterface>();
 	private boolean triggerPerPlayer = false;
 	private int triggerCount = 0;
-	private Map<String, Integer> triggers = new HashMap<String, Integer>();
+	private int publicTriggers;
+	// Each count is a single element array so it can be incremented in place
+	private Map<MinigamePlayer, int[]> playerTriggers = new IdentityHashMap<MinigamePlayer, int[]>();
 	
 	public NodeExecutor(Trigger trigger){
 		this.trigger = trigger;
@@ -35,10 +40,22 @@ public class NodeExecutor {
 	
 	public void addCondition(ConditionInterface condition){
 		conditions.add(condition);
+		checkOrder = null;
 	}
 	
 	public void removeCondition(ConditionInterface condition){
 		conditions.remove(condition);
+		checkOrder = null;
+	}
+	
+	/**
+	 * @return The conditions of this executor in the order they should be checked
+	 */
+	public ConditionInterface[] getCheckOrder(){
+		if(checkOrder == null){
+			checkOrder = Conditions.getCheckOrder(conditions);
+		}
+		return checkOrder;
 	}
 	
 	public List<ActionInterface> getActions(){
@@ -100,29 +117,28 @@ public class NodeExecutor {
 	}
 	
 	public void addPublicTrigger(){
-		if(!triggers.containsKey("public"))
-			triggers.put("public", 0);
-		triggers.put("public", triggers.get("public") + 1);
+		++publicTriggers;
 	}
 	
 	public void addPlayerTrigger(MinigamePlayer player){
-		String uuid = player.getUUID().toString();
-		if(!triggers.containsKey(uuid))
-			triggers.put(uuid, 0);
-		triggers.put(uuid, triggers.get(uuid) + 1);
+		int[] count = playerTriggers.get(player);
+		if(count == null){
+			count = new int[1];
+			playerTriggers.put(player, count);
+		}
+		++count[0];
 	}
 	
 	public boolean canBeTriggered(MinigamePlayer player){
 		if(triggerCount != 0){
 			if(!triggerPerPlayer){
-				if(triggers.get("public") != null && 
-						triggers.get("public") >= triggerCount){
+				if(publicTriggers >= triggerCount){
 					return false;
 				}
 			}
 			else{
-				if(triggers.get(player.getUUID().toString()) != null && 
-						triggers.get(player.getUUID().toString()) >= triggerCount){
+				int[] count = playerTriggers.get(player);
+				if(count != null && count[0] >= triggerCount){
 					return false;
 				}
 			}
@@ -131,10 +147,11 @@ public class NodeExecutor {
 	}
 	
 	public void clearTriggers(){
-		triggers.clear();
+		publicTriggers = 0;
+		playerTriggers.clear();
 	}
 	
 	public void removeTrigger(MinigamePlayer player){
-		triggers.remove(player.getUUID().toString());
+		playerTriggers.remove(player);
 	}
 }
@@ -1,17 +1,19 @@
 package au.com.mineauz.minigamesregions;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 
-import org.bukkit.Bukkit;
 import org.bukkit.Location;
+import org.bukkit.World;
 
 import com.google.common.collect.ImmutableSet;
 
 import au.com.mineauz.minigames.MinigamePlayer;
 import au.com.mineauz.minigames.MinigameUtils;
-import au.com.mineauz.minigames.Minigames;
 import au.com.mineauz.minigames.script.ScriptCollection;
 import au.com.mineauz.minigames.script.ScriptObject;
 import au.com.mineauz.minigames.script.ScriptReference;
@@ -23,13 +25,26 @@ import au.com.mineauz.minigamesregions.triggers.Trigger;
 import au.com.mineauz.minigamesregions.triggers.Triggers;
 
 public class Region implements ScriptObject {
+	private static final RegionExecutor[] NO_EXECUTORS = new RegionExecutor[0];
+	private static final Trigger TICK = Triggers.getTrigger("TICK");
+	
 	private String name;
 	private Location point1;
 	private Location point2;
+	private World world;
+	private int minX, minY, minZ;
+	private int maxX, maxY, maxZ;
 	private List<RegionExecutor> executors = new ArrayList<RegionExecutor>();
-	private List<MinigamePlayer> players = new ArrayList<MinigamePlayer>();
+	// Executors by trigger id, rebuilt when executors are added or removed
+	private RegionExecutor[][] triggerTable;
+	// MinigamePlayer does not override equals, so this is keyed by identity
+	private Set<MinigamePlayer> players = new LinkedHashSet<MinigamePlayer>();
+	private Set<MinigamePlayer> playersView = Collections.unmodifiableSet(players);
+	// The module this region has been added to, which tracks the regions each player is in
+	private RegionModule module;
 	private long taskDelay = 20;
-	private int taskID;
+	private long tickCount;
+	private long tickNanos;
 	private boolean enabled = true;
 	
 	public Region(String name, Location point1, Location point2){
@@ -37,58 +52,60 @@ public class Region implements ScriptObject {
 		this.point1 = locs[0].clone();
 		this.point2 = locs[1].clone();
 		this.name = name;
+		updateBounds();
+	}
+	
+	private void updateBounds(){
+		world = point1.getWorld();
+		minX = point1.getBlockX();
+		minY = point1.getBlockY();
+		minZ = point1.getBlockZ();
+		maxX = point2.getBlockX();
+		maxY = point2.getBlockY();
+		maxZ = point2.getBlockZ();
 	}
 	
 	public boolean playerInRegion(MinigamePlayer player){
-		if(player.getLocation().getWorld() == point1.getWorld()){
-			int minx = point1.getBlockX();
-			int maxx = point2.getBlockX();
-			int plyx = player.getLocation().getBlockX();
-			
-			if(plyx >= minx && plyx <= maxx){
-				int miny = point1.getBlockY();
-				int maxy = point2.getBlockY();
-				int plyy = player.getLocation().getBlockY();
-				
-				if(plyy >= miny && plyy <= maxy){
-					int minz = point1.getBlockZ();
-					int maxz = point2.getBlockZ();
-					int plyz = player.getLocation().getBlockZ();
-					
-					if(plyz >= minz && plyz <= maxz){
-						return true;
-					}
-				}
-				
-			}
-		}
-		return false;
+		return locationInRegion(player.getLocation());
 	}
 	
 	public boolean locationInRegion(Location loc){
-		if(loc.getWorld() == point1.getWorld()){
-			int minx = point1.getBlockX();
-			int maxx = point2.getBlockX();
-			int plyx = loc.getBlockX();
-			
-			if(plyx >= minx && plyx <= maxx){
-				int miny = point1.getBlockY();
-				int maxy = point2.getBlockY();
-				int plyy = loc.getBlockY();
-				
-				if(plyy >= miny && plyy <= maxy){
-					int minz = point1.getBlockZ();
-					int maxz = point2.getBlockZ();
-					int plyz = loc.getBlockZ();
-					
-					if(plyz >= minz && plyz <= maxz){
-						return true;
-					}
-				}
-				
-			}
-		}
-		return false;
+		return blockInRegion(loc.getWorld(), loc.getBlockX(), loc.getBlockY(), loc.getBlockZ());
+	}
+	
+	public boolean blockInRegion(World world, int x, int y, int z){
+		return world == this.world &&
+				x >= minX && x <= maxX &&
+				y >= minY && y <= maxY &&
+				z >= minZ && z <= maxZ;
+	}
+	
+	public World getWorld(){
+		return world;
+	}
+	
+	public int getMinX(){
+		return minX;
+	}
+	
+	public int getMinY(){
+		return minY;
+	}
+	
+	public int getMinZ(){
+		return minZ;
+	}
+	
+	public int getMaxX(){
+		return maxX;
+	}
+	
+	public int getMaxY(){
+		return maxY;
+	}
+	
+	public int getMaxZ(){
+		return maxZ;
 	}
 	
 	public String getName(){
@@ -107,6 +124,9 @@ public class Region implements ScriptObject {
 		Location[] locs = MinigameUtils.getMinMaxSelection(point1, point2);
 		this.point1 = locs[0];
 		this.point2 = locs[1];
+		updateBounds();
+		if(module != null)
+			module.invalidateRegionIndex();
 	}
 	
 	public boolean hasPlayer(MinigamePlayer player){
@@ -114,24 +134,54 @@ public class Region implements ScriptObject {
 	}
 	
 	public void addPlayer(MinigamePlayer player){
-		players.add(player);
+		if(!players.add(player))
+			return;
+		if(module != null)
+			module.addPlayerRegion(player, this);
+		if(players.size() == 1)
+			startTickTask();
 	}
 	
 	public void removePlayer(MinigamePlayer player){
-		players.remove(player);
+		if(!players.remove(player))
+			return;
+		if(module != null)
+			module.removePlayerRegion(player, this);
+		if(players.isEmpty())
+			removeTickTask();
+	}
+	
+	/**
+	 * @return An unmodifiable view of the players in this region
+	 */
+	public Set<MinigamePlayer> getPlayerSet(){
+		return playersView;
 	}
 	
+	/**
+	 * @return An unmodifiable copy of the players in this region
+	 * @deprecated Use {@link #getPlayerSet()}, which does not copy the players
+	 */
+	@Deprecated
 	public List<MinigamePlayer> getPlayers(){
-		return players;
+		return Collections.unmodifiableList(new ArrayList<MinigamePlayer>(players));
+	}
+	
+	void setModule(RegionModule module){
+		this.module = module;
 	}
 	
 	public int addExecutor(Trigger trigger){
 		executors.add(new RegionExecutor(trigger));
+		triggerTable = null;
+		startTickTask();
 		return executors.size();
 	}
 	
 	public int addExecutor(RegionExecutor exec){
 		executors.add(exec);
+		triggerTable = null;
+		startTickTask();
 		return executors.size();
 	}
 	
@@ -142,52 +192,104 @@ public class Region implements ScriptObject {
 	public void removeExecutor(int id){
 		if(executors.size() <= id){
 			executors.remove(id - 1);
+			triggerTable = null;
+			startTickTask();
 		}
 	}
 	
 	public void removeExecutor(RegionExecutor executor){
 		if(executors.contains(executor)){
 			executors.remove(executor);
+			triggerTable = null;
+			startTickTask();
 		}
 	}
 	
-	public void changeTickDelay(long delay){
-		removeTickTask();
-		taskDelay = delay;
-		taskID = Bukkit.getScheduler().scheduleSyncRepeatingTask(Minigames.plugin, new Runnable() {
-			
-			@Override
-			public void run() {
-				List<MinigamePlayer> plys = new ArrayList<MinigamePlayer>(players);
-				for(MinigamePlayer player : plys){
-					execute(Triggers.getTrigger("TICK"), player);
+	private RegionExecutor[] getExecutors(Trigger trigger){
+		if(triggerTable == null){
+			RegionExecutor[][] table = new RegionExecutor[Triggers.getTriggerCount()][];
+			for(RegionExecutor exec : executors){
+				int id = Triggers.getId(exec.getTrigger());
+				if(id == -1)
+					continue;
+				if(table[id] == null){
+					table[id] = new RegionExecutor[] {exec};
+				}
+				else{
+					RegionExecutor[] added = Arrays.copyOf(table[id], table[id].length + 1);
+					added[table[id].length] = exec;
+					table[id] = added;
 				}
 			}
-		}, 0, delay);
+			triggerTable = table;
+		}
+		
+		int id = Triggers.getId(trigger);
+		if(id < 0 || id >= triggerTable.length || triggerTable[id] == null)
+			return NO_EXECUTORS;
+		return triggerTable[id];
+	}
+	
+	/**
+	 * @return True if this region has any executors for the trigger
+	 */
+	public boolean hasExecutors(Trigger trigger){
+		return getExecutors(trigger).length != 0;
+	}
+	
+	public void changeTickDelay(long delay){
+		taskDelay = delay;
+		RegionTicker ticker = Main.getPlugin().getTicker();
+		if(ticker.isScheduled(this))
+			ticker.schedule(this);
 	}
 	
 	public long getTickDelay(){
 		return taskDelay;
 	}
 	
+	/**
+	 * Starts running this region's TICK executors if it has any and there are players in it.
+	 * This is kept up to date as players enter and leave the region.
+	 */
 	public void startTickTask(){
-		if(taskID != -1)
-			removeTickTask();
-		
-		taskID = Bukkit.getScheduler().scheduleSyncRepeatingTask(Minigames.plugin, new Runnable() {
-			
-			@Override
-			public void run() {
-				List<MinigamePlayer> plys = new ArrayList<MinigamePlayer>(players);
-				for(MinigamePlayer player : plys){
-					execute(Triggers.getTrigger("TICK"), player);
-				}
-			}
-		}, 0, taskDelay);
+		RegionTicker ticker = Main.getPlugin().getTicker();
+		if(!players.isEmpty() && hasExecutors(TICK))
+			ticker.schedule(this);
+		else
+			ticker.unschedule(this);
 	}
 	
 	public void removeTickTask(){
-		Bukkit.getScheduler().cancelTask(taskID);
+		Main.getPlugin().getTicker().unschedule(this);
+	}
+	
+	void tick(){
+		// Executors may remove players from the region
+		for(MinigamePlayer player : players.toArray(new MinigamePlayer[players.size()])){
+			execute(TICK, player);
+		}
+	}
+	
+	void recordTick(long nanos){
+		++tickCount;
+		tickNanos += nanos;
+	}
+	
+	/**
+	 * @return The number of times this region's TICK executors have run
+	 */
+	public long getTickCount(){
+		return tickCount;
+	}
+	
+	/**
+	 * @return The average time taken to run this region's TICK executors in nanoseconds
+	 */
+	public double getAverageTickNanos(){
+		if(tickCount == 0)
+			return 0;
+		return (double)tickNanos / tickCount;
 	}
 	
 	public void setEnabled(boolean enabled){
@@ -199,13 +301,14 @@ public class Region implements ScriptObject {
 	}
 	
 	public void execute(Trigger trigger, MinigamePlayer player){
+		RegionExecutor[] execs = getExecutors(trigger);
+		if(execs.length == 0) return;
 		if(player != null && player.getMinigame() != null && player.getMinigame().isSpectator(player)) return;
-		List<RegionExecutor> toExecute = new ArrayList<RegionExecutor>();
-		for(RegionExecutor exec : executors){
-			if(exec.getTrigger() == trigger){
-				if(checkConditions(exec, player) && exec.canBeTriggered(player))
-					toExecute.add(exec);
-			}
+		// Check all conditions before running any actions
+		List<RegionExecutor> toExecute = new ArrayList<RegionExecutor>(execs.length);
+		for(RegionExecutor exec : execs){
+			if(checkConditions(exec, player) && exec.canBeTriggered(player))
+				toExecute.add(exec);
 		}
 		for(RegionExecutor exec : toExecute){
 			execute(exec, player);
@@ -213,7 +316,7 @@ public class Region implements ScriptObject {
 	}
 	
 	public boolean checkConditions(RegionExecutor exec, MinigamePlayer player){
-		for(ConditionInterface con : exec.getConditions()){
+		for(ConditionInterface con : exec.getCheckOrder()){
 			boolean c = con.checkRegionCondition(player, this);
 			if(con.isInverted())
 				c = !c;
@@ -1,7 +1,12 @@
 package au.com.mineauz.minigamesregions;
 
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
 import org.bukkit.Bukkit;
 import org.bukkit.Location;
+import org.bukkit.World;
 import org.bukkit.block.Block;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
@@ -40,24 +45,78 @@ public class RegionEvents implements Listener{
 	
 	private Minigames plugin = Minigames.plugin;
 	private PlayerData pdata = plugin.pdata;
+	private TriggerQueue triggers = Main.getPlugin().getTriggerQueue();
+	
+	private final Trigger blockBreakTrigger = Triggers.getTrigger("BLOCK_BREAK");
+	private final Trigger blockPlaceTrigger = Triggers.getTrigger("BLOCK_PLACE");
+	private final Trigger deathTrigger = Triggers.getTrigger("DEATH");
+	private final Trigger enterTrigger = Triggers.getTrigger("ENTER");
+	private final Trigger foodChangeTrigger = Triggers.getTrigger("FOOD_CHANGE");
+	private final Trigger gameEndTrigger = Triggers.getTrigger("GAME_END");
+	private final Trigger gameJoinTrigger = Triggers.getTrigger("GAME_JOIN");
+	private final Trigger gameQuitTrigger = Triggers.getTrigger("GAME_QUIT");
+	private final Trigger gameStartTrigger = Triggers.getTrigger("GAME_START");
+	private final Trigger interactTrigger = Triggers.getTrigger("INTERACT");
+	private final Trigger itemDropTrigger = Triggers.getTrigger("ITEM_DROP");
+	private final Trigger itemPickupTrigger = Triggers.getTrigger("ITEM_PICKUP");
+	private final Trigger leaveTrigger = Triggers.getTrigger("LEAVE");
+	private final Trigger leftClickBlockTrigger = Triggers.getTrigger("LEFT_CLICK_BLOCK");
+	private final Trigger minigameTimerTrigger = Triggers.getTrigger("MINIGAME_TIMER");
+	private final Trigger playerDamageTrigger = Triggers.getTrigger("PLAYER_DAMAGE");
+	private final Trigger playerTakeFlagTrigger = Triggers.getTrigger("PLAYER_TAKE_FLAG");
+	private final Trigger respawnTrigger = Triggers.getTrigger("RESPAWN");
+	private final Trigger rightClickBlockTrigger = Triggers.getTrigger("RIGHT_CLICK_BLOCK");
+	private final Trigger xpChangeTrigger = Triggers.getTrigger("XP_CHANGE");
+	
+	private Map<MinigamePlayer, CheckedBlock> lastChecked = new HashMap<MinigamePlayer, CheckedBlock>();
 	
 	private void executeRegionChanges(Minigame mg, MinigamePlayer ply){
-		for(Region r : RegionModule.getMinigameModule(mg).getRegions()){
-			if(r.playerInRegion(ply)){
-				if(!r.hasPlayer(ply)){
-					r.addPlayer(ply);
-					r.execute(Triggers.getTrigger("ENTER"), ply);
-					EnterRegionEvent ev = new EnterRegionEvent(ply, r);
-					Bukkit.getPluginManager().callEvent(ev);
-				}
+		executeRegionChanges(mg, ply, ply.getLocation());
+	}
+	
+	private void executeRegionChanges(Minigame mg, MinigamePlayer ply, Location location){
+		RegionModule module = getRegionModule(mg);
+		RegionIndex index = module.getRegionIndex();
+		World world = location.getWorld();
+		int x = location.getBlockX();
+		int y = location.getBlockY();
+		int z = location.getBlockZ();
+		
+		// Regions the player is in may have been moved away from their chunk, so leaving is checked separately
+		Region[] in = module.getRegions(ply);
+		Region[] current = index.getRegions(world, x, z);
+		for(Region r : current){
+			checkRegion(r, ply, world, x, y, z);
+		}
+		for(Region r : in){
+			if(!Arrays.asList(current).contains(r)){
+				checkRegion(r, ply, world, x, y, z);
 			}
-			else{
-				if(r.hasPlayer(ply)){
-					r.removePlayer(ply);
-					r.execute(Triggers.getTrigger("LEAVE"), ply);
-					LeaveRegionEvent ev = new LeaveRegionEvent(ply, r);
-					Bukkit.getPluginManager().callEvent(ev);
-				}
+		}
+		
+		CheckedBlock last = lastChecked.get(ply);
+		if(last == null){
+			last = new CheckedBlock();
+			lastChecked.put(ply, last);
+		}
+		last.set(world, x, y, z, index);
+	}
+	
+	private void checkRegion(Region r, MinigamePlayer ply, World world, int x, int y, int z){
+		if(r.blockInRegion(world, x, y, z)){
+			if(!r.hasPlayer(ply)){
+				r.addPlayer(ply);
+				r.execute(enterTrigger, ply);
+				EnterRegionEvent ev = new EnterRegionEvent(ply, r);
+				Bukkit.getPluginManager().callEvent(ev);
+			}
+		}
+		else{
+			if(r.hasPlayer(ply)){
+				r.removePlayer(ply);
+				r.execute(leaveTrigger, ply);
+				LeaveRegionEvent ev = new LeaveRegionEvent(ply, r);
+				Bukkit.getPluginManager().callEvent(ev);
 			}
 		}
 	}
@@ -71,8 +130,13 @@ public class RegionEvents implements Listener{
 		MinigamePlayer ply = pdata.getMinigamePlayer(event.getPlayer());
 		if(ply == null) return;
 		if(ply.isInMinigame()){
+			// Looking around or moving within a block can't change regions
 			Minigame mg = ply.getMinigame();
-			executeRegionChanges(mg, ply);
+			CheckedBlock last = lastChecked.get(ply);
+			if(last != null && last.matches(event.getTo(), getRegionModule(mg).getRegionIndex())){
+				return;
+			}
+			executeRegionChanges(mg, ply, event.getTo());
 		}
 	}
 	
@@ -93,11 +157,11 @@ public class RegionEvents implements Listener{
 					executeRegionChanges(mg, ply);
 					
 					for(Node node : RegionModule.getMinigameModule(ply.getMinigame()).getNodes()){
-						node.execute(Triggers.getTrigger("RESPAWN"), ply);
+						node.execute(respawnTrigger, ply);
 					}
-					for(Region region : RegionModule.getMinigameModule(ply.getMinigame()).getRegions()){
-						if(region.hasPlayer(ply))
-							region.execute(Triggers.getTrigger("RESPAWN"), ply);
+					for(Region region : RegionModule.getMinigameModule(ply.getMinigame()).getRegions(ply)){
+						if(region.hasExecutors(respawnTrigger) && region.hasPlayer(ply))
+							region.execute(respawnTrigger, ply);
 					}
 				}
 			});
@@ -110,11 +174,11 @@ public class RegionEvents implements Listener{
 		if(ply == null) return;
 		if(ply.isInMinigame()){
 			for(Node node : RegionModule.getMinigameModule(ply.getMinigame()).getNodes()){
-				node.execute(Triggers.getTrigger("DEATH"), ply);
+				node.execute(deathTrigger, ply);
 			}
-			for(Region region : RegionModule.getMinigameModule(ply.getMinigame()).getRegions()){
-				if(region.hasPlayer(ply))
-					region.execute(Triggers.getTrigger("DEATH"), ply);
+			for(Region region : RegionModule.getMinigameModule(ply.getMinigame()).getRegions(ply)){
+				if(region.hasExecutors(deathTrigger) && region.hasPlayer(ply))
+					region.execute(deathTrigger, ply);
 			}
 		}
 	}
@@ -131,30 +195,20 @@ public class RegionEvents implements Listener{
 				executeRegionChanges(mg, ply);
 				
 				for(Node node : RegionModule.getMinigameModule(mg).getNodes()){
-					node.execute(Triggers.getTrigger("GAME_JOIN"), ply);
+					node.execute(gameJoinTrigger, ply);
 				}
-				for(Region region : RegionModule.getMinigameModule(mg).getRegions()){
-					if(region.hasPlayer(ply))
-						region.execute(Triggers.getTrigger("GAME_JOIN"), ply);
+				for(Region region : RegionModule.getMinigameModule(mg).getRegions(ply)){
+					if(region.hasExecutors(gameJoinTrigger) && region.hasPlayer(ply))
+						region.execute(gameJoinTrigger, ply);
 				}
 			}
 		});
-		if(event.getMinigame().getPlayers().size() == 0){
-			for(Region region : RegionModule.getMinigameModule(event.getMinigame()).getRegions()){
-				for(RegionExecutor ex : region.getExecutors()){
-					if(ex.getTrigger().getName().equalsIgnoreCase("TICK")){
-						region.startTickTask();
-						break;
-					}
-				}
-			}
-		}
 	}
 	
 	@EventHandler
 	private void minigameStart(StartMinigameEvent event){
 		for(Node node : RegionModule.getMinigameModule(event.getMinigame()).getNodes()){
-			node.execute(Triggers.getTrigger("GAME_START"), null);
+			node.execute(gameStartTrigger, null);
 		}
 	}
 	
@@ -163,12 +217,13 @@ public class RegionEvents implements Listener{
 		MinigamePlayer ply = event.getMinigamePlayer();
 		if(ply == null) return;
 		Minigame mg = ply.getMinigame();
-		for(Region r : RegionModule.getMinigameModule(mg).getRegions()){
+		for(Region r : RegionModule.getMinigameModule(mg).getRegions(ply)){
 			if(r.hasPlayer(ply))
 				r.removePlayer(ply);
 		}
+		lastChecked.remove(ply);
 		for(Node node : RegionModule.getMinigameModule(event.getMinigame()).getNodes()){
-			node.execute(Triggers.getTrigger("GAME_QUIT"), event.getMinigamePlayer());
+			node.execute(gameQuitTrigger, event.getMinigamePlayer());
 			if(event.getMinigame().getPlayers().size() > 1){
 				for(NodeExecutor exec : node.getExecutors())
 					exec.removeTrigger(event.getMinigamePlayer());
@@ -181,7 +236,7 @@ public class RegionEvents implements Listener{
 		}
 		for(Region region : RegionModule.getMinigameModule(event.getMinigame()).getRegions()){
 			if(region.playerInRegion(ply))
-				region.execute(Triggers.getTrigger("GAME_QUIT"), event.getMinigamePlayer());
+				region.execute(gameQuitTrigger, event.getMinigamePlayer());
 			if(event.getMinigame().getPlayers().size() > 1){
 				for(RegionExecutor exec : region.getExecutors())
 					exec.removeTrigger(event.getMinigamePlayer());
@@ -196,17 +251,30 @@ public class RegionEvents implements Listener{
 		}
 	}
 	
+	@EventHandler(priority=EventPriority.MONITOR, ignoreCancelled=true)
+	private void cancelBlockEdits(QuitMinigameEvent event){
+		// The quitting player's changes, or the whole arena if they are the last one, are about to be rolled back
+		Minigame mg = event.getMinigame();
+		if(mg.getPlayers().size() > 1){
+			Main.getPlugin().getBlockEditQueue().cancel(mg, event.getMinigamePlayer());
+		}
+		else{
+			Main.getPlugin().getBlockEditQueue().cancel(mg, null);
+		}
+	}
+	
 	@EventHandler(ignoreCancelled = true)
 	private void playersEnd(EndMinigameEvent event){
 		for(MinigamePlayer ply : event.getWinners()){
 			Minigame mg = ply.getMinigame();
-			for(Region r : RegionModule.getMinigameModule(mg).getRegions()){
+			for(Region r : RegionModule.getMinigameModule(mg).getRegions(ply)){
 				if(r.hasPlayer(ply))
 					r.removePlayer(ply);
 			}
+			lastChecked.remove(ply);
 		}
 		for(Node node : RegionModule.getMinigameModule(event.getMinigame()).getNodes()){
-			node.execute(Triggers.getTrigger("GAME_END"), null);
+			node.execute(gameEndTrigger, null);
 			for(NodeExecutor exec : node.getExecutors())
 				exec.clearTriggers();
 		}
@@ -230,7 +298,7 @@ public class RegionEvents implements Listener{
 				case WOOD_PLATE:
 				case IRON_PLATE:
 				case GOLD_PLATE:
-					trigger(ply, event.getClickedBlock(), Triggers.getTrigger("INTERACT"));
+					trigger(ply, event.getClickedBlock(), interactTrigger);
 					break;
 				default:
 					break;
@@ -239,7 +307,7 @@ public class RegionEvents implements Listener{
 				switch (event.getClickedBlock().getType()) {
 				case WOOD_BUTTON:
 				case STONE_BUTTON:
-					trigger(ply, event.getClickedBlock(), Triggers.getTrigger("INTERACT"));
+					trigger(ply, event.getClickedBlock(), interactTrigger);
 					break;
 				default:
 					break;
@@ -248,27 +316,15 @@ public class RegionEvents implements Listener{
 		}
 		
 		if (event.getAction() == Action.LEFT_CLICK_BLOCK) {
-			trigger(ply, event.getClickedBlock(), Triggers.getTrigger("LEFT_CLICK_BLOCK"));
+			trigger(ply, event.getClickedBlock(), leftClickBlockTrigger);
 		} else if (event.getAction() == Action.RIGHT_CLICK_BLOCK) {
-			trigger(ply, event.getClickedBlock(), Triggers.getTrigger("RIGHT_CLICK_BLOCK"));
+			trigger(ply, event.getClickedBlock(), rightClickBlockTrigger);
 		}
 	}
 	
-	private void trigger(final MinigamePlayer player, final Block block, final Trigger trigger) {
-		Bukkit.getScheduler().scheduleSyncDelayedTask(plugin, new Runnable() {
-			@Override
-			public void run() {
-				if (!player.isInMinigame()) {
-					return;
-				}
-				
-				for (Node node : RegionModule.getMinigameModule(player.getMinigame()).getNodes()) {
-					if (node.getLocation().getBlock().equals(block)) {
-						node.execute(trigger, player);
-					}
-				}
-			}
-		});
+	private void trigger(MinigamePlayer player, Block block, Trigger trigger) {
+		// Pressure plates are interacted with every tick while stood on
+		triggers.add(trigger, player, block, true);
 	}
 	
 	@EventHandler(ignoreCancelled = true)
@@ -277,33 +333,7 @@ public class RegionEvents implements Listener{
 		if(ply == null)return;
 		
 		if(ply.isInMinigame()){
-			final Location loc2 = event.getBlock().getLocation();
-			Bukkit.getScheduler().scheduleSyncDelayedTask(plugin, new Runnable() {
-				
-				@Override
-				public void run() {
-					if (!ply.isInMinigame()) {
-						return;
-					}
-					
-					for(Node node : RegionModule.getMinigameModule(ply.getMinigame()).getNodes()){
-						if(node.getLocation().getWorld() == loc2.getWorld()){
-							Location loc1 = node.getLocation();
-							if(loc1.getBlockX() == loc2.getBlockX() &&
-									loc1.getBlockY() == loc2.getBlockY() &&
-									loc1.getBlockZ() == loc2.getBlockZ()){
-								node.execute(Triggers.getTrigger("BLOCK_BREAK"), ply);
-							}
-						}
-					}
-					
-					for(Region region : RegionModule.getMinigameModule(ply.getMinigame()).getRegions()){
-						if (region.locationInRegion(loc2)) {
-							region.execute(Triggers.getTrigger("BLOCK_BREAK"), ply);
-						}
-					}
-				}
-			});
+			triggers.add(blockBreakTrigger, ply, event.getBlock(), false);
 		}
 	}
 	
@@ -313,40 +343,14 @@ public class RegionEvents implements Listener{
 		if(ply == null)return;
 		
 		if(ply.isInMinigame()){
-			final Location loc2 = event.getBlock().getLocation();
-			Bukkit.getScheduler().scheduleSyncDelayedTask(plugin, new Runnable() {
-				
-				@Override
-				public void run() {
-					if (!ply.isInMinigame()) {
-						return;
-					}
-					
-					for(Node node : RegionModule.getMinigameModule(ply.getMinigame()).getNodes()){
-						if(node.getLocation().getWorld() == loc2.getWorld()){
-							Location loc1 = node.getLocation();
-							if(loc1.getBlockX() == loc2.getBlockX() &&
-									loc1.getBlockY() == loc2.getBlockY() &&
-									loc1.getBlockZ() == loc2.getBlockZ()){
-								node.execute(Triggers.getTrigger("BLOCK_PLACE"), ply);
-							}
-						}
-					}
-					
-					for(Region region : RegionModule.getMinigameModule(ply.getMinigame()).getRegions()){
-						if (region.locationInRegion(loc2)) {
-							region.execute(Triggers.getTrigger("BLOCK_PLACE"), ply);
-						}
-					}
-				}
-			});
+			triggers.add(blockPlaceTrigger, ply, event.getBlock(), false);
 		}
 	}
 	
 	@EventHandler
 	private void minigameTimerTick(MinigameTimerTickEvent event){
 		for(Node node : getRegionModule(event.getMinigame()).getNodes()){
-			node.execute(Triggers.getTrigger("MINIGAME_TIMER"), null);
+			node.execute(minigameTimerTrigger, null);
 		}
 	}
 	
@@ -356,27 +360,7 @@ public class RegionEvents implements Listener{
 		if(ply == null) return;
 		
 		if(ply.isInMinigame()){
-			final Trigger trig = Triggers.getTrigger("ITEM_PICKUP");
-			
-			Bukkit.getScheduler().scheduleSyncDelayedTask(plugin, new Runnable() {
-				
-				@Override
-				public void run() {
-					if (!ply.isInMinigame()) {
-						return;
-					}
-					
-					for(Node node : getRegionModule(ply.getMinigame()).getNodes()){
-						node.execute(trig, ply);
-					}
-					
-					for(Region region : getRegionModule(ply.getMinigame()).getRegions()){
-						if(region.hasPlayer(ply)){
-							region.execute(trig, ply);
-						}
-					}
-				}
-			});
+			triggers.add(itemPickupTrigger, ply, false);
 		}
 	}
 	
@@ -386,27 +370,7 @@ public class RegionEvents implements Listener{
 		if(ply == null) return;
 		
 		if(ply.isInMinigame()){
-			final Trigger trig = Triggers.getTrigger("ITEM_DROP");
-			
-			Bukkit.getScheduler().scheduleSyncDelayedTask(plugin, new Runnable() {
-				
-				@Override
-				public void run() {
-					if (!ply.isInMinigame()) {
-						return;
-					}
-
-					for(Node node : getRegionModule(ply.getMinigame()).getNodes()){
-						node.execute(trig, ply);
-					}
-					
-					for(Region region : getRegionModule(ply.getMinigame()).getRegions()){
-						if(region.hasPlayer(ply)){
-							region.execute(trig, ply);
-						}
-					}
-				}
-			});
+			triggers.add(itemDropTrigger, ply, false);
 		}
 	}
 	
@@ -422,7 +386,7 @@ public class RegionEvents implements Listener{
 			return;
 		}
 		
-		executeTrigger(Triggers.getTrigger("XP_CHANGE"), player);
+		triggers.add(xpChangeTrigger, player, true);
 	}
 	
 	@EventHandler(priority=EventPriority.MONITOR, ignoreCancelled=true)
@@ -436,7 +400,7 @@ public class RegionEvents implements Listener{
 			return;
 		}
 		
-		executeTrigger(Triggers.getTrigger("FOOD_CHANGE"), player);
+		triggers.add(foodChangeTrigger, player, true);
 	}
 	
 	@EventHandler(priority=EventPriority.MONITOR, ignoreCancelled=true)
@@ -450,38 +414,36 @@ public class RegionEvents implements Listener{
 			return;
 		}
 		
-		executeTrigger(Triggers.getTrigger("PLAYER_DAMAGE"), player);
+		triggers.add(playerDamageTrigger, player, true);
 	}
 	
 	@EventHandler(priority=EventPriority.MONITOR, ignoreCancelled=true)
 	private void playerGetFlag(TakeFlagEvent event) {
-		executeTrigger(Triggers.getTrigger("PLAYER_TAKE_FLAG"), event.getPlayer());
+		triggers.add(playerTakeFlagTrigger, event.getPlayer(), false);
 	}
 	
-	private void executeTrigger(final Trigger trigger, final MinigamePlayer player) {
-		Bukkit.getScheduler().scheduleSyncDelayedTask(plugin, new Runnable() {
-			@Override
-			public void run() {
-				if (!player.isInMinigame()) {
-					return;
-				}
-
-				RegionModule module = getRegionModule(player.getMinigame());
-				
-				if (trigger.useInNodes()) {
-					for (Node node : module.getNodes()) {
-						node.execute(trigger, player);
-					}
-				}
-				
-				if (trigger.useInRegions()) {
-					for (Region region : module.getRegions()) {
-						if (region.hasPlayer(player)) {
-							region.execute(trigger, player);
-						}
-					}
-				}
-			}
-		});
+	private static class CheckedBlock {
+		private World world;
+		private int x;
+		private int y;
+		private int z;
+		// Regions may have changed if the index has been rebuilt since
+		private RegionIndex index;
+		
+		public void set(World world, int x, int y, int z, RegionIndex index){
+			this.world = world;
+			this.x = x;
+			this.y = y;
+			this.z = z;
+			this.index = index;
+		}
+		
+		public boolean matches(Location location, RegionIndex index){
+			return index == this.index &&
+					location.getWorld() == world &&
+					location.getBlockX() == x &&
+					location.getBlockY() == y &&
+					location.getBlockZ() == z;
+		}
 	}
 }
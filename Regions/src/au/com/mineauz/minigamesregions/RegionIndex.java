@@ -0,0 +1,65 @@
+package au.com.mineauz.minigamesregions;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.bukkit.World;
+
+import au.com.mineauz.minigames.blockRecorder.BlockPosition;
+import au.com.mineauz.minigames.blockRecorder.LongHashMap;
+
+/**
+ * Regions bucketed by the chunks they overlap, so finding the regions that may
+ * contain a block only needs to test the regions in its chunk.
+ */
+public class RegionIndex {
+	private static final Region[] NONE = new Region[0];
+	
+	private final Map<World, LongHashMap<Region[]>> index = new IdentityHashMap<World, LongHashMap<Region[]>>();
+	
+	public RegionIndex(Collection<Region> regions){
+		for(Region region : regions){
+			add(region);
+		}
+	}
+	
+	private void add(Region region){
+		LongHashMap<Region[]> chunks = index.get(region.getWorld());
+		if(chunks == null){
+			chunks = new LongHashMap<Region[]>();
+			index.put(region.getWorld(), chunks);
+		}
+		
+		for(int x = region.getMinX() >> 4; x <= region.getMaxX() >> 4; ++x){
+			for(int z = region.getMinZ() >> 4; z <= region.getMaxZ() >> 4; ++z){
+				long key = BlockPosition.getChunkKey(x, z);
+				Region[] existing = chunks.get(key);
+				if(existing == null){
+					chunks.put(key, new Region[] {region});
+				}
+				else{
+					Region[] added = Arrays.copyOf(existing, existing.length + 1);
+					added[existing.length] = region;
+					chunks.put(key, added);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * @return The regions that overlap the chunk containing the given block. This may include regions that do not contain the block.
+	 */
+	public Region[] getRegions(World world, int x, int z){
+		LongHashMap<Region[]> chunks = index.get(world);
+		if(chunks == null){
+			return NONE;
+		}
+		Region[] regions = chunks.get(BlockPosition.getChunkKey(x >> 4, z >> 4));
+		if(regions == null){
+			return NONE;
+		}
+		return regions;
+	}
+}
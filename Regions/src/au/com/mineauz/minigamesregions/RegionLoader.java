@@ -0,0 +1,389 @@
+package au.com.mineauz.minigamesregions;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Reads and parses the region configs of minigames on background threads, so
+ * only creating the regions and nodes themselves is left for the main thread
+ * when each minigame loads.
+ */
+public class RegionLoader {
+	private final Map<String, Future<ModuleData>> pending = new ConcurrentHashMap<String, Future<ModuleData>>();
+	
+	/**
+	 * Starts reading the region configs of the minigames in parallel
+	 * @param minigames The names of the minigames that are about to be loaded
+	 */
+	public void preload(Collection<String> minigames){
+		if(minigames.isEmpty()){
+			return;
+		}
+		
+		int threads = Math.min(minigames.size(), Runtime.getRuntime().availableProcessors());
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads), new ThreadFactoryBuilder()
+				.setNameFormat("Minigames Regions Loader #%d")
+				.setDaemon(true)
+				.build());
+		
+		for(final String minigame : minigames){
+			final File file = new File(Main.getMinigames().getDataFolder(), "minigames/" + minigame + "/regions.yml");
+			if(!file.exists()){
+				continue;
+			}
+			
+			pending.put(minigame, executor.submit(new Callable<ModuleData>() {
+				@Override
+				public ModuleData call() throws Exception {
+					long start = System.nanoTime();
+					FileConfiguration config = YamlConfiguration.loadConfiguration(file);
+					return parse(minigame, config, start);
+				}
+			}));
+		}
+		// Lets the threads finish once the queued configs are read
+		executor.shutdown();
+	}
+	
+	/**
+	 * Removes and returns the parsed config of a minigame, waiting for it if it is still being read
+	 * @return The parsed config or null if it was not preloaded or could not be read
+	 */
+	public ModuleData take(String minigame){
+		Future<ModuleData> future = pending.remove(minigame);
+		if(future == null){
+			return null;
+		}
+		
+		try{
+			return future.get();
+		}
+		catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			return null;
+		}
+		catch(ExecutionException e){
+			Main.getPlugin().getLogger().log(Level.WARNING, "Failed to preload the regions of " + minigame + ", loading them normally", e.getCause());
+			return null;
+		}
+	}
+	
+	/**
+	 * Discards any configs that were never taken
+	 */
+	public void clear(){
+		for(Future<ModuleData> future : pending.values()){
+			future.cancel(false);
+		}
+		pending.clear();
+	}
+	
+	/**
+	 * Parses the regions and nodes of a minigame. This does not touch any worlds so it is safe to call from any thread.
+	 */
+	public static ModuleData parse(String minigame, FileConfiguration config){
+		return parse(minigame, config, System.nanoTime());
+	}
+	
+	private static ModuleData parse(String minigame, FileConfiguration config, long start){
+		ImmutableList.Builder<RegionData> regions = ImmutableList.builder();
+		ImmutableList.Builder<NodeData> nodes = ImmutableList.builder();
+		
+		ConfigurationSection root = config.getConfigurationSection(minigame);
+		if(root != null){
+			ConfigurationSection section = root.getConfigurationSection("regions");
+			if(section != null){
+				for(String name : section.getKeys(false)){
+					ConfigurationSection region = section.getConfigurationSection(name);
+					if(region == null){
+						continue;
+					}
+					
+					regions.add(new RegionData(name,
+							new PointData(region.getConfigurationSection("point1")),
+							new PointData(region.getConfigurationSection("point2")),
+							region.contains("tickDelay") ? region.getLong("tickDelay") : -1,
+							parseExecutors(region.getConfigurationSection("executors"))));
+				}
+			}
+			
+			section = root.getConfigurationSection("nodes");
+			if(section != null){
+				for(String name : section.getKeys(false)){
+					ConfigurationSection node = section.getConfigurationSection(name);
+					if(node == null){
+						continue;
+					}
+					
+					nodes.add(new NodeData(name,
+							new PointData(node.getConfigurationSection("point")),
+							parseExecutors(node.getConfigurationSection("executors"))));
+				}
+			}
+		}
+		
+		return new ModuleData(config, regions.build(), nodes.build(), System.nanoTime() - start);
+	}
+	
+	private static List<ExecutorData> parseExecutors(ConfigurationSection section){
+		if(section == null){
+			return ImmutableList.of();
+		}
+		
+		ImmutableList.Builder<ExecutorData> executors = ImmutableList.builder();
+		for(String key : section.getKeys(false)){
+			ConfigurationSection executor = section.getConfigurationSection(key);
+			if(executor == null){
+				continue;
+			}
+			
+			executors.add(new ExecutorData(executor.getString("trigger"),
+					parseArguments(executor.getConfigurationSection("actions")),
+					parseArguments(executor.getConfigurationSection("conditions")),
+					executor.getBoolean("isTriggeredPerPlayer", false),
+					executor.getInt("triggerCount", 0)));
+		}
+		return executors.build();
+	}
+	
+	private static List<ArgumentData> parseArguments(ConfigurationSection section){
+		if(section == null){
+			return ImmutableList.of();
+		}
+		
+		ImmutableList.Builder<ArgumentData> arguments = ImmutableList.builder();
+		for(String key : section.getKeys(false)){
+			ConfigurationSection argument = section.getConfigurationSection(key);
+			if(argument == null){
+				continue;
+			}
+			
+			arguments.add(new ArgumentData(argument.getString("type"), argument.getCurrentPath() + ".arguments"));
+		}
+		return arguments.build();
+	}
+	
+	/**
+	 * The parsed regions and nodes of one minigame
+	 */
+	public static final class ModuleData {
+		private final FileConfiguration config;
+		private final List<RegionData> regions;
+		private final List<NodeData> nodes;
+		private final long parseNanos;
+		
+		private ModuleData(FileConfiguration config, List<RegionData> regions, List<NodeData> nodes, long parseNanos){
+			this.config = config;
+			this.regions = regions;
+			this.nodes = nodes;
+			this.parseNanos = parseNanos;
+		}
+		
+		/**
+		 * @return The config this was parsed from. Actions and conditions load their arguments from it.
+		 */
+		public FileConfiguration getConfig(){
+			return config;
+		}
+		
+		public List<RegionData> getRegions(){
+			return regions;
+		}
+		
+		public List<NodeData> getNodes(){
+			return nodes;
+		}
+		
+		/**
+		 * @return The time taken to read and parse the config in nanoseconds
+		 */
+		public long getParseNanos(){
+			return parseNanos;
+		}
+	}
+	
+	public static final class RegionData {
+		private final String name;
+		private final PointData point1;
+		private final PointData point2;
+		private final long tickDelay;
+		private final List<ExecutorData> executors;
+		
+		private RegionData(String name, PointData point1, PointData point2, long tickDelay, List<ExecutorData> executors){
+			this.name = name;
+			this.point1 = point1;
+			this.point2 = point2;
+			this.tickDelay = tickDelay;
+			this.executors = executors;
+		}
+		
+		public String getName(){
+			return name;
+		}
+		
+		public PointData getFirstPoint(){
+			return point1;
+		}
+		
+		public PointData getSecondPoint(){
+			return point2;
+		}
+		
+		/**
+		 * @return The tick delay of the region, or -1 if it uses the default
+		 */
+		public long getTickDelay(){
+			return tickDelay;
+		}
+		
+		public List<ExecutorData> getExecutors(){
+			return executors;
+		}
+	}
+	
+	public static final class NodeData {
+		private final String name;
+		private final PointData point;
+		private final List<ExecutorData> executors;
+		
+		private NodeData(String name, PointData point, List<ExecutorData> executors){
+			this.name = name;
+			this.point = point;
+			this.executors = executors;
+		}
+		
+		public String getName(){
+			return name;
+		}
+		
+		public PointData getPoint(){
+			return point;
+		}
+		
+		public List<ExecutorData> getExecutors(){
+			return executors;
+		}
+	}
+	
+	/**
+	 * A location with the name of its world, which can only be resolved on the main thread
+	 */
+	public static final class PointData {
+		private final String world;
+		private final double x, y, z;
+		private final float yaw, pitch;
+		
+		private PointData(ConfigurationSection section){
+			if(section == null){
+				world = null;
+				x = y = z = 0;
+				yaw = pitch = 0;
+				return;
+			}
+			
+			world = section.getString("world");
+			x = section.getDouble("x");
+			y = section.getDouble("y");
+			z = section.getDouble("z");
+			yaw = (float)section.getDouble("yaw");
+			pitch = (float)section.getDouble("pitch");
+		}
+		
+		public String getWorld(){
+			return world;
+		}
+		
+		public double getX(){
+			return x;
+		}
+		
+		public double getY(){
+			return y;
+		}
+		
+		public double getZ(){
+			return z;
+		}
+		
+		public float getYaw(){
+			return yaw;
+		}
+		
+		public float getPitch(){
+			return pitch;
+		}
+	}
+	
+	public static final class ExecutorData {
+		private final String trigger;
+		private final List<ArgumentData> actions;
+		private final List<ArgumentData> conditions;
+		private final boolean triggerPerPlayer;
+		private final int triggerCount;
+		
+		private ExecutorData(String trigger, List<ArgumentData> actions, List<ArgumentData> conditions, boolean triggerPerPlayer, int triggerCount){
+			this.trigger = trigger;
+			this.actions = actions;
+			this.conditions = conditions;
+			this.triggerPerPlayer = triggerPerPlayer;
+			this.triggerCount = triggerCount;
+		}
+		
+		public String getTrigger(){
+			return trigger;
+		}
+		
+		public List<ArgumentData> getActions(){
+			return actions;
+		}
+		
+		public List<ArgumentData> getConditions(){
+			return conditions;
+		}
+		
+		public boolean isTriggerPerPlayer(){
+			return triggerPerPlayer;
+		}
+		
+		public int getTriggerCount(){
+			return triggerCount;
+		}
+	}
+	
+	/**
+	 * An action or condition type, and the path in the config its arguments are loaded from
+	 */
+	public static final class ArgumentData {
+		private final String type;
+		private final String path;
+		
+		private ArgumentData(String type, String path){
+			this.type = type;
+			this.path = path;
+		}
+		
+		public String getType(){
+			return type;
+		}
+		
+		public String getPath(){
+			return path;
+		}
+	}
+}
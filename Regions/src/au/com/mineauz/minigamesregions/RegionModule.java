@@ -1,7 +1,9 @@
 package au.com.mineauz.minigamesregions;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -9,11 +11,14 @@ import java.util.Set;
 import org.bukkit.Location;
 import org.bukkit.Material;
 import org.bukkit.World;
+import org.bukkit.block.Block;
 import org.bukkit.configuration.file.FileConfiguration;
 
 import au.com.mineauz.minigames.MinigamePlayer;
 import au.com.mineauz.minigames.MinigameUtils;
 import au.com.mineauz.minigames.Minigames;
+import au.com.mineauz.minigames.blockRecorder.BlockPosition;
+import au.com.mineauz.minigames.blockRecorder.LongHashMap;
 import au.com.mineauz.minigames.config.Flag;
 import au.com.mineauz.minigames.menu.InteractionInterface;
 import au.com.mineauz.minigames.menu.Menu;
@@ -23,6 +28,12 @@ import au.com.mineauz.minigames.menu.MenuItemNewLine;
 import au.com.mineauz.minigames.menu.MenuItemPage;
 import au.com.mineauz.minigames.minigame.Minigame;
 import au.com.mineauz.minigames.minigame.modules.MinigameModule;
+import au.com.mineauz.minigamesregions.RegionLoader.ArgumentData;
+import au.com.mineauz.minigamesregions.RegionLoader.ExecutorData;
+import au.com.mineauz.minigamesregions.RegionLoader.ModuleData;
+import au.com.mineauz.minigamesregions.RegionLoader.NodeData;
+import au.com.mineauz.minigamesregions.RegionLoader.PointData;
+import au.com.mineauz.minigamesregions.RegionLoader.RegionData;
 import au.com.mineauz.minigamesregions.actions.ActionInterface;
 import au.com.mineauz.minigamesregions.actions.Actions;
 import au.com.mineauz.minigamesregions.conditions.ConditionInterface;
@@ -32,9 +43,18 @@ import au.com.mineauz.minigamesregions.menuitems.MenuItemRegion;
 import au.com.mineauz.minigamesregions.triggers.Triggers;
 
 public class RegionModule extends MinigameModule {
+	private static final Node[] NO_NODES = new Node[0];
+	private static final Region[] NO_REGIONS = new Region[0];
 	
 	private Map<String, Region> regions = new HashMap<String, Region>();
 	private Map<String, Node> nodes = new HashMap<String, Node>();
+	private RegionIndex regionIndex;
+	// Nodes by the packed position of the block they are in
+	private Map<World, LongHashMap<Node[]>> nodeIndex;
+	// The regions each player is in, kept up to date by Region.addPlayer and removePlayer
+	private Map<MinigamePlayer, Region[]> playerRegions = new IdentityHashMap<MinigamePlayer, Region[]>();
+	// The config read by the region loader, taken just before load is called
+	private ModuleData preloaded;
 	
 	public RegionModule(Minigame mgm){
 		super(mgm);
@@ -138,108 +158,98 @@ public class RegionModule extends MinigameModule {
 		}
 	}
 
+	@Override
+	public FileConfiguration getPreloadedConfig(){
+		preloaded = Main.getPlugin().getRegionLoader().take(getMinigame().getName(false));
+		if(preloaded == null){
+			return null;
+		}
+		return preloaded.getConfig();
+	}
+
 	@Override
 	public void load(FileConfiguration config) {
-		if(config.contains(getMinigame() + ".regions")){
-			Set<String> rs = config.getConfigurationSection(getMinigame() + ".regions").getKeys(false);
-			for(String name : rs){
-				String cloc1 = getMinigame() + ".regions." + name + ".point1.";
-				String cloc2 = getMinigame() + ".regions." + name + ".point2.";
-				World w1 = Minigames.plugin.getServer().getWorld(config.getString(cloc1 + "world"));
-				World w2 = Minigames.plugin.getServer().getWorld(config.getString(cloc2 + "world"));
-				double x1 = config.getDouble(cloc1 + "x");
-				double x2 = config.getDouble(cloc2 + "x");
-				double y1 = config.getDouble(cloc1 + "y");
-				double y2 = config.getDouble(cloc2 + "y");
-				double z1 = config.getDouble(cloc1 + "z");
-				double z2 = config.getDouble(cloc2 + "z");
-				Location loc1 = new Location(w1, x1, y1, z1);
-				Location loc2 = new Location(w2, x2, y2, z2);
-				
-				regions.put(name, new Region(name, loc1, loc2));
-				Region r = regions.get(name);
-				if(config.contains(getMinigame() + ".regions." + name + ".tickDelay")){
-					r.changeTickDelay(config.getLong(getMinigame() + ".regions." + name + ".tickDelay"));
+		long start = System.nanoTime();
+		ModuleData data = preloaded;
+		preloaded = null;
+		boolean background = true;
+		if(data == null || data.getConfig() != config){
+			data = RegionLoader.parse(getMinigame().getName(false), config);
+			background = false;
+		}
+		
+		for(RegionData rd : data.getRegions()){
+			Region r = new Region(rd.getName(), toLocation(rd.getFirstPoint(), false), toLocation(rd.getSecondPoint(), false));
+			regions.put(rd.getName(), r);
+			r.setModule(this);
+			if(rd.getTickDelay() != -1){
+				r.changeTickDelay(rd.getTickDelay());
+			}
+			for(ExecutorData ed : rd.getExecutors()){
+				RegionExecutor rex = new RegionExecutor(Triggers.getTrigger(ed.getTrigger()));
+				for(ArgumentData ad : ed.getActions()){
+					ActionInterface ai = Actions.getActionByName(ad.getType());
+					ai.loadArguments(config, ad.getPath());
+					rex.addAction(ai);
 				}
-				if(config.contains(getMinigame() + ".regions." + name + ".executors")){
-					Set<String> ex = config.getConfigurationSection(getMinigame() + ".regions." + name + ".executors").getKeys(false);
-					for(String i : ex){
-						String path = getMinigame() + ".regions." + name + ".executors." + i;
-						RegionExecutor rex = new RegionExecutor(Triggers.getTrigger(config.getString(path + ".trigger")));
-						
-						if(config.contains(path + ".actions")){
-							for(String a : config.getConfigurationSection(path + ".actions").getKeys(false)){
-								ActionInterface ai = Actions.getActionByName(config.getString(path + ".actions." + a + ".type"));
-								ai.loadArguments(config, path + ".actions." + a + ".arguments");
-								rex.addAction(ai);
-							}
-						}
-						if(config.contains(path + ".conditions")){
-							for(String c : config.getConfigurationSection(path + ".conditions").getKeys(false)){
-								ConditionInterface ci = Conditions.getConditionByName(config.getString(path + ".conditions." + c + ".type"));
-								ci.loadArguments(config, path + ".conditions." + c + ".arguments");
-								rex.addCondition(ci);
-							}
-						}
-						
-						if(config.contains(path + ".isTriggeredPerPlayer"))
-							rex.setTriggerPerPlayer(config.getBoolean(path + ".isTriggeredPerPlayer"));
-						if(config.contains(path + ".triggerCount"))
-							rex.setTriggerCount(config.getInt(path + ".triggerCount"));
-						r.addExecutor(rex);
-					}
+				for(ArgumentData ad : ed.getConditions()){
+					ConditionInterface ci = Conditions.getConditionByName(ad.getType());
+					ci.loadArguments(config, ad.getPath());
+					rex.addCondition(ci);
 				}
+				rex.setTriggerPerPlayer(ed.isTriggerPerPlayer());
+				rex.setTriggerCount(ed.getTriggerCount());
+				r.addExecutor(rex);
 			}
 		}
+		regionIndex = null;
 		
-		if(config.contains(getMinigame() + ".nodes")){
-			Set<String> rs = config.getConfigurationSection(getMinigame() + ".nodes").getKeys(false);
-			for(String name : rs){
-				String cloc1 = getMinigame() + ".nodes." + name + ".point.";
-				World w1 = Minigames.plugin.getServer().getWorld(config.getString(cloc1 + "world"));
-				double x1 = config.getDouble(cloc1 + "x");
-				double y1 = config.getDouble(cloc1 + "y");
-				double z1 = config.getDouble(cloc1 + "z");
-				float yaw = 0f;
-				float pitch = 0f;
-				if(config.contains(cloc1 + "yaw")){ //TODO: Remove check after next dev build
-					yaw = ((Double) config.getDouble(cloc1 + "yaw")).floatValue();
-					pitch = ((Double) config.getDouble(cloc1 + "pitch")).floatValue();
+		for(NodeData nd : data.getNodes()){
+			Node n = new Node(nd.getName(), toLocation(nd.getPoint(), true));
+			nodes.put(nd.getName(), n);
+			n.setModule(this);
+			for(ExecutorData ed : nd.getExecutors()){
+				NodeExecutor rex = new NodeExecutor(Triggers.getTrigger(ed.getTrigger()));
+				for(ArgumentData ad : ed.getActions()){
+					ActionInterface ai = Actions.getActionByName(ad.getType());
+					ai.loadArguments(config, ad.getPath());
+					rex.addAction(ai);
 				}
-				Location loc1 = new Location(w1, x1, y1, z1, yaw, pitch);
-				
-				nodes.put(name, new Node(name, loc1));
-				Node n = nodes.get(name);
-				if(config.contains(getMinigame() + ".nodes." + name + ".executors")){
-					Set<String> ex = config.getConfigurationSection(getMinigame() + ".nodes." + name + ".executors").getKeys(false);
-					for(String i : ex){
-						String path = getMinigame() + ".nodes." + name + ".executors." + i;
-						NodeExecutor rex = new NodeExecutor(Triggers.getTrigger(config.getString(path + ".trigger")));
-
-						if(config.contains(path + ".actions")){
-							for(String a : config.getConfigurationSection(path + ".actions").getKeys(false)){
-								ActionInterface ai = Actions.getActionByName(config.getString(path + ".actions." + a + ".type"));
-								ai.loadArguments(config, path + ".actions." + a + ".arguments");
-								rex.addAction(ai);
-							}
-						}
-						if(config.contains(path + ".conditions")){
-							for(String c : config.getConfigurationSection(path + ".conditions").getKeys(false)){
-								ConditionInterface ci = Conditions.getConditionByName(config.getString(path + ".conditions." + c + ".type"));
-								ci.loadArguments(config, path + ".conditions." + c + ".arguments");
-								rex.addCondition(ci);
-							}
-						}
-						
-						if(config.contains(path + ".isTriggeredPerPlayer"))
-							rex.setTriggerPerPlayer(config.getBoolean(path + ".isTriggeredPerPlayer"));
-						if(config.contains(path + ".triggerCount"))
-							rex.setTriggerCount(config.getInt(path + ".triggerCount"));
-						n.addExecutor(rex);
-					}
+				for(ArgumentData ad : ed.getConditions()){
+					ConditionInterface ci = Conditions.getConditionByName(ad.getType());
+					ci.loadArguments(config, ad.getPath());
+					rex.addCondition(ci);
 				}
+				rex.setTriggerPerPlayer(ed.isTriggerPerPlayer());
+				rex.setTriggerCount(ed.getTriggerCount());
+				n.addExecutor(rex);
 			}
 		}
+		nodeIndex = null;
+		
+		if(!data.getRegions().isEmpty() || !data.getNodes().isEmpty()){
+			long total = System.nanoTime() - start;
+			String timing;
+			if(background){
+				timing = String.format("%.1fms on the main thread, %.1fms parsing in the background", total / 1000000d, data.getParseNanos() / 1000000d);
+			}
+			else{
+				timing = String.format("%.1fms", total / 1000000d);
+			}
+			Main.getPlugin().getLogger().info("Loaded " + data.getRegions().size() + " regions and " + data.getNodes().size() + 
+					" nodes for " + getMinigame().getName(false) + " in " + timing);
+		}
+	}
+	
+	private Location toLocation(PointData point, boolean useRotation){
+		World world = null;
+		if(point.getWorld() != null){
+			world = Minigames.plugin.getServer().getWorld(point.getWorld());
+		}
+		if(useRotation){
+			return new Location(world, point.getX(), point.getY(), point.getZ(), point.getYaw(), point.getPitch());
+		}
+		return new Location(world, point.getX(), point.getY(), point.getZ());
 	}
 	
 	public static RegionModule getMinigameModule(Minigame minigame){
@@ -258,8 +268,11 @@ public class RegionModule extends MinigameModule {
 	}
 	
 	public void addRegion(String name, Region region){
-		if(!hasRegion(name))
+		if(!hasRegion(name)){
 			regions.put(name, region);
+			region.setModule(this);
+			regionIndex = null;
+		}
 	}
 	
 	public Region getRegion(String name){
@@ -278,19 +291,145 @@ public class RegionModule extends MinigameModule {
 	}
 	
 	public void removeRegion(String name){
-		if(hasRegion(name)){
-			regions.get(name).removeTickTask();
-			regions.remove(name);
+		regionIndex = null;
+		Region region = getRegion(name);
+		if(region == null){
+			return;
+		}
+		
+		regions.remove(region.getName());
+		region.removeTickTask();
+		for(MinigamePlayer player : region.getPlayerSet()){
+			removePlayerRegion(player, region);
+		}
+		region.setModule(null);
+	}
+	
+	/**
+	 * @return The regions the player is currently in. The returned array must not be modified.
+	 */
+	public Region[] getRegions(MinigamePlayer player){
+		Region[] in = playerRegions.get(player);
+		if(in == null){
+			return NO_REGIONS;
+		}
+		return in;
+	}
+	
+	void addPlayerRegion(MinigamePlayer player, Region region){
+		Region[] in = playerRegions.get(player);
+		if(in == null){
+			playerRegions.put(player, new Region[] {region});
 		}
 		else{
-			for(String n : regions.keySet()){
-				if(n.equalsIgnoreCase(name)){
-					regions.get(n).removeTickTask();
-					regions.remove(n);
-					break;
+			Region[] added = Arrays.copyOf(in, in.length + 1);
+			added[in.length] = region;
+			playerRegions.put(player, added);
+		}
+	}
+	
+	void removePlayerRegion(MinigamePlayer player, Region region){
+		Region[] in = playerRegions.get(player);
+		if(in == null){
+			return;
+		}
+		
+		if(in.length == 1){
+			if(in[0] == region){
+				playerRegions.remove(player);
+			}
+			return;
+		}
+		
+		Region[] removed = new Region[in.length - 1];
+		int i = 0;
+		for(Region r : in){
+			if(r != region){
+				if(i == removed.length){
+					return;
 				}
+				removed[i++] = r;
 			}
 		}
+		playerRegions.put(player, removed);
+	}
+	
+	/**
+	 * @return An index of the regions in this minigame by chunk. It is rebuilt after regions are added, removed or resized.
+	 */
+	public RegionIndex getRegionIndex(){
+		if(regionIndex == null){
+			regionIndex = new RegionIndex(regions.values());
+		}
+		return regionIndex;
+	}
+	
+	/**
+	 * Must be called after the bounds of a region in this minigame are changed
+	 */
+	public void invalidateRegionIndex(){
+		regionIndex = null;
+	}
+	
+	/**
+	 * @return The nodes located in the block. The returned array must not be modified.
+	 */
+	public Node[] getNodesAt(Block block){
+		return getNodesAt(block.getWorld(), block.getX(), block.getY(), block.getZ());
+	}
+	
+	/**
+	 * @return The nodes located in the block at the given position. The returned array must not be modified.
+	 */
+	public Node[] getNodesAt(World world, int x, int y, int z){
+		if(nodeIndex == null){
+			buildNodeIndex();
+		}
+		
+		LongHashMap<Node[]> blocks = nodeIndex.get(world);
+		if(blocks == null){
+			return NO_NODES;
+		}
+		Node[] found = blocks.get(BlockPosition.pack(x, y, z));
+		if(found == null){
+			return NO_NODES;
+		}
+		return found;
+	}
+	
+	private void buildNodeIndex(){
+		Map<World, LongHashMap<Node[]>> index = new IdentityHashMap<World, LongHashMap<Node[]>>();
+		for(Node node : nodes.values()){
+			Location loc = node.getLocation();
+			if(loc.getWorld() == null){
+				continue;
+			}
+			
+			LongHashMap<Node[]> blocks = index.get(loc.getWorld());
+			if(blocks == null){
+				blocks = new LongHashMap<Node[]>();
+				index.put(loc.getWorld(), blocks);
+			}
+			
+			long key = BlockPosition.pack(loc);
+			Node[] existing = blocks.get(key);
+			if(existing == null){
+				blocks.put(key, new Node[] {node});
+			}
+			else{
+				Node[] added = Arrays.copyOf(existing, existing.length + 1);
+				added[existing.length] = node;
+				blocks.put(key, added);
+			}
+		}
+		nodeIndex = index;
+	}
+	
+	/**
+	 * Called when a node in this minigame is moved
+	 */
+	public void invalidateNodeIndex(){
+		nodeIndex = null;
 	}
 	
 	public boolean hasNode(String name){
@@ -305,8 +444,11 @@ public class RegionModule extends MinigameModule {
 	}
 	
 	public void addNode(String name, Node node){
-		if(!hasNode(name))
+		if(!hasNode(name)){
 			nodes.put(name, node);
+			node.setModule(this);
+			nodeIndex = null;
+		}
 	}
 	
 	public Node getNode(String name){
@@ -325,17 +467,14 @@ public class RegionModule extends MinigameModule {
 	}
 	
 	public void removeNode(String name){
-		if(hasNode(name)){
-			nodes.remove(name);
-		}
-		else{
-			for(String n : nodes.keySet()){
-				if(n.equalsIgnoreCase(name)){
-					nodes.remove(n);
-					break;
-				}
-			}
+		Node node = getNode(name);
+		if(node == null){
+			return;
 		}
+		
+		nodes.remove(node.getName());
+		node.setModule(null);
+		nodeIndex = null;
 	}
 	
 	public void displayMenu(MinigamePlayer viewer, Menu previous){
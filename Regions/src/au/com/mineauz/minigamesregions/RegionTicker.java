@@ -0,0 +1,136 @@
+package au.com.mineauz.minigamesregions;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.bukkit.Bukkit;
+import org.bukkit.scheduler.BukkitTask;
+
+/**
+ * Runs the TICK executors of every scheduled region from a single task.
+ * Regions are grouped by their tick delay, and each group runs on the ticks
+ * that are a multiple of its delay.
+ */
+public class RegionTicker implements Runnable {
+	private static final Region[] NONE = new Region[0];
+	
+	private final Map<Long, Region[]> groups = new TreeMap<Long, Region[]>();
+	private final Map<Region, Long> scheduled = new IdentityHashMap<Region, Long>();
+	// Snapshot of the groups used while ticking, replaced whenever they change
+	private long[] delays = new long[0];
+	private Region[][] regions = new Region[0][];
+	private long tick;
+	
+	private BukkitTask task;
+	
+	public void start(){
+		if(task == null){
+			task = Bukkit.getScheduler().runTaskTimer(Main.getPlugin(), this, 1, 1);
+		}
+	}
+	
+	public void stop(){
+		if(task != null){
+			task.cancel();
+			task = null;
+		}
+	}
+	
+	/**
+	 * Runs the region's TICK executors every {@link Region#getTickDelay()} ticks.
+	 * Scheduling a region again updates its delay.
+	 */
+	public void schedule(Region region){
+		long delay = Math.max(1, region.getTickDelay());
+		Long current = scheduled.get(region);
+		if(current != null){
+			if(current == delay){
+				return;
+			}
+			unschedule(region);
+		}
+		
+		scheduled.put(region, delay);
+		Region[] group = groups.get(delay);
+		if(group == null){
+			group = NONE;
+		}
+		Region[] added = Arrays.copyOf(group, group.length + 1);
+		added[group.length] = region;
+		groups.put(delay, added);
+		updateSnapshot();
+	}
+	
+	public void unschedule(Region region){
+		Long delay = scheduled.remove(region);
+		if(delay == null){
+			return;
+		}
+		
+		Region[] group = groups.get(delay);
+		if(group.length == 1){
+			groups.remove(delay);
+			updateSnapshot();
+			return;
+		}
+		
+		Region[] removed = new Region[group.length - 1];
+		int i = 0;
+		for(Region r : group){
+			if(r != region){
+				removed[i++] = r;
+			}
+		}
+		groups.put(delay, removed);
+		updateSnapshot();
+	}
+	
+	private void updateSnapshot(){
+		long[] delays = new long[groups.size()];
+		Region[][] regions = new Region[groups.size()][];
+		int i = 0;
+		for(Map.Entry<Long, Region[]> entry : groups.entrySet()){
+			delays[i] = entry.getKey();
+			regions[i] = entry.getValue();
+			++i;
+		}
+		this.delays = delays;
+		this.regions = regions;
+	}
+	
+	public boolean isScheduled(Region region){
+		return scheduled.containsKey(region);
+	}
+	
+	/**
+	 * @return The number of regions currently being ticked
+	 */
+	public int getScheduledCount(){
+		return scheduled.size();
+	}
+	
+	@Override
+	public void run() {
+		++tick;
+		// Regions may be scheduled or unscheduled by their own executors
+		long[] delays = this.delays;
+		Region[][] regions = this.regions;
+		for(int i = 0; i < delays.length; ++i){
+			if(tick % delays[i] != 0){
+				continue;
+			}
+			
+			for(Region region : regions[i]){
+				if(!scheduled.containsKey(region)){
+					continue;
+				}
+				
+				long start = System.nanoTime();
+				region.tick();
+				region.recordTick(System.nanoTime() - start);
+			}
+		}
+	}
+}
@@ -0,0 +1,219 @@
+package au.com.mineauz.minigamesregions;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+
+import au.com.mineauz.minigames.MinigamePlayer;
+import au.com.mineauz.minigames.minigame.Minigame;
+import au.com.mineauz.minigamesregions.triggers.Trigger;
+
+/**
+ * Collects triggers caused by events during a tick and executes them all
+ * from a single task on the next tick. Triggers at a block run the nodes at
+ * that block and the regions containing it, other triggers run every node
+ * and the regions the player is in. Triggers are only run in the minigame the
+ * player was in when they were queued. Triggers may be queued from any thread,
+ * those queued off the server thread are passed to it first.
+ */
+public class TriggerQueue implements Runnable {
+	private List<Entry> pending = new ArrayList<Entry>();
+	private List<Entry> draining = new ArrayList<Entry>();
+	// Mergeable entries already queued this tick
+	private final Set<Entry> merged = new HashSet<Entry>();
+	private boolean scheduled;
+	
+	private long drains;
+	private long drainedEntries;
+	private long mergedEntries;
+	private long drainNanos;
+	private int maxDepth;
+	
+	/**
+	 * Queues a trigger for the player
+	 * @param merge When true, this is skipped if the same trigger is already queued for the player this tick
+	 */
+	public void add(Trigger trigger, MinigamePlayer player, boolean merge){
+		add(new Entry(trigger, player, player.getMinigame(), null, 0, 0, 0), merge);
+	}
+	
+	/**
+	 * Queues a trigger at a block for the player
+	 * @param merge When true, this is skipped if the same trigger is already queued for the player at the block this tick
+	 */
+	public void add(Trigger trigger, MinigamePlayer player, Block block, boolean merge){
+		add(new Entry(trigger, player, player.getMinigame(), block.getWorld(), block.getX(), block.getY(), block.getZ()), merge);
+	}
+	
+	private void add(final Entry entry, final boolean merge){
+		if(entry.minigame == null){
+			return;
+		}
+		
+		if(!Bukkit.isPrimaryThread()){
+			Bukkit.getScheduler().runTask(Main.getPlugin(), new Runnable() {
+				@Override
+				public void run() {
+					add(entry, merge);
+				}
+			});
+			return;
+		}
+		
+		if(merge && !merged.add(entry)){
+			++mergedEntries;
+			return;
+		}
+		
+		pending.add(entry);
+		if(pending.size() > maxDepth){
+			maxDepth = pending.size();
+		}
+		if(!scheduled){
+			scheduled = true;
+			Bukkit.getScheduler().runTask(Main.getPlugin(), this);
+		}
+	}
+	
+	@Override
+	public void run() {
+		long start = System.nanoTime();
+		scheduled = false;
+		
+		// Triggers caused while draining are run on the next tick
+		List<Entry> entries = pending;
+		pending = draining;
+		draining = entries;
+		merged.clear();
+		
+		for(Entry entry : entries){
+			dispatch(entry);
+		}
+		drainedEntries += entries.size();
+		entries.clear();
+		
+		++drains;
+		drainNanos += System.nanoTime() - start;
+	}
+	
+	private void dispatch(Entry entry){
+		MinigamePlayer player = entry.player;
+		if(!player.isInMinigame() || player.getMinigame() != entry.minigame){
+			return;
+		}
+		
+		RegionModule module = RegionModule.getMinigameModule(entry.minigame);
+		Trigger trigger = entry.trigger;
+		if(entry.world == null){
+			if(trigger.useInNodes()){
+				for(Node node : module.getNodes()){
+					node.execute(trigger, player);
+				}
+			}
+			
+			if(trigger.useInRegions()){
+				for(Region region : module.getRegions(player)){
+					if(region.hasExecutors(trigger) && region.hasPlayer(player)){
+						region.execute(trigger, player);
+					}
+				}
+			}
+		}
+		else{
+			if(trigger.useInNodes()){
+				for(Node node : module.getNodesAt(entry.world, entry.x, entry.y, entry.z)){
+					node.execute(trigger, player);
+				}
+			}
+			
+			if(trigger.useInRegions()){
+				for(Region region : module.getRegionIndex().getRegions(entry.world, entry.x, entry.z)){
+					if(region.hasExecutors(trigger) && region.blockInRegion(entry.world, entry.x, entry.y, entry.z)){
+						region.execute(trigger, player);
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * @return The number of triggers waiting for the next tick
+	 */
+	public int getDepth(){
+		return pending.size();
+	}
+	
+	/**
+	 * @return The most triggers that have been waiting at once
+	 */
+	public int getMaxDepth(){
+		return maxDepth;
+	}
+	
+	/**
+	 * @return The number of triggers skipped because the same trigger was already queued
+	 */
+	public long getMergedCount(){
+		return mergedEntries;
+	}
+	
+	/**
+	 * @return The number of triggers executed
+	 */
+	public long getDrainedCount(){
+		return drainedEntries;
+	}
+	
+	/**
+	 * @return The average time taken to execute a tick's triggers in nanoseconds
+	 */
+	public double getAverageDrainNanos(){
+		if(drains == 0){
+			return 0;
+		}
+		return (double)drainNanos / drains;
+	}
+	
+	private static class Entry {
+		private final Trigger trigger;
+		private final MinigamePlayer player;
+		private final Minigame minigame;
+		private final World world;
+		private final int x, y, z;
+		
+		public Entry(Trigger trigger, MinigamePlayer player, Minigame minigame, World world, int x, int y, int z){
+			this.trigger = trigger;
+			this.player = player;
+			this.minigame = minigame;
+			this.world = world;
+			this.x = x;
+			this.y = y;
+			this.z = z;
+		}
+		
+		@Override
+		public int hashCode(){
+			int hash = System.identityHashCode(trigger);
+			hash = hash * 31 + System.identityHashCode(player);
+			hash = hash * 31 + x;
+			hash = hash * 31 + y;
+			hash = hash * 31 + z;
+			return hash;
+		}
+		
+		@Override
+		public boolean equals(Object obj){
+			if(!(obj instanceof Entry)){
+				return false;
+			}
+			Entry other = (Entry)obj;
+			return trigger == other.trigger && player == other.player && minigame == other.minigame && world == other.world &&
+					x == other.x && y == other.y && z == other.z;
+		}
+	}
+}
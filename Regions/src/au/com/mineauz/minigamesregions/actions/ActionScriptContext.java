@@ -0,0 +1,59 @@
+package au.com.mineauz.minigamesregions.actions;
+
+import java.util.Set;
+
+import com.google.common.collect.ImmutableSet;
+
+import au.com.mineauz.minigames.MinigamePlayer;
+import au.com.mineauz.minigames.script.ScriptObject;
+import au.com.mineauz.minigames.script.ScriptReference;
+
+/**
+ * The root object that action messages and commands are resolved against.
+ * Each action keeps one and sets it for every execution.
+ */
+class ActionScriptContext implements ScriptObject {
+	private static final Set<String> KEYS = ImmutableSet.of("player", "area", "minigame", "team");
+	
+	private MinigamePlayer player;
+	private ScriptObject area;
+	
+	public ActionScriptContext set(MinigamePlayer player, ScriptObject area) {
+		this.player = player;
+		this.area = area;
+		return this;
+	}
+	
+	/**
+	 * Releases the player and area once resolving has finished
+	 */
+	public void clear() {
+		player = null;
+		area = null;
+	}
+	
+	@Override
+	public Set<String> getKeys() {
+		return KEYS;
+	}
+	
+	@Override
+	public String getAsString() {
+		return "";
+	}
+	
+	@Override
+	public ScriptReference get(String name) {
+		if (name.equalsIgnoreCase("player")) {
+			return player;
+		} else if (name.equalsIgnoreCase("area")) {
+			return area;
+		} else if (name.equalsIgnoreCase("minigame")) {
+			return (player != null ? player.getMinigame() : null);
+		} else if (name.equalsIgnoreCase("team")) {
+			return (player != null ? player.getTeam() : null);
+		}
+		
+		return null;
+	}
+}
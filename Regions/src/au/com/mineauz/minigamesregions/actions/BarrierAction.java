@@ -47,6 +47,7 @@ public class BarrierAction extends ActionInterface{
 		if(player == null || !player.isInMinigame()) return;
 		Location o = player.getLocation().clone();
 		Location[] locs = {region.getFirstPoint(), region.getSecondPoint()};
+		boolean inside = region.hasPlayer(player);
 		double xdis1 = Math.abs(o.getX() - locs[0].getX());
 		double ydis1 = Math.abs(o.getY() - locs[0].getY());
 		double zdis1 = Math.abs(o.getZ() - locs[0].getZ());
@@ -78,7 +79,7 @@ public class BarrierAction extends ActionInterface{
 		else
 			zval = zdis2;
 		if(xval < yval && xval < zval){
-			if(region.getPlayers().contains(player)){
+			if(inside){
 				if(isMinX)
 					o.setX(o.getX() - 0.5);
 				else
@@ -92,7 +93,7 @@ public class BarrierAction extends ActionInterface{
 			}
 		}
 		else if(yval < xval && yval < zval){
-			if(region.getPlayers().contains(player)){
+			if(inside){
 				if(isMinY)
 					o.setY(o.getY() - 0.5);
 				else
@@ -106,7 +107,7 @@ public class BarrierAction extends ActionInterface{
 			}
 		}
 		else if(zval < xval && zval < yval){
-			if(region.getPlayers().contains(player)){
+			if(inside){
 				if(isMinZ)
 					o.setZ(o.getZ() - 0.5);
 				else
@@ -120,7 +121,7 @@ public class BarrierAction extends ActionInterface{
 			}
 		}
 		player.teleport(o);
-		if(region.getPlayers().contains(player))
+		if(inside)
 			region.removePlayer(player);
 		else
 			region.addPlayer(player);
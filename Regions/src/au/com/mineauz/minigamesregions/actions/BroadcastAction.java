@@ -1,13 +1,10 @@
 package au.com.mineauz.minigamesregions.actions;
 
 import java.util.Map;
-import java.util.Set;
 
 import org.bukkit.Material;
 import org.bukkit.configuration.file.FileConfiguration;
 
-import com.google.common.collect.ImmutableSet;
-
 import au.com.mineauz.minigames.MinigamePlayer;
 import au.com.mineauz.minigames.Minigames;
 import au.com.mineauz.minigames.config.BooleanFlag;
@@ -15,8 +12,8 @@ import au.com.mineauz.minigames.config.StringFlag;
 import au.com.mineauz.minigames.menu.Menu;
 import au.com.mineauz.minigames.menu.MenuItemBack;
 import au.com.mineauz.minigames.script.ExpressionParser;
+import au.com.mineauz.minigames.script.ExpressionTemplate;
 import au.com.mineauz.minigames.script.ScriptObject;
-import au.com.mineauz.minigames.script.ScriptReference;
 import au.com.mineauz.minigamesregions.Node;
 import au.com.mineauz.minigamesregions.Region;
 
@@ -25,6 +22,8 @@ public class BroadcastAction extends ActionInterface{
 	private StringFlag message = new StringFlag("Hello World", "message");
 	private BooleanFlag excludeExecutor = new BooleanFlag(false, "exludeExecutor");
 	private BooleanFlag redText = new BooleanFlag(false, "redText");
+	private ExpressionTemplate template;
+	private ActionScriptContext context = new ActionScriptContext();
 
 	@Override
 	public String getName() {
@@ -55,69 +54,15 @@ public class BroadcastAction extends ActionInterface{
 
 	@Override
 	public void executeRegionAction(final MinigamePlayer player, final Region region) {
-		ScriptObject base = new ScriptObject() {
-			@Override
-			public Set<String> getKeys() {
-				return ImmutableSet.of("player", "area", "minigame", "team");
-			}
-			
-			@Override
-			public String getAsString() {
-				return "";
-			}
-			
-			@Override
-			public ScriptReference get(String name) {
-				if (name.equalsIgnoreCase("player")) {
-					return player;
-				} else if (name.equalsIgnoreCase("area")) {
-					return region;
-				} else if (name.equalsIgnoreCase("minigame")) {
-					return player.getMinigame();
-				} else if (name.equalsIgnoreCase("team")) {
-					return player.getTeam();
-				}
-				
-				return null;
-			}
-		};
-		
-		execute(player, base);
+		execute(player, region);
 	}
 
 	@Override
 	public void executeNodeAction(final MinigamePlayer player, final Node node) {
-		ScriptObject base = new ScriptObject() {
-			@Override
-			public Set<String> getKeys() {
-				return ImmutableSet.of("player", "area", "minigame", "team");
-			}
-			
-			@Override
-			public String getAsString() {
-				return "";
-			}
-			
-			@Override
-			public ScriptReference get(String name) {
-				if (name.equalsIgnoreCase("player")) {
-					return player;
-				} else if (name.equalsIgnoreCase("area")) {
-					return node;
-				} else if (name.equalsIgnoreCase("minigame")) {
-					return player.getMinigame();
-				} else if (name.equalsIgnoreCase("team")) {
-					return player.getTeam();
-				}
-				
-				return null;
-			}
-		};
-		
-		execute(player, base);
+		execute(player, node);
 	}
 	
-	private void execute(MinigamePlayer player, ScriptObject base){
+	private void execute(MinigamePlayer player, ScriptObject area){
 		String type = "info";
 		if(redText.getFlag())
 			type = "error";
@@ -125,18 +70,26 @@ public class BroadcastAction extends ActionInterface{
 		if(excludeExecutor.getFlag())
 			exclude = player;
 		
+		// New expression system
+		String message = getTemplate().resolve(context.set(player, area), true);
+		context.clear();
+		
 		// Old replacement
-		String message = this.message.getFlag();
 		if (player != null) {
 			message = message.replace("%player%", player.getDisplayName());
 		}
 		
-		// New expression system
-		message = ExpressionParser.stringResolve(message, base, true, true);
-		
 		Minigames.plugin.mdata.sendMinigameMessage(player.getMinigame(), message, type, exclude);
 	}
 
+	private ExpressionTemplate getTemplate() {
+		// Only parse the message again when it changes
+		if (template == null || !template.getSource().equals(message.getFlag())) {
+			template = ExpressionParser.compile(message.getFlag(), true);
+		}
+		return template;
+	}
+
 	@Override
 	public void saveArguments(FileConfiguration config, String path) {
 		message.saveValue(path, config);
@@ -1,14 +1,12 @@
 package au.com.mineauz.minigamesregions.actions;
 
 import java.util.Map;
-import java.util.Set;
 
 import org.bukkit.Bukkit;
+import org.bukkit.Location;
 import org.bukkit.Material;
 import org.bukkit.configuration.file.FileConfiguration;
 
-import com.google.common.collect.ImmutableSet;
-
 import au.com.mineauz.minigames.MinigamePlayer;
 import au.com.mineauz.minigames.MinigameUtils;
 import au.com.mineauz.minigames.config.BooleanFlag;
@@ -18,8 +16,8 @@ import au.com.mineauz.minigames.menu.Menu;
 import au.com.mineauz.minigames.menu.MenuItemPage;
 import au.com.mineauz.minigames.menu.MenuItemString;
 import au.com.mineauz.minigames.script.ExpressionParser;
+import au.com.mineauz.minigames.script.ExpressionTemplate;
 import au.com.mineauz.minigames.script.ScriptObject;
-import au.com.mineauz.minigames.script.ScriptReference;
 import au.com.mineauz.minigamesregions.Node;
 import au.com.mineauz.minigamesregions.Region;
 import au.com.mineauz.minigamesregions.util.NullCommandSender;
@@ -28,6 +26,8 @@ public class ExecuteCommandAction extends ActionInterface {
 	
 	private StringFlag comd = new StringFlag("say Hello World!", "command");
 	private BooleanFlag silentExecute = new BooleanFlag(false, "silent");
+	private ExpressionTemplate template;
+	private ActionScriptContext context = new ActionScriptContext();
 
 	@Override
 	public String getName() {
@@ -60,14 +60,15 @@ public class ExecuteCommandAction extends ActionInterface {
 			return string;
 		}
 		
+		Location location = player.getLocation();
 		return string
 			.replace("{player}", player.getName())
 			.replace("{dispplayer}", player.getName())
-			.replace("{px}", String.valueOf(player.getLocation().getX()))
-			.replace("{py}", String.valueOf(player.getLocation().getY()))
-			.replace("{pz}", String.valueOf(player.getLocation().getZ()))
-			.replace("{yaw}", String.valueOf(player.getLocation().getYaw()))
-			.replace("{pitch}", String.valueOf(player.getLocation().getPitch()))
+			.replace("{px}", String.valueOf(location.getX()))
+			.replace("{py}", String.valueOf(location.getY()))
+			.replace("{pz}", String.valueOf(location.getZ()))
+			.replace("{yaw}", String.valueOf(location.getYaw()))
+			.replace("{pitch}", String.valueOf(location.getPitch()))
 			.replace("{minigame}", player.getMinigame().getName(false))
 			.replace("{dispminigame}", player.getMinigame().getName(true))
 			.replace("{deaths}", String.valueOf(player.getDeaths()))
@@ -76,82 +77,36 @@ public class ExecuteCommandAction extends ActionInterface {
 			.replace("{score}", String.valueOf(player.getScore()))
 			.replace("{team}", (player.getTeam() != null ? player.getTeam().getDisplayName() : ""));
 	}
+	
+	private String resolve(MinigamePlayer player, ScriptObject area) {
+		// Only parse the command again when it changes
+		if (template == null || !template.getSource().equals(comd.getFlag())) {
+			template = ExpressionParser.compile(comd.getFlag(), true);
+		}
+		
+		// New expression system
+		String command = template.resolve(context.set(player, area), true);
+		context.clear();
+		
+		return replacePlayerTags(player, command);
+	}
 
 	@Override
 	public void executeRegionAction(final MinigamePlayer player, final Region region) {
-		String command = replacePlayerTags(player, comd.getFlag());
+		String command = resolve(player, region);
 		command = command.replace("{region}", region.getName());
-		
-		// New expression system
-		ScriptObject base = new ScriptObject() {
-			@Override
-			public Set<String> getKeys() {
-				return ImmutableSet.of("player", "area", "minigame", "team");
-			}
-			
-			@Override
-			public String getAsString() {
-				return "";
-			}
-			
-			@Override
-			public ScriptReference get(String name) {
-				if (name.equalsIgnoreCase("player")) {
-					return player;
-				} else if (name.equalsIgnoreCase("area")) {
-					return region;
-				} else if (name.equalsIgnoreCase("minigame")) {
-					return player.getMinigame();
-				} else if (name.equalsIgnoreCase("team")) {
-					return player.getTeam();
-				}
-				
-				return null;
-			}
-		};
-		
-		command = ExpressionParser.stringResolve(command, base, true, true);
 		dispatch(command);
 	}
 
 	@Override
 	public void executeNodeAction(final MinigamePlayer player, final Node node) {
-		String command = replacePlayerTags(player, comd.getFlag());
+		String command = resolve(player, node);
+		Location location = node.getLocation();
 		command = command
-			.replace("{x}", String.valueOf(node.getLocation().getBlockX()))
-			.replace("{y}", String.valueOf(node.getLocation().getBlockY()))
-			.replace("{z}", String.valueOf(node.getLocation().getBlockZ()))
+			.replace("{x}", String.valueOf(location.getBlockX()))
+			.replace("{y}", String.valueOf(location.getBlockY()))
+			.replace("{z}", String.valueOf(location.getBlockZ()))
 			.replace("{node}", node.getName());
-		
-		// New expression system
-		ScriptObject base = new ScriptObject() {
-			@Override
-			public Set<String> getKeys() {
-				return ImmutableSet.of("player", "area", "minigame", "team");
-			}
-			
-			@Override
-			public String getAsString() {
-				return "";
-			}
-			
-			@Override
-			public ScriptReference get(String name) {
-				if (name.equalsIgnoreCase("player")) {
-					return player;
-				} else if (name.equalsIgnoreCase("area")) {
-					return node;
-				} else if (name.equalsIgnoreCase("minigame")) {
-					return player.getMinigame();
-				} else if (name.equalsIgnoreCase("team")) {
-					return player.getTeam();
-				}
-				
-				return null;
-			}
-		};
-		
-		command = ExpressionParser.stringResolve(command, base, true, true);
 		dispatch(command);
 	}
 	
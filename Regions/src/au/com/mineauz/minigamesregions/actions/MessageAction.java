@@ -1,26 +1,25 @@
 package au.com.mineauz.minigamesregions.actions;
 
 import java.util.Map;
-import java.util.Set;
 
 import org.bukkit.Material;
 import org.bukkit.configuration.file.FileConfiguration;
 
-import com.google.common.collect.ImmutableSet;
-
 import au.com.mineauz.minigames.MinigamePlayer;
 import au.com.mineauz.minigames.config.StringFlag;
 import au.com.mineauz.minigames.menu.Menu;
 import au.com.mineauz.minigames.menu.MenuItemPage;
 import au.com.mineauz.minigames.script.ExpressionParser;
+import au.com.mineauz.minigames.script.ExpressionTemplate;
 import au.com.mineauz.minigames.script.ScriptObject;
-import au.com.mineauz.minigames.script.ScriptReference;
 import au.com.mineauz.minigamesregions.Node;
 import au.com.mineauz.minigamesregions.Region;
 
 public class MessageAction extends ActionInterface {
 	
 	private StringFlag msg = new StringFlag("Hello World", "message");
+	private ExpressionTemplate template;
+	private ActionScriptContext context = new ActionScriptContext();
 
 	@Override
 	public String getName() {
@@ -50,78 +49,29 @@ public class MessageAction extends ActionInterface {
 	@Override
 	public void executeNodeAction(final MinigamePlayer player, final Node node) {
 		if(player == null || !player.isInMinigame()) return;
-		
-		ScriptObject base = new ScriptObject() {
-			@Override
-			public Set<String> getKeys() {
-				return ImmutableSet.of("player", "area", "minigame", "team");
-			}
-			
-			@Override
-			public String getAsString() {
-				return "";
-			}
-			
-			@Override
-			public ScriptReference get(String name) {
-				if (name.equalsIgnoreCase("player")) {
-					return player;
-				} else if (name.equalsIgnoreCase("area")) {
-					return node;
-				} else if (name.equalsIgnoreCase("minigame")) {
-					return player.getMinigame();
-				} else if (name.equalsIgnoreCase("team")) {
-					return player.getTeam();
-				}
-				
-				return null;
-			}
-		};
-		
-		execute(player, base);
+		execute(player, node);
 	}
 
 	@Override
 	public void executeRegionAction(final MinigamePlayer player, final Region region) {
 		if(player == null || !player.isInMinigame()) return;
 		player.sendMessage(msg.getFlag(), null);
-		
-		ScriptObject base = new ScriptObject() {
-			@Override
-			public Set<String> getKeys() {
-				return ImmutableSet.of("player", "area", "minigame", "team");
-			}
-			
-			@Override
-			public String getAsString() {
-				return "";
-			}
-			
-			@Override
-			public ScriptReference get(String name) {
-				if (name.equalsIgnoreCase("player")) {
-					return player;
-				} else if (name.equalsIgnoreCase("area")) {
-					return region;
-				} else if (name.equalsIgnoreCase("minigame")) {
-					return player.getMinigame();
-				} else if (name.equalsIgnoreCase("team")) {
-					return player.getTeam();
-				}
-				
-				return null;
-			}
-		};
-		
-		execute(player, base);
+		execute(player, region);
 	}
 	
-	private void execute(MinigamePlayer player, ScriptObject base) {
-		String message = msg.getFlag();
-		
-		message = ExpressionParser.stringResolve(message, base, true, true);
+	private void execute(MinigamePlayer player, ScriptObject area) {
+		String message = getTemplate().resolve(context.set(player, area), true);
+		context.clear();
 		player.sendMessage(message, null);
 	}
+	
+	private ExpressionTemplate getTemplate() {
+		// Only parse the message again when it changes
+		if (template == null || !template.getSource().equals(msg.getFlag())) {
+			template = ExpressionParser.compile(msg.getFlag(), true);
+		}
+		return template;
+	}
 
 	@Override
 	public void saveArguments(FileConfiguration config, String path) {
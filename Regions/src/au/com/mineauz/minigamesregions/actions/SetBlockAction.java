@@ -2,8 +2,8 @@ package au.com.mineauz.minigamesregions.actions;
 
 import java.util.Map;
 
-import org.bukkit.Location;
 import org.bukkit.Material;
+import org.bukkit.block.Block;
 import org.bukkit.block.BlockState;
 import org.bukkit.configuration.file.FileConfiguration;
 
@@ -15,6 +15,8 @@ import au.com.mineauz.minigames.menu.Callback;
 import au.com.mineauz.minigames.menu.Menu;
 import au.com.mineauz.minigames.menu.MenuItemPage;
 import au.com.mineauz.minigames.menu.MenuItemString;
+import au.com.mineauz.minigamesregions.BlockEditQueue;
+import au.com.mineauz.minigamesregions.Main;
 import au.com.mineauz.minigamesregions.Node;
 import au.com.mineauz.minigamesregions.Region;
 
@@ -57,23 +59,24 @@ public class SetBlockAction extends ActionInterface {
 	@Override
 	public void executeRegionAction(MinigamePlayer player,
 			Region region) {
-		Location temp = region.getFirstPoint();
-		for(int y = region.getFirstPoint().getBlockY(); y <= region.getSecondPoint().getBlockY(); y++){
-			temp.setY(y);
-			for(int x = region.getFirstPoint().getBlockX(); x <= region.getSecondPoint().getBlockX(); x++){
-				temp.setX(x);
-				for(int z = region.getFirstPoint().getBlockZ(); z <= region.getSecondPoint().getBlockZ(); z++){
-					temp.setZ(z);
-					
-					BlockState bs = temp.getBlock().getState();
-					bs.setType(Material.getMaterial(type.getFlag()));
-					if(usedur.getFlag()){
-						bs.getData().setData(dur.getFlag().byteValue());
-					}
-					bs.update(true);
-				}
+		Material mat = Material.getMaterial(type.getFlag());
+		if(mat == null)
+			return;
+		
+		final int typeId = mat.getId();
+		final byte data = (usedur.getFlag() ? dur.getFlag().byteValue() : 0);
+		Main.getPlugin().getBlockEditQueue().submit(region, new BlockEditQueue.Operation() {
+			@Override
+			public boolean matches(Block block) {
+				// Leave blocks that are already set
+				return block.getTypeId() != typeId || block.getData() != data;
 			}
-		}
+			
+			@Override
+			public void apply(Block block) {
+				block.setTypeIdAndData(typeId, data, true);
+			}
+		}, player);
 	}
 
 	@SuppressWarnings("deprecation")
@@ -81,6 +84,8 @@ public class SetBlockAction extends ActionInterface {
 	public void executeNodeAction(MinigamePlayer player,
 			Node node) {
 		BlockState bs = node.getLocation().getBlock().getState();
+		if(player != null && player.isInMinigame())
+			player.getMinigame().getBlockRecorder().addBlock(bs, player);
 		bs.setType(Material.getMaterial(type.getFlag()));
 		if(usedur.getFlag()){
 			bs.getData().setData(dur.getFlag().byteValue());
@@ -20,6 +20,8 @@ import au.com.mineauz.minigames.menu.Menu;
 import au.com.mineauz.minigames.menu.MenuItemNewLine;
 import au.com.mineauz.minigames.menu.MenuItemPage;
 import au.com.mineauz.minigames.menu.MenuItemString;
+import au.com.mineauz.minigamesregions.BlockEditQueue;
+import au.com.mineauz.minigamesregions.Main;
 import au.com.mineauz.minigamesregions.Node;
 import au.com.mineauz.minigamesregions.Region;
 
@@ -70,50 +72,59 @@ public class SwapBlockAction extends ActionInterface {
 		return false;
 	}
 
-	@SuppressWarnings("deprecation")
 	@Override
 	public void executeRegionAction(MinigamePlayer player, Region region) {
-		for (int y = region.getFirstPoint().getBlockY(); y <= region.getSecondPoint().getBlockY(); y++) {
-			for (int x = region.getFirstPoint().getBlockX(); x <= region.getSecondPoint().getBlockX(); x++) {
-				for (int z = region.getFirstPoint().getBlockZ(); z <= region.getSecondPoint().getBlockZ(); z++) {
-					Block block = region.getFirstPoint().getWorld().getBlockAt(x, y, z);
-					
-					if (block.getType() == Material.getMaterial(matchType.getFlag())) {
-						if (matchData.getFlag() && block.getData() != matchDataValue.getFlag().byteValue()) {
-							continue;
-						}
-						
-						// Block matches, now replace it
-						byte data = 0;
-						BlockFace facing = null;
-						if (toData.getFlag()) {
-							// Replace data
-							data = toDataValue.getFlag().byteValue();
-						} else if (keepAttachment.getFlag()) {
-							// Keep attachments if possible
-							MaterialData mat = block.getState().getData();
-							if (mat instanceof Directional) {
-								facing = ((Directional)mat).getFacing();
-							}
-						}
-						
-						// Update block type
-						block.setType(Material.getMaterial(toType.getFlag()), false);
-						if (facing != null) {
-							BlockState state = block.getState();
-							MaterialData mat = block.getState().getData();
-							if (mat instanceof Directional) {
-								((Directional)mat).setFacingDirection(facing);
-							}
-							state.setData(mat);
-							state.update(true, false);
-						} else {
-							block.setData(data, false);
-						}
+		final Material from = Material.getMaterial(matchType.getFlag());
+		final Material to = Material.getMaterial(toType.getFlag());
+		if (from == null || to == null) {
+			return;
+		}
+		
+		final boolean useMatchData = matchData.getFlag();
+		final byte matchDataByte = matchDataValue.getFlag().byteValue();
+		final boolean useToData = toData.getFlag();
+		final byte toDataByte = toDataValue.getFlag().byteValue();
+		final boolean keepFacing = keepAttachment.getFlag();
+		
+		Main.getPlugin().getBlockEditQueue().submit(region, new BlockEditQueue.Operation() {
+			@SuppressWarnings("deprecation")
+			@Override
+			public boolean matches(Block block) {
+				return block.getType() == from && (!useMatchData || block.getData() == matchDataByte);
+			}
+			
+			@SuppressWarnings("deprecation")
+			@Override
+			public void apply(Block block) {
+				// Block matches, now replace it
+				byte data = 0;
+				BlockFace facing = null;
+				if (useToData) {
+					// Replace data
+					data = toDataByte;
+				} else if (keepFacing) {
+					// Keep attachments if possible
+					MaterialData mat = block.getState().getData();
+					if (mat instanceof Directional) {
+						facing = ((Directional)mat).getFacing();
 					}
 				}
+				
+				// Update block type
+				block.setType(to, false);
+				if (facing != null) {
+					BlockState state = block.getState();
+					MaterialData mat = state.getData();
+					if (mat instanceof Directional) {
+						((Directional)mat).setFacingDirection(facing);
+					}
+					state.setData(mat);
+					state.update(true, false);
+				} else {
+					block.setData(data, false);
+				}
 			}
-		}
+		}, player);
 	}
 
 	@Override
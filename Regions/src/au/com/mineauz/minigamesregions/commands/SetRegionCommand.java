@@ -1,5 +1,8 @@
 package au.com.mineauz.minigamesregions.commands;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 
 import org.bukkit.ChatColor;
@@ -11,8 +14,10 @@ import au.com.mineauz.minigames.MinigamePlayer;
 import au.com.mineauz.minigames.Minigames;
 import au.com.mineauz.minigames.commands.ICommand;
 import au.com.mineauz.minigames.minigame.Minigame;
+import au.com.mineauz.minigamesregions.Main;
 import au.com.mineauz.minigamesregions.Region;
 import au.com.mineauz.minigamesregions.RegionModule;
+import au.com.mineauz.minigamesregions.TriggerQueue;
 
 public class SetRegionCommand implements ICommand {
 
@@ -38,7 +43,7 @@ public class SetRegionCommand implements ICommand {
 
 	@Override
 	public String[] getParameters() {
-		return new String[] {"select", "create", "delete", "modify"};
+		return new String[] {"select", "create", "delete", "modify", "ticks"};
 	}
 
 	@Override
@@ -47,7 +52,8 @@ public class SetRegionCommand implements ICommand {
 				"/minigame set <Minigame> region select <1/2>",
 				"/minigame set <Minigame> region create <name>",
 				"/minigame set <Minigame> region delete <name>",
-				"/minigame set <Minigame> region modify"
+				"/minigame set <Minigame> region modify",
+				"/minigame set <Minigame> region ticks"
 		};
 	}
 
@@ -118,6 +124,35 @@ public class SetRegionCommand implements ICommand {
 					rmod.displayMenu(ply, null);
 					return true;
 				}
+				else if(args[0].equalsIgnoreCase("ticks")){
+					List<Region> ticked = new ArrayList<Region>();
+					for(Region region : rmod.getRegions()){
+						if(region.getTickCount() != 0)
+							ticked.add(region);
+					}
+					TriggerQueue triggers = Main.getPlugin().getTriggerQueue();
+					ply.sendMessage(ChatColor.GRAY + "Trigger queue: " + triggers.getDepth() + " waiting (" + triggers.getMaxDepth() + " max), " + 
+							triggers.getDrainedCount() + " run, " + triggers.getMergedCount() + " merged, " + 
+							String.format("%.1f", triggers.getAverageDrainNanos() / 1000) + "us average per tick");
+					if(ticked.isEmpty()){
+						ply.sendMessage(ChatColor.GRAY + "No regions in " + minigame.getName(false) + " have ticked.");
+						return true;
+					}
+					
+					// Most expensive first
+					Collections.sort(ticked, new Comparator<Region>() {
+						@Override
+						public int compare(Region o1, Region o2) {
+							return Double.compare(o2.getAverageTickNanos(), o1.getAverageTickNanos());
+						}
+					});
+					ply.sendMessage(ChatColor.GRAY + "Region tick costs in " + minigame.getName(false) + ":");
+					for(Region region : ticked){
+						ply.sendMessage(ChatColor.GRAY + region.getName() + ": " + String.format("%.1f", region.getAverageTickNanos() / 1000) + 
+								"us average over " + region.getTickCount() + " ticks, every " + region.getTickDelay() + " ticks");
+					}
+					return true;
+				}
 			}
 		}
 		return false;
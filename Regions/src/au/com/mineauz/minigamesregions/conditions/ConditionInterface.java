@@ -12,6 +12,11 @@ import au.com.mineauz.minigamesregions.Node;
 import au.com.mineauz.minigamesregions.Region;
 
 public abstract class ConditionInterface {
+	/** Conditions that only compare a few values */
+	public static final int COST_CHEAP = 0;
+	public static final int COST_NORMAL = 1;
+	/** Conditions that search inventories, teams or the world */
+	public static final int COST_EXPENSIVE = 2;
 	
 	private BooleanFlag invert = new BooleanFlag(false, "invert");
 	protected void addInvertMenuItem(Menu m){
@@ -38,4 +43,11 @@ public abstract class ConditionInterface {
 	public abstract boolean displayMenu(MinigamePlayer player, Menu prev);
 	
 	public abstract void describe(Map<String, Object> out);
+	
+	/**
+	 * @return How costly this condition is to check. Executors check cheaper conditions first.
+	 */
+	public int getCost(){
+		return COST_NORMAL;
+	}
 }
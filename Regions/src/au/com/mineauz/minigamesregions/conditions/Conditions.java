@@ -1,5 +1,8 @@
 package au.com.mineauz.minigamesregions.conditions;
 
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
@@ -17,6 +20,12 @@ import au.com.mineauz.minigamesregions.menuitems.MenuItemConditionAdd;
 
 public class Conditions {
 	private static Map<String, Class<? extends ConditionInterface>> conditions = new HashMap<String, Class<? extends ConditionInterface>>();
+	private static final Comparator<ConditionInterface> costOrder = new Comparator<ConditionInterface>() {
+		@Override
+		public int compare(ConditionInterface o1, ConditionInterface o2) {
+			return o1.getCost() - o2.getCost();
+		}
+	};
 	
 	static{
 		addCondition("PLAYER_HEALTH_RANGE", PlayerHealthRangeCondition.class);
@@ -58,6 +67,16 @@ public class Conditions {
 		return null;
 	}
 	
+	/**
+	 * @return The conditions in the order they should be checked, cheapest first.
+	 * Conditions of the same cost keep their original order.
+	 */
+	public static ConditionInterface[] getCheckOrder(Collection<ConditionInterface> conditions){
+		ConditionInterface[] order = conditions.toArray(new ConditionInterface[conditions.size()]);
+		Arrays.sort(order, costOrder);
+		return order;
+	}
+	
 	public static Set<String> getAllConditionNames(){
 		return conditions.keySet();
 	}
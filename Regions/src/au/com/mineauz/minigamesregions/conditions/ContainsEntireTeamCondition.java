@@ -23,6 +23,11 @@ public class ContainsEntireTeamCondition extends ConditionInterface {
 		return "Team Conditions";
 	}
 	
+	@Override
+	public int getCost(){
+		return COST_EXPENSIVE;
+	}
+	
 	@Override
 	public void describe(Map<String, Object> out) {
 	}
@@ -39,7 +44,7 @@ public class ContainsEntireTeamCondition extends ConditionInterface {
 
 	@Override
 	public boolean checkRegionCondition(MinigamePlayer player, Region region) {
-		if(region.getPlayers().containsAll(player.getTeam().getPlayers()))
+		if(region.getPlayerSet().containsAll(player.getTeam().getPlayers()))
 			return true;
 		return false;
 	}
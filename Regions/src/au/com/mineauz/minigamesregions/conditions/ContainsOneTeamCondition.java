@@ -48,7 +48,7 @@ public class ContainsOneTeamCondition extends ConditionInterface {
 		boolean ret = true;
 		Team last = player.getTeam();
 		if(last == null) return true;
-		for(MinigamePlayer p : region.getPlayers()){
+		for(MinigamePlayer p : region.getPlayerSet()){
 			if(last != p.getTeam()){
 				ret = false;
 				break;
@@ -25,6 +25,11 @@ public class HasFlagCondition extends ConditionInterface {
 		return "Player Conditions";
 	}
 	
+	@Override
+	public int getCost() {
+		return COST_CHEAP;
+	}
+	
 	@Override
 	public void describe(Map<String, Object> out) {
 		out.put("Flag", flagName.getFlag());
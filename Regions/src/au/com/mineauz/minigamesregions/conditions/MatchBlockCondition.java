@@ -29,6 +29,10 @@ public class MatchBlockCondition extends ConditionInterface {
 	private StringFlag type = new StringFlag("STONE", "type");
 	private BooleanFlag useDur = new BooleanFlag(false, "usedur");
 	private IntegerFlag dur = new IntegerFlag(0, "dur");
+	
+	// The material of the type flag, looked up again when the flag changes
+	private String materialName;
+	private Material material;
 
 	@Override
 	public String getName() {
@@ -72,7 +76,12 @@ public class MatchBlockCondition extends ConditionInterface {
 	@SuppressWarnings("deprecation")
 	private boolean check(Location location){
 		Block block = location.getBlock();
-		if(block.getType() == Material.getMaterial(type.getFlag()) &&
+		if(materialName != type.getFlag()){
+			materialName = type.getFlag();
+			material = Material.getMaterial(materialName);
+		}
+		
+		if(block.getType() == material &&
 				(!useDur.getFlag() || 
 						block.getData() == dur.getFlag().byteValue())){
 			return true;
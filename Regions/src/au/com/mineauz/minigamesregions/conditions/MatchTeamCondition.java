@@ -32,6 +32,11 @@ public class MatchTeamCondition extends ConditionInterface {
 		return "Team Conditions";
 	}
 	
+	@Override
+	public int getCost(){
+		return COST_CHEAP;
+	}
+	
 	@Override
 	public void describe(Map<String, Object> out) {
 		out.put("Team", team.getFlag());
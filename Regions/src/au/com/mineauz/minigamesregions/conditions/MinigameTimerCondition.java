@@ -30,6 +30,11 @@ public class MinigameTimerCondition extends ConditionInterface{
 		return "Minigame Conditions";
 	}
 	
+	@Override
+	public int getCost() {
+		return COST_CHEAP;
+	}
+	
 	@Override
 	public void describe(Map<String, Object> out) {
 		out.put("Time", MinigameUtils.convertTime(minTime.getFlag(), true) + " - " + MinigameUtils.convertTime(maxTime.getFlag(), true));
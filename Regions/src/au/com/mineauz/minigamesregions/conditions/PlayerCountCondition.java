@@ -27,6 +27,11 @@ public class PlayerCountCondition extends ConditionInterface {
 		return "Player Conditions";
 	}
 	
+	@Override
+	public int getCost() {
+		return COST_CHEAP;
+	}
+	
 	@Override
 	public void describe(Map<String, Object> out) {
 		out.put("Count", min.getFlag() + " - " + max.getFlag());
@@ -44,7 +49,7 @@ public class PlayerCountCondition extends ConditionInterface {
 
 	@Override
 	public boolean checkRegionCondition(MinigamePlayer player, Region region) {
-		if(region.getPlayers().size() >= min.getFlag() && region.getPlayers().size() <= max.getFlag())
+		if(region.getPlayerSet().size() >= min.getFlag() && region.getPlayerSet().size() <= max.getFlag())
 			return true;
 		return false;
 	}
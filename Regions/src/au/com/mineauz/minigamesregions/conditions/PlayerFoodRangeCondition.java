@@ -27,6 +27,11 @@ public class PlayerFoodRangeCondition extends ConditionInterface {
 		return "Player Conditions";
 	}
 	
+	@Override
+	public int getCost(){
+		return COST_CHEAP;
+	}
+	
 	@Override
 	public void describe(Map<String, Object> out) {
 		out.put("Food", min.getFlag() + " - " + max.getFlag());
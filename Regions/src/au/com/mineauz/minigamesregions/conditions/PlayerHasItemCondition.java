@@ -41,6 +41,16 @@ public class PlayerHasItemCondition extends ConditionInterface {
 	
 	private StringFlag name = new StringFlag(null, "name");
 	private StringFlag lore = new StringFlag(null, "lore");
+	
+	// Values parsed from the flags above. Each is parsed again when its flag changes
+	private String preparedType;
+	private Material material;
+	private String preparedWhere;
+	private PositionType checkType;
+	private String preparedName;
+	private Pattern namePattern;
+	private String preparedLore;
+	private Pattern lorePattern;
 
 	@Override
 	public String getName() {
@@ -52,6 +62,11 @@ public class PlayerHasItemCondition extends ConditionInterface {
 		return "Player Conditions";
 	}
 	
+	@Override
+	public int getCost() {
+		return COST_EXPENSIVE;
+	}
+	
 	@Override
 	public void describe(Map<String, Object> out) {
 		if (useData.getFlag()) {
@@ -92,12 +107,35 @@ public class PlayerHasItemCondition extends ConditionInterface {
 		return check(player);
 	}
 	
-	private boolean check(MinigamePlayer player) {
-		PositionType checkType = PositionType.valueOf(where.getFlag().toUpperCase());
-		if (checkType == null) {
-			checkType = PositionType.ANYWHERE;
+	private void prepare() {
+		if (preparedType != type.getFlag()) {
+			preparedType = type.getFlag();
+			material = Material.getMaterial(preparedType);
+		}
+		
+		if (preparedWhere != where.getFlag()) {
+			preparedWhere = where.getFlag();
+			try {
+				checkType = PositionType.valueOf(preparedWhere.toUpperCase());
+			} catch (IllegalArgumentException e) {
+				checkType = PositionType.ANYWHERE;
+			}
+		}
+		
+		if (matchName.getFlag() && (namePattern == null || preparedName != name.getFlag())) {
+			preparedName = name.getFlag();
+			namePattern = createNamePattern();
 		}
 		
+		if (matchLore.getFlag() && (lorePattern == null || preparedLore != lore.getFlag())) {
+			preparedLore = lore.getFlag();
+			lorePattern = createLorePattern();
+		}
+	}
+	
+	private boolean check(MinigamePlayer player) {
+		prepare();
+		
 		PlayerInventory inventory = player.getPlayer().getInventory();
 		ItemStack[] searchItems;
 		int startSlot;
@@ -125,19 +163,6 @@ public class PlayerHasItemCondition extends ConditionInterface {
 			}
 		}
 		
-		Material material = Material.getMaterial(type.getFlag());
-		
-		Pattern namePattern = null;
-		Pattern lorePattern = null;
-		
-		if (matchName.getFlag()) {
-			namePattern = createNamePattern();
-		}
-		
-		if (matchLore.getFlag()) {
-			lorePattern = createLorePattern();
-		}
-		
 		for (int i = startSlot; i < endSlot && i < searchItems.length; ++i) {
 			ItemStack itemInSlot = searchItems[i];
 			if (itemInSlot == null) {
@@ -27,6 +27,11 @@ public class PlayerHealthRangeCondition extends ConditionInterface {
 		return "Player Conditions";
 	}
 	
+	@Override
+	public int getCost(){
+		return COST_CHEAP;
+	}
+	
 	@Override
 	public void describe(Map<String, Object> out) {
 		out.put("Health", minHealth.getFlag() + " - " + maxHealth.getFlag());
@@ -14,6 +14,7 @@ import au.com.mineauz.minigamesregions.Node;
 import au.com.mineauz.minigamesregions.Region;
 
 public class RandomChanceCondition extends ConditionInterface {
+	private static final Random random = new Random();
 	
 	private IntegerFlag chance = new IntegerFlag(50, "chance");
 
@@ -27,6 +28,11 @@ public class RandomChanceCondition extends ConditionInterface {
 		return "Misc Conditions";
 	}
 	
+	@Override
+	public int getCost(){
+		return COST_CHEAP;
+	}
+	
 	@Override
 	public void describe(Map<String, Object> out) {
 		out.put("Chance", chance.getFlag() + "%");
@@ -54,8 +60,7 @@ public class RandomChanceCondition extends ConditionInterface {
 	
 	private boolean check(){
 		double chance = this.chance.getFlag().doubleValue() / 100d;
-		Random rand = new Random();
-		if(rand.nextDouble() <= chance)
+		if(random.nextDouble() <= chance)
 			return true;
 		return false;
 	}
@@ -49,7 +49,7 @@ public class TeamPlayerCountCondition extends ConditionInterface {
 		if(player.getTeam() != null) {
 			Integer count = 0;
 			Team t = player.getTeam();
-			for (MinigamePlayer user : region.getPlayers()) {
+			for (MinigamePlayer user : region.getPlayerSet()) {
 				if (user.getTeam().equals(t)) {
 					count++;
 				}
@@ -2,12 +2,14 @@ package au.com.mineauz.minigamesregions.triggers;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 
 public class Triggers {
 	
 	private static Map<String, Trigger> triggers = new HashMap<String, Trigger>();
+	private static Map<Trigger, Integer> ids = new IdentityHashMap<Trigger, Integer>();
 	
 	static{
 		addTrigger(new BlockBreakTrigger());
@@ -38,8 +40,24 @@ public class Triggers {
 	public static void addTrigger(Trigger trigger){
 		if(triggers.containsKey(trigger.getName()))
 			throw new InvalidTriggerException("A trigger already exists by that name!");
-		else
+		else{
 			triggers.put(trigger.getName(), trigger);
+			ids.put(trigger, ids.size());
+		}
+	}
+	
+	/**
+	 * @return A number unique to this trigger, from 0 to {@link #getTriggerCount()} - 1, or -1 if it is not registered
+	 */
+	public static int getId(Trigger trigger){
+		Integer id = ids.get(trigger);
+		if(id == null)
+			return -1;
+		return id;
+	}
+	
+	public static int getTriggerCount(){
+		return ids.size();
 	}
 	
 	public static Trigger getTrigger(String trigger){